@@ -0,0 +1,101 @@
+package com.aliyun.filedetect;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 性能回归门禁：运行基准测试并与基线比较，任一项变差超过容差时以非0退出
+ *
+ * 参数：第一个命令行参数为要运行的基准测试（正则，默认全部）
+ * -Dbaseline=文件 基线文件，默认baseline.properties，不存在时只记录不比较
+ * -Dtolerance=比例 容差，默认0.1
+ * -Dupdate=true 运行后以本次结果覆盖基线
+ */
+public class BenchmarkGate {
+	public static void main(String[] args) throws Exception {
+		String include = args.length > 0 ? args[0] : "com\\.aliyun\\.filedetect\\..*Benchmark";
+		File baseline_file = new File(System.getProperty("baseline", "baseline.properties"));
+		double tolerance = Double.parseDouble(System.getProperty("tolerance", "0.1"));
+
+		Options options = new OptionsBuilder().include(include).build();
+		Collection<RunResult> results = new Runner(options).run();
+
+		Properties baseline = load(baseline_file);
+		Properties current = new Properties();
+		int regression_num = 0;
+		for (RunResult result : results) {
+			BenchmarkParams params = result.getParams();
+			String key = keyOf(params);
+			double score = result.getPrimaryResult().getScore();
+			current.setProperty(key, String.valueOf(score));
+			String old = baseline.getProperty(key);
+			if (null == old) {
+				System.out.printf("NEW   %s %.3f %s%n", key, score, result.getPrimaryResult().getScoreUnit());
+				continue;
+			}
+			double base = Double.parseDouble(old);
+			// 吞吐量越高越好，其余模式为用时，越低越好
+			double change = params.getMode() == Mode.Throughput ? (base - score) / base : (score - base) / base;
+			boolean regressed = change > tolerance;
+			if (regressed) {
+				regression_num++;
+			}
+			System.out.printf("%s %s %.3f -> %.3f %s (%+.1f%% worse)%n", regressed ? "FAIL " : "OK   ", key, base, score,
+					result.getPrimaryResult().getScoreUnit(), change * 100);
+		}
+
+		if (Boolean.getBoolean("update")) {
+			try (OutputStream out = new FileOutputStream(baseline_file)) {
+				current.store(out, "filedetect benchmark baseline");
+			}
+			System.out.println("baseline updated: " + baseline_file);
+		}
+		if (regression_num > 0) {
+			System.out.println(regression_num + " benchmark(s) regressed by more than " + tolerance * 100 + "%");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return 基准测试名加参数，如 com.aliyun.filedetect.HashBenchmark.md5[size=4096,strategy=engine]
+	 */
+	private static String keyOf(BenchmarkParams params) {
+		StringBuilder key = new StringBuilder(params.getBenchmark());
+		TreeSet<String> names = new TreeSet<>(params.getParamsKeys());
+		if (!names.isEmpty()) {
+			key.append('[');
+			for (String name : names) {
+				if (key.charAt(key.length() - 1) != '[') {
+					key.append(',');
+				}
+				key.append(name).append('=').append(params.getParam(name));
+			}
+			key.append(']');
+		}
+		return key.toString();
+	}
+
+	private static Properties load(File file) throws IOException {
+		Properties properties = new Properties();
+		if (file.isFile()) {
+			try (InputStream in = new FileInputStream(file)) {
+				properties.load(in);
+			}
+		}
+		return properties;
+	}
+}
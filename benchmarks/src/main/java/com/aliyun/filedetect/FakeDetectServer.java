@@ -0,0 +1,361 @@
+package com.aliyun.filedetect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.aliyun.sas20181203.models.CreateFileDetectRequest;
+import com.aliyun.sas20181203.models.CreateFileDetectResponse;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlRequest;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlRequest.CreateFileDetectUploadUrlRequestHashKeyContextList;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponse;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlList;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlListContext;
+import com.aliyun.sas20181203.models.GetFileDetectResultRequest;
+import com.aliyun.sas20181203.models.GetFileDetectResultResponse;
+import com.aliyun.sas20181203.models.GetFileDetectResultResponseBody;
+import com.aliyun.sas20181203.models.GetFileDetectResultResponseBody.GetFileDetectResultResponseBodyResultList;
+import com.aliyun.tea.TeaException;
+import com.aliyun.teautil.models.RuntimeOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 进程内的模拟检测服务，用于压力测试
+ *
+ * 三个OpenAPI调用在进程内模拟，文件上传经由本地HTTP服务，走真实的multipart上传流程。
+ * 可模拟检测用时、接口时延、按接口限流、随机错误及上传带宽。
+ * 各参数需在start前设置。
+ */
+public class FakeDetectServer {
+	private int m_detect_time_min = 200; // 检测用时下限，单位为毫秒
+	private int m_detect_time_max = 1000; // 检测用时上限，单位为毫秒
+	private double m_black_ratio = 0.05; // 检测结果为黑样本的比例
+	private double m_known_ratio = 0; // 服务端已有检测结果、无需上传的样本比例
+	private int m_api_latency = 5; // 每次OpenAPI调用的时延，单位为毫秒
+	private int m_qps_limit = 0; // 每个接口每秒允许的调用次数，超出返回限流，0为不限
+	private double m_error_ratio = 0; // OpenAPI调用返回服务端错误的比例
+	private long m_upload_bandwidth = 0; // 所有上传共享的带宽，单位为字节/秒，0为不限
+
+	private static class Sample {
+		final long ready_time; // 检测完成时间
+		final boolean is_black;
+		Sample(long ready_time, boolean is_black) {
+			this.ready_time = ready_time;
+			this.is_black = is_black;
+		}
+	}
+
+	// 每秒窗口计数的限流
+	private static class Window {
+		private long m_second = 0;
+		private int m_count = 0;
+		synchronized boolean tryAcquire(int limit) {
+			long second = System.currentTimeMillis() / 1000;
+			if (second != m_second) {
+				m_second = second;
+				m_count = 0;
+			}
+			return ++m_count <= limit;
+		}
+	}
+
+	private final Map<String, Sample> m_samples = new ConcurrentHashMap<>();
+	private final Set<String> m_uploaded = ConcurrentHashMap.newKeySet(); // 已上传的ossKey
+	private final Map<String, Window> m_windows = new HashMap<>();
+	private final Map<String, LongAdder> m_call_counts = new HashMap<>();
+	private final Map<String, LongAdder> m_throttle_counts = new HashMap<>();
+	private final LongAdder m_upload_count = new LongAdder();
+	private final LongAdder m_upload_bytes = new LongAdder();
+	private final Object m_bandwidth_lock = new Object();
+	private long m_bandwidth_next = 0; // 共享带宽下，下一字节可被接收的时间，单位为纳秒
+	private HttpServer m_server = null;
+	private ExecutorService m_executor = null;
+	private String m_upload_url = null;
+	private final OpenApiTransport m_transport = new OpenApiTransport(null) {
+		@Override
+		public GetFileDetectResultResponse getFileDetectResult(GetFileDetectResultRequest request, RuntimeOptions runtime) throws Exception {
+			return FakeDetectServer.this.getFileDetectResult(request);
+		}
+
+		@Override
+		public CreateFileDetectUploadUrlResponse createFileDetectUploadUrl(CreateFileDetectUploadUrlRequest request, RuntimeOptions runtime) throws Exception {
+			return FakeDetectServer.this.createFileDetectUploadUrl(request);
+		}
+
+		@Override
+		public CreateFileDetectResponse createFileDetect(CreateFileDetectRequest request, RuntimeOptions runtime) throws Exception {
+			return FakeDetectServer.this.createFileDetect(request);
+		}
+	};
+
+	public FakeDetectServer() {
+		for (String action : DetectorMetrics.ACTIONS) {
+			m_windows.put(action, new Window());
+			m_call_counts.put(action, new LongAdder());
+			m_throttle_counts.put(action, new LongAdder());
+		}
+	}
+
+	public FakeDetectServer setDetectTime(int min, int max) {
+		m_detect_time_min = min;
+		m_detect_time_max = Math.max(min, max);
+		return this;
+	}
+
+	public FakeDetectServer setBlackRatio(double black_ratio) {
+		m_black_ratio = black_ratio;
+		return this;
+	}
+
+	public FakeDetectServer setKnownRatio(double known_ratio) {
+		m_known_ratio = known_ratio;
+		return this;
+	}
+
+	public FakeDetectServer setApiLatency(int api_latency) {
+		m_api_latency = api_latency;
+		return this;
+	}
+
+	public FakeDetectServer setQpsLimit(int qps_limit) {
+		m_qps_limit = qps_limit;
+		return this;
+	}
+
+	public FakeDetectServer setErrorRatio(double error_ratio) {
+		m_error_ratio = error_ratio;
+		return this;
+	}
+
+	public FakeDetectServer setUploadBandwidth(long upload_bandwidth) {
+		m_upload_bandwidth = upload_bandwidth;
+		return this;
+	}
+
+	/**
+	 * 启动本地上传服务，监听127.0.0.1的随机端口
+	 */
+	public void start() throws IOException {
+		m_server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		m_server.createContext("/", this::handleUpload);
+		m_executor = Executors.newCachedThreadPool();
+		m_server.setExecutor(m_executor);
+		m_server.start();
+		m_upload_url = "http://127.0.0.1:" + m_server.getAddress().getPort() + "/";
+	}
+
+	public void stop() {
+		if (null != m_server) {
+			m_server.stop(0);
+			m_executor.shutdownNow();
+			m_server = null;
+		}
+		m_transport.close();
+	}
+
+	/**
+	 * @return 访问本模拟服务的transport，用于DetectorOptions.Builder.setTransport
+	 */
+	public DetectTransport getTransport() {
+		return m_transport;
+	}
+
+	/**
+	 * @param action 接口名，上传文件为UploadFile
+	 */
+	public long getCallCount(String action) {
+		return m_call_counts.get(action).sum();
+	}
+
+	public long getThrottleCount(String action) {
+		return m_throttle_counts.get(action).sum();
+	}
+
+	public long getUploadCount() {
+		return m_upload_count.sum();
+	}
+
+	public long getUploadBytes() {
+		return m_upload_bytes.sum();
+	}
+
+	private static TeaException newError(String code, String message) {
+		Map<String, Object> map = new HashMap<>();
+		map.put("code", code);
+		map.put("message", message);
+		return new TeaException(map);
+	}
+
+	// 模拟接口时延、限流与随机错误
+	private void call(String action) throws InterruptedException {
+		m_call_counts.get(action).increment();
+		if (m_api_latency > 0) {
+			Thread.sleep(m_api_latency);
+		}
+		if (m_qps_limit > 0 && !m_windows.get(action).tryAcquire(m_qps_limit)) {
+			m_throttle_counts.get(action).increment();
+			throw newError("Throttling.User", "Request was denied due to user flow control.");
+		}
+		if (m_error_ratio > 0 && ThreadLocalRandom.current().nextDouble() < m_error_ratio) {
+			throw newError("ServerError", "simulated server error");
+		}
+	}
+
+	// 按md5确定是否为服务端已有的样本，同一md5结果固定
+	private boolean isKnown(String md5) {
+		return m_known_ratio > 0 && (md5.hashCode() & 0x7fffffff) % 10000 < m_known_ratio * 10000;
+	}
+
+	private Sample getSample(String md5) {
+		Sample sample = m_samples.get(md5);
+		if (null == sample && isKnown(md5)) {
+			sample = m_samples.computeIfAbsent(md5, key -> newSample(0));
+		}
+		return sample;
+	}
+
+	private Sample newSample(long detect_time) {
+		return new Sample(System.currentTimeMillis() + detect_time, ThreadLocalRandom.current().nextDouble() < m_black_ratio);
+	}
+
+	private GetFileDetectResultResponse getFileDetectResult(GetFileDetectResultRequest request) throws InterruptedException {
+		call(RateLimiter.GET_FILE_DETECT_RESULT);
+		long now = System.currentTimeMillis();
+		List<GetFileDetectResultResponseBodyResultList> result_list = new ArrayList<>();
+		for (String md5 : request.hashKeyList) {
+			Sample sample = getSample(md5);
+			if (null == sample) {
+				if (request.hashKeyList.size() == 1) {
+					throw newError("GetResultFail", "file not found");
+				}
+				continue; // 批量查询时不返回无记录的md5
+			}
+			GetFileDetectResultResponseBodyResultList result = new GetFileDetectResultResponseBodyResultList();
+			result.hashKey = md5;
+			if (now < sample.ready_time) {
+				result.result = ScanTask.IS_DETECTING;
+			} else if (sample.is_black) {
+				result.result = ScanTask.IS_BLACK;
+				result.score = 100;
+				result.virusType = "Trojan";
+			} else {
+				result.result = ScanTask.IS_OK;
+				result.score = 0;
+			}
+			result_list.add(result);
+		}
+		GetFileDetectResultResponse response = new GetFileDetectResultResponse();
+		response.body = new GetFileDetectResultResponseBody();
+		response.body.resultList = result_list;
+		return response;
+	}
+
+	private CreateFileDetectUploadUrlResponse createFileDetectUploadUrl(CreateFileDetectUploadUrlRequest request) throws InterruptedException {
+		call(RateLimiter.CREATE_FILE_DETECT_UPLOAD_URL);
+		List<CreateFileDetectUploadUrlResponseBodyUploadUrlList> url_list = new ArrayList<>();
+		for (CreateFileDetectUploadUrlRequestHashKeyContextList hash_context : request.hashKeyContextList) {
+			CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url = new CreateFileDetectUploadUrlResponseBodyUploadUrlList();
+			upload_url.hashKey = hash_context.hashKey;
+			upload_url.fileExist = null != getSample(hash_context.hashKey);
+			if (!upload_url.fileExist) {
+				upload_url.publicUrl = m_upload_url;
+				upload_url.context = new CreateFileDetectUploadUrlResponseBodyUploadUrlListContext();
+				upload_url.context.ossKey = "fake/" + hash_context.hashKey;
+				upload_url.context.accessId = "fake";
+				upload_url.context.policy = "fake";
+				upload_url.context.signature = "fake";
+			}
+			url_list.add(upload_url);
+		}
+		CreateFileDetectUploadUrlResponse response = new CreateFileDetectUploadUrlResponse();
+		response.body = new CreateFileDetectUploadUrlResponseBody();
+		response.body.uploadUrlList = url_list;
+		return response;
+	}
+
+	private CreateFileDetectResponse createFileDetect(CreateFileDetectRequest request) throws InterruptedException {
+		call(RateLimiter.CREATE_FILE_DETECT);
+		if (!m_uploaded.contains(request.ossKey)) {
+			throw newError("InvalidOssKey", "file not uploaded: " + request.ossKey);
+		}
+		int detect_time = m_detect_time_min + ThreadLocalRandom.current().nextInt(m_detect_time_max - m_detect_time_min + 1);
+		m_samples.putIfAbsent(request.hashKey, newSample(detect_time));
+		return new CreateFileDetectResponse();
+	}
+
+	// 按共享带宽等待length字节可被接收
+	private void throttleUpload(long length) throws InterruptedException {
+		if (m_upload_bandwidth <= 0) {
+			return;
+		}
+		long wait;
+		synchronized (m_bandwidth_lock) {
+			long now = System.nanoTime();
+			m_bandwidth_next = Math.max(m_bandwidth_next, now) + length * 1000000000L / m_upload_bandwidth;
+			wait = m_bandwidth_next - now;
+		}
+		if (wait > 0) {
+			Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+		}
+	}
+
+	// 接收multipart上传，从表单中取出key字段
+	private void handleUpload(HttpExchange exchange) throws IOException {
+		m_call_counts.get(DetectorMetrics.UPLOAD_FILE).increment();
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			byte[] head = new byte[4096];
+			int head_length = 0;
+			long total = 0;
+			InputStream in = exchange.getRequestBody();
+			int bytes;
+			while ((bytes = in.read(buffer)) != -1) {
+				if (head_length < head.length) {
+					int copy = Math.min(bytes, head.length - head_length);
+					System.arraycopy(buffer, 0, head, head_length, copy);
+					head_length += copy;
+				}
+				total += bytes;
+				throttleUpload(bytes);
+			}
+			String key = parseKey(new String(head, 0, head_length, StandardCharsets.ISO_8859_1));
+			if (null == key) {
+				exchange.sendResponseHeaders(400, -1);
+				return;
+			}
+			m_uploaded.add(key);
+			m_upload_count.increment();
+			m_upload_bytes.add(total);
+			exchange.sendResponseHeaders(204, -1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			exchange.sendResponseHeaders(503, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static String parseKey(String head) {
+		String mark = "name=\"key\"\r\n\r\n";
+		int begin = head.indexOf(mark);
+		if (begin < 0) {
+			return null;
+		}
+		begin += mark.length();
+		int end = head.indexOf("\r\n", begin);
+		return end < 0 ? null : head.substring(begin, end);
+	}
+}
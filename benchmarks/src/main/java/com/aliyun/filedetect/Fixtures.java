@@ -0,0 +1,74 @@
+package com.aliyun.filedetect;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * 基准测试用的临时文件
+ */
+class Fixtures {
+	private Fixtures() {
+	}
+
+	/**
+	 * 创建指定大小、内容随机的临时文件，进程退出时删除
+	 */
+	static File createFile(long size) throws IOException {
+		File file = File.createTempFile("filedetect-bench-", ".bin");
+		file.deleteOnExit();
+		Random random = new Random(size);
+		byte[] buffer = new byte[64 * 1024];
+		try (OutputStream out = new FileOutputStream(file)) {
+			for (long remain = size; remain > 0; remain -= buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, (int) Math.min(remain, buffer.length));
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * 创建多个临时文件，返回时文件已可被md5缓存记录
+	 */
+	static File[] createFiles(int count, long size) throws IOException, InterruptedException {
+		File[] files = new File[count];
+		for (int i = 0; i < count; i++) {
+			files[i] = createFile(size + i); // 大小不同，内容与md5也不同
+		}
+		Thread.sleep(HashCache.RACY_WINDOW + 100); // 刚修改的文件不进入md5缓存
+		return files;
+	}
+
+	static void delete(File[] files) {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return 随机的32位小写十六进制串，用作md5
+	 */
+	static String randomMd5(Random random) {
+		return String.format("%016x%016x", random.nextLong(), random.nextLong());
+	}
+
+	/**
+	 * 丢弃写入内容的输出流，只统计字节数
+	 */
+	static class NullOutputStream extends OutputStream {
+		long m_count = 0;
+
+		@Override
+		public void write(int b) {
+			m_count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			m_count += len;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.aliyun.filedetect;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 文件md5计算，比较HashEngine与几种读取方式
+ *
+ * 文件在页缓存中，测得的是CPU与内存拷贝开销，不含磁盘读取
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+	@Param({ "4096", "1048576", "16777216", "67108864" })
+	public long size;
+
+	// engine: HashEngine.calcMd5; stream: FileInputStream + 8KB数组; channel: 直接内存缓冲区; mmap: 整体内存映射
+	@Param({ "engine", "stream", "channel", "mmap" })
+	public String strategy;
+
+	private File m_file;
+	private HashEngine m_engine;
+	private MessageDigest m_md5;
+	private ByteBuffer m_direct;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, NoSuchAlgorithmException {
+		m_file = Fixtures.createFile(size);
+		m_engine = new HashEngine(1, 16, new DetectorMetrics());
+		m_md5 = MessageDigest.getInstance("MD5");
+		m_direct = ByteBuffer.allocateDirect(Config.HASH_BUFFER_SIZE);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		List<Runnable> jobs = m_engine.shutdown();
+		jobs.clear();
+		m_file.delete();
+	}
+
+	@Benchmark
+	public byte[] md5() throws IOException {
+		switch (strategy) {
+		case "engine":
+			return m_engine.calcMd5(m_file.getPath()).getBytes();
+		case "stream":
+			return stream();
+		case "channel":
+			return channel();
+		default:
+			return mmap();
+		}
+	}
+
+	private byte[] stream() throws IOException {
+		m_md5.reset();
+		byte[] buffer = new byte[8192];
+		try (InputStream in = new FileInputStream(m_file)) {
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				m_md5.update(buffer, 0, n);
+			}
+		}
+		return m_md5.digest();
+	}
+
+	private byte[] channel() throws IOException {
+		m_md5.reset();
+		try (FileChannel channel = FileChannel.open(m_file.toPath(), StandardOpenOption.READ)) {
+			while (true) {
+				m_direct.clear();
+				if (channel.read(m_direct) < 0) {
+					break;
+				}
+				m_direct.flip();
+				m_md5.update(m_direct);
+			}
+		}
+		return m_md5.digest();
+	}
+
+	private byte[] mmap() throws IOException {
+		m_md5.reset();
+		try (FileChannel channel = FileChannel.open(m_file.toPath(), StandardOpenOption.READ)) {
+			m_md5.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		return m_md5.digest();
+	}
+}
@@ -0,0 +1,104 @@
+package com.aliyun.filedetect;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 端到端压力测试：以模拟检测服务为后端检测一批临时文件，输出吞吐量与时延分位数
+ *
+ * 参数均为系统属性：
+ * -Dfiles=个数 文件数，默认2000
+ * -Dsize=字节 文件大小，默认65536
+ * -Dthreads=个数 检测线程数，默认16
+ * -Dqueue=个数 检测队列最大个数，默认500
+ * -Dtimeout=毫秒 单个文件检测超时，默认60000
+ * -DdetectMin=毫秒 -DdetectMax=毫秒 服务端检测用时，默认200至1000
+ * -Dlatency=毫秒 接口时延，默认5
+ * -Dqps=次数 服务端每个接口每秒允许的调用次数，默认0不限
+ * -Dknown=比例 服务端已有检测结果的样本比例，默认0
+ * -Derror=比例 接口返回错误的比例，默认0
+ * -Dbandwidth=字节/秒 上传带宽，默认0不限
+ * -Drate=次/秒 客户端每个接口的调用速率上限，默认不设置
+ */
+public class LoadDriver {
+	public static void main(String[] args) throws Exception {
+		int file_num = Integer.getInteger("files", 2000);
+		long size = Long.getLong("size", 65536);
+		int timeout = Integer.getInteger("timeout", 60000);
+
+		FakeDetectServer server = new FakeDetectServer()
+				.setDetectTime(Integer.getInteger("detectMin", 200), Integer.getInteger("detectMax", 1000))
+				.setApiLatency(Integer.getInteger("latency", 5))
+				.setQpsLimit(Integer.getInteger("qps", 0))
+				.setKnownRatio(Double.parseDouble(System.getProperty("known", "0")))
+				.setErrorRatio(Double.parseDouble(System.getProperty("error", "0")))
+				.setUploadBandwidth(Long.getLong("bandwidth", 0));
+		server.start();
+
+		OpenAPIDetector detector = new OpenAPIDetector(DetectorOptions.builder()
+				.setThreadPoolSize(Integer.getInteger("threads", 16))
+				.setQueueSizeMax(Integer.getInteger("queue", 500))
+				.setTransport(server.getTransport())
+				.build());
+		if (null != System.getProperty("rate")) {
+			detector.setApiRateLimit(null, Double.parseDouble(System.getProperty("rate")));
+		}
+		System.out.println("preparing " + file_num + " files of " + size + " bytes");
+		File[] files = Fixtures.createFiles(file_num, size);
+		try {
+			ERR_CODE init_ret = detector.init("fake", "fake");
+			if (ERR_CODE.ERR_SUCC != init_ret) {
+				System.out.println("init failed: " + init_ret);
+				return;
+			}
+			final long[] latencies = new long[file_num];
+			final AtomicInteger result_num = new AtomicInteger(0);
+			final Map<String, Integer> codes = new TreeMap<>();
+			final CountDownLatch done = new CountDownLatch(file_num);
+			IDetectResultCallback callback = new IDetectResultCallback() {
+				public void onScanResult(int seq, String file_path, DetectResult result) {
+					latencies[result_num.getAndIncrement()] = result.time;
+					String code = result.isSucc() ? result.result.name() : result.error_code.name();
+					synchronized (codes) {
+						codes.merge(code, 1, Integer::sum);
+					}
+					done.countDown();
+				}
+			};
+
+			long start_time = System.currentTimeMillis();
+			for (File file : files) {
+				int seq = detector.detect(file.getPath(), timeout, callback, -1);
+				if (seq < 0) {
+					System.out.println("detect failed: " + seq);
+					return;
+				}
+			}
+			done.await();
+			long elapsed = Math.max(1, System.currentTimeMillis() - start_time);
+
+			Arrays.sort(latencies);
+			System.out.printf("files %d in %d ms, %.1f files/s%n", file_num, elapsed, file_num * 1000.0 / elapsed);
+			System.out.printf("latency ms: p50=%d p90=%d p99=%d max=%d%n", percentile(latencies, 0.5),
+					percentile(latencies, 0.9), percentile(latencies, 0.99), latencies[file_num - 1]);
+			System.out.println("results " + codes);
+			for (String action : DetectorMetrics.ACTIONS) {
+				System.out.printf("%-26s calls=%d throttled=%d%n", action, server.getCallCount(action),
+						server.getThrottleCount(action));
+			}
+			System.out.printf("uploads=%d bytes=%d%n", server.getUploadCount(), server.getUploadBytes());
+		} finally {
+			detector.uninit();
+			server.stop();
+			Fixtures.delete(files);
+		}
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+	}
+}
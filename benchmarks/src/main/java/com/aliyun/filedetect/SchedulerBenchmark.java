@@ -0,0 +1,79 @@
+package com.aliyun.filedetect;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 调度相关的基础操作：检测队列、流水线阶段交接、限速器与指标记录
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+	private static final Runnable NOOP = new Runnable() {
+		public void run() {
+		}
+	};
+
+	private final DispatchQueue m_queue = new DispatchQueue(Config.DISPATCH_STARVATION_LIMIT, Config.DISPATCH_NO_DEADLINE_AGE);
+	private final Histogram m_histogram = new Histogram();
+	private RateLimiter m_limiter;
+	private Stage m_stage;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		m_limiter = new RateLimiter(1e9); // 速率足够高，不会等待，只测获取许可的开销
+		m_stage = new Stage("bench", 2, 1024, false);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		List<Runnable> jobs = m_stage.shutdown();
+		jobs.clear();
+	}
+
+	// 检测线程池的任务队列：入队后取出
+	@Benchmark
+	@Threads(4)
+	public Runnable queueRoundTrip() {
+		m_queue.add(NOOP);
+		return m_queue.poll();
+	}
+
+	// 交给流水线阶段执行，队列满时阻塞，测得的是阶段的处理能力
+	@Benchmark
+	@Threads(4)
+	public boolean stageSubmit() {
+		return m_stage.submit(NOOP);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean rateLimiterAcquire() {
+		return m_limiter.acquire(RateLimiter.GET_FILE_DETECT_RESULT, Long.MAX_VALUE);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void histogramRecord() {
+		m_histogram.record(ThreadLocalRandom.current().nextInt(1 << 20));
+	}
+}
@@ -0,0 +1,94 @@
+package com.aliyun.filedetect;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * detect()提交路径在多线程下的开销
+ *
+ * 预先为文件写入md5缓存与检测结果缓存，提交即命中缓存，不发起网络请求；
+ * 测得的是文件状态检查、队列计数、序列号分配与结果回调阶段的交接
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmitBenchmark {
+	private static final int FILE_NUM = 256;
+	private static final IDetectResultCallback CALLBACK = new IDetectResultCallback() {
+		public void onScanResult(int seq, String file_path, DetectResult result) {
+		}
+	};
+
+	private OpenAPIDetector m_detector;
+	private File[] m_files;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int m_index = 0;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		// 不会连接服务端，endpoint仅用于构造客户端
+		m_detector = new OpenAPIDetector(DetectorOptions.builder().setEndpoint("127.0.0.1").build());
+		if (ERR_CODE.ERR_SUCC != m_detector.init("benchmark", "benchmark")) {
+			throw new IllegalStateException("init failed");
+		}
+		m_files = Fixtures.createFiles(FILE_NUM, 4096);
+		for (File file : m_files) {
+			String md5 = m_detector.m_hash_cache.getMd5(file.getPath());
+			m_detector.m_cache.put(md5, new ScanTask.ResultInfo(ScanTask.IS_OK));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		m_detector.waitQueueEmpty(10000);
+		m_detector.uninit();
+		Fixtures.delete(m_files);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int detectCached(Cursor cursor) {
+		return detect(cursor);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public int detectCachedContended(Cursor cursor) {
+		return detect(cursor);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public int getQueueSizeContended() {
+		return m_detector.getQueueSize();
+	}
+
+	private int detect(Cursor cursor) {
+		File file = m_files[cursor.m_index++ & (FILE_NUM - 1)];
+		int seq = m_detector.detect(file.getPath(), -1, CALLBACK);
+		if (seq <= 0) {
+			throw new IllegalStateException("detect failed: " + seq);
+		}
+		return seq;
+	}
+}
@@ -0,0 +1,88 @@
+package com.aliyun.filedetect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * OpenApiTransport.uploadFile中multipart请求体的构造与写出，写入丢弃数据的输出流，不含网络传输
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBodyBenchmark {
+	@Param({ "4096", "1048576", "16777216" })
+	public long size;
+
+	// stream: 当前实现，定长流式写出; memory: 先在内存中拼出完整请求体再写出
+	@Param({ "stream", "memory" })
+	public String strategy;
+
+	private File m_file;
+	private Map<String, String> m_form = new LinkedHashMap<>();
+	private byte[] m_buffer = new byte[Config.UPLOAD_BUFFER_SIZE];
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		m_file = Fixtures.createFile(size);
+		m_form.put("key", "bench/" + m_file.getName());
+		m_form.put("OSSAccessKeyId", "LTAIbenchmarkaccessid");
+		m_form.put("policy", "eyJleHBpcmF0aW9uIjoiMjAzMC0wMS0wMVQwMDowMDowMFoiLCJjb25kaXRpb25zIjpbXX0=");
+		m_form.put("Signature", "c2lnbmF0dXJlLWZvci1iZW5jaG1hcms=");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		m_file.delete();
+	}
+
+	@Benchmark
+	public long body() throws IOException {
+		Fixtures.NullOutputStream out = new Fixtures.NullOutputStream();
+		byte[] head = OpenApiTransport.multipartHead(m_form, m_file);
+		if ("stream".equals(strategy)) {
+			try (FileChannel channel = FileChannel.open(m_file.toPath(), StandardOpenOption.READ)) {
+				out.write(head);
+				OpenApiTransport.writeFileContent(out, channel, channel.size(), m_buffer);
+				out.write(OpenApiTransport.MULTIPART_END);
+			}
+		} else {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			body.write(head);
+			try (InputStream in = new FileInputStream(m_file)) {
+				byte[] buffer = new byte[1024];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					body.write(buffer, 0, n);
+				}
+			}
+			body.write(OpenApiTransport.MULTIPART_END);
+			body.writeTo(out);
+		}
+		return out.m_count;
+	}
+}
@@ -0,0 +1,99 @@
+package com.aliyun.filedetect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 检测结果缓存与文件md5缓存的查找
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerdictCacheBenchmark {
+	private static final int ENTRY_NUM = 1 << 16;
+	private static final int FILE_NUM = 256;
+
+	private VerdictCache m_cache;
+	private String[] m_hits = new String[ENTRY_NUM];
+	private String[] m_misses = new String[ENTRY_NUM];
+	private HashEngine m_engine;
+	private HashCache m_hash_cache;
+	private File[] m_files;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int m_index = 0;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, InterruptedException {
+		m_cache = new VerdictCache(Config.VERDICT_CACHE_MAX_ENTRIES, Config.VERDICT_CACHE_MAX_BYTES,
+				Config.VERDICT_CACHE_WHITE_TTL, Config.VERDICT_CACHE_BLACK_TTL, Config.VERDICT_CACHE_ERROR_TTL, null);
+		Random random = new Random(1);
+		for (int i = 0; i < ENTRY_NUM; i++) {
+			m_hits[i] = Fixtures.randomMd5(random);
+			m_misses[i] = Fixtures.randomMd5(random);
+			m_cache.put(m_hits[i], new ScanTask.ResultInfo(ScanTask.IS_OK));
+		}
+		m_engine = new HashEngine(1, 16, new DetectorMetrics());
+		m_hash_cache = new HashCache(Config.HASH_CACHE_MAX_ENTRIES, m_engine);
+		m_files = Fixtures.createFiles(FILE_NUM, 4096);
+		for (File file : m_files) {
+			m_hash_cache.getMd5(file.getPath());
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		m_engine.shutdown();
+		Fixtures.delete(m_files);
+	}
+
+	@Benchmark
+	public ScanTask.ResultInfo getHit(Cursor cursor) {
+		return m_cache.get(m_hits[cursor.m_index++ & (ENTRY_NUM - 1)]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public ScanTask.ResultInfo getHitContended(Cursor cursor) {
+		return m_cache.get(m_hits[cursor.m_index++ & (ENTRY_NUM - 1)]);
+	}
+
+	@Benchmark
+	public ScanTask.ResultInfo getMiss(Cursor cursor) {
+		return m_cache.get(m_misses[cursor.m_index++ & (ENTRY_NUM - 1)]);
+	}
+
+	// 覆盖已有条目，缓存大小不变
+	@Benchmark
+	@Threads(4)
+	public void putContended(Cursor cursor) {
+		m_cache.put(m_hits[cursor.m_index++ & (ENTRY_NUM - 1)], new ScanTask.ResultInfo(ScanTask.IS_OK));
+	}
+
+	// 提交检测时按文件状态查找md5，包含一次stat
+	@Benchmark
+	public String hashCachePeek(Cursor cursor) {
+		return m_hash_cache.peek(m_files[cursor.m_index++ & (FILE_NUM - 1)].getPath());
+	}
+}
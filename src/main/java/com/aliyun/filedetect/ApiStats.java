@@ -0,0 +1,10 @@
+package com.aliyun.filedetect;
+
+public class ApiStats {
+	public String action = null; // 接口名，上传文件为UploadFile
+	public long call_count = 0; // 调用次数，不含未发出的请求
+	public long error_count = 0; // 调用失败次数，含被限流
+	public long throttle_count = 0; // 被限流次数
+	public double rate = 0; // 当前限速，单位为次每秒，不限速（含上传文件）时为0
+	public HistogramStats latency = new HistogramStats(); // 调用用时，单位为微秒
+}
@@ -0,0 +1,12 @@
+package com.aliyun.filedetect;
+
+public class CacheStats {
+	public long hit_count = 0; // 命中次数，含持久化存储命中
+	public long miss_count = 0; // 未命中次数
+	public long eviction_count = 0; // 淘汰条目数
+	public long size = 0; // 当前条目数
+	public long bytes = 0; // 当前估算内存，单位为字节
+	public long store_hit_count = 0; // 内存未命中、持久化存储命中次数，含于hit_count
+	public long store_size = 0; // 持久化存储条目数，未启用时为0
+	public long store_error_count = 0; // 持久化存储读写失败或被跳过的次数
+}
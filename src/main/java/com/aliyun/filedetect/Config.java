@@ -1,11 +1,47 @@
 package com.aliyun.filedetect;
 
 class Config {
+	public final static String ENDPOINT = "tds.aliyuncs.com"; // OpenAPI服务地址
 	public final static int THREAD_POOL_SIZE = 64; // 线程池大小
 	public final static int QUEUE_SIZE_MAX = 200; // 队列最大个数
-	public final static int QUERY_RESULT_INTERVAL = 100; // 查询检测结果间隔时间，单位为毫秒
+	public final static int QUERY_RESULT_INTERVAL = 100; // 查询检测结果的最小间隔时间，单位为毫秒
+	public final static int QUERY_RESULT_MAX_INTERVAL = 5000; // 检测中样本退避查询的最大间隔时间，单位为毫秒
+	public final static double QUERY_RESULT_JITTER = 0.2; // 退避查询间隔的随机抖动比例
+	public final static int QUERY_RESULT_BATCH_SIZE = 100; // 单次批量查询检测结果的最大md5个数
+	public final static int UPLOAD_URL_BATCH_SIZE = 50; // 单次批量申请上传地址的最大md5个数
+	public final static int UPLOAD_URL_BATCH_WINDOW = 50; // 批量申请上传地址时等待更多样本的时长，单位为毫秒
+	public final static double API_RATE_LIMIT = 0; // 每个API的默认最大调用速率，单位为次每秒，0 表示不限速，被限流后自动降速
+	public final static double API_RATE_MIN = 1; // 被限流后降速的下限，单位为次每秒
+	public final static double API_RATE_RECOVER_RATIO = 0.05; // 每次调用成功恢复的速率占最大速率的比例
 	public final static int REQUEST_TOO_FREQUENTLY_SLEEP_TIME = 100; // 请求太过频繁时，需要休眠时间，单位为毫秒
+	public final static int VERDICT_CACHE_MAX_ENTRIES = 100000; // 检测结果缓存最大条目数
+	public final static long VERDICT_CACHE_MAX_BYTES = 64L * 1024 * 1024; // 检测结果缓存最大内存，单位为字节
+	public final static long VERDICT_CACHE_WHITE_TTL = 10 * 60 * 1000; // 白样本结果缓存有效期，单位为毫秒
+	public final static long VERDICT_CACHE_BLACK_TTL = 60 * 60 * 1000; // 黑样本结果缓存有效期，单位为毫秒
+	public final static long VERDICT_CACHE_ERROR_TTL = 0; // 错误结果缓存有效期，单位为毫秒，默认不缓存
+	public final static long VERDICT_STORE_MAX_AGE = 7L * 24 * 60 * 60 * 1000; // 持久化检测结果有效期，单位为毫秒
+	public final static long VERDICT_STORE_COMPACT_INTERVAL = 60 * 60 * 1000; // 持久化存储定期压缩间隔，单位为毫秒
+	public final static int VERDICT_STORE_COMPACT_THRESHOLD = 100000; // 未压缩记录达到此数量时触发压缩
+	public final static int HASH_THREAD_POOL_SIZE = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 16)); // md5计算线程池大小
+	public final static int HASH_QUEUE_SIZE = 1024; // md5计算队列容量
+	public final static int UPLOAD_THREAD_POOL_SIZE = 16; // 上传文件并发起检测的线程数
+	public final static int UPLOAD_QUEUE_SIZE = 64; // 上传队列容量
+	public final static int DELIVER_THREAD_POOL_SIZE = 2; // 回调检测结果的线程数
+	public final static int DELIVER_QUEUE_SIZE = 1024; // 回调队列容量
+	public final static int HASH_BUFFER_SIZE = 1024 * 1024; // md5计算读取缓冲区大小，单位为字节
+	public final static long HASH_MMAP_THRESHOLD = 64L * 1024 * 1024; // 文件大于此值时使用内存映射计算md5，单位为字节
+	public final static long HASH_MMAP_REGION_SIZE = 64L * 1024 * 1024; // 内存映射计算md5时每段大小，单位为字节
+	public final static int HASH_CACHE_MAX_ENTRIES = 200000; // 文件md5缓存最大条目数
 	public final static int HTTP_CONNECT_TIMEOUT = 6000; // 网络连接超时时间，单位为毫秒
 	public final static int HTTP_READ_TIMEOUT = 6000; // 网络连接超时时间，单位为毫秒
 	public final static int HTTP_UPLOAD_TIMEOUT = 60000; // 上传文件超时时间，单位为毫秒
+	public final static int UPLOAD_BUFFER_SIZE = 256 * 1024; // 上传文件时的读缓冲区大小，单位为字节
+	public final static int UPLOAD_BUFFER_POOL_SIZE = 32; // 复用的上传缓冲区最大个数
+	public final static int SCAN_WALK_THREAD_NUM = 4; // 目录扫描时遍历目录的线程数
+	public final static int SCAN_DETECT_TIMEOUT = 120000; // 目录扫描时单个文件检测超时时间，单位为毫秒
+	public final static int SCAN_PROGRESS_INTERVAL = 1000; // 目录扫描进度回调间隔，单位为毫秒
+	public final static int WATCH_QUIET_PERIOD = 2000; // 监控模式下文件无变化多久后提交检测，单位为毫秒
+	public final static int DEADLINE_ESTIMATE_MIN_SAMPLES = 16; // 按已完成的md5计算与上传估算用时所需的最少样本数，样本不足时不提前结束任务
+	public final static int DISPATCH_NO_DEADLINE_AGE = 60000; // 无超时的任务在检测队列中排序时视为的超时时长，单位为毫秒
+	public final static int DISPATCH_STARVATION_LIMIT = 8; // 低优先级任务等待期间，最多连续处理此数量的高优先级任务后处理一个低优先级任务
 }
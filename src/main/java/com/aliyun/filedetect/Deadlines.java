@@ -0,0 +1,53 @@
+package com.aliyun.filedetect;
+
+import java.util.List;
+import java.util.Map;
+
+import com.aliyun.teautil.models.RuntimeOptions;
+
+/**
+ * 将任务的剩余时间传递到接口调用与上传，任务超时后不再长时间占用检测线程
+ */
+class Deadlines {
+	private Deadlines() {
+	}
+
+	/**
+	 * 按截止时间收紧连接与读取超时
+	 *
+	 * @param base     检测器的超时设置，只包含connectTimeout与readTimeout
+	 * @param deadline 截止时间，单位为毫秒，Long.MAX_VALUE 不限
+	 * @return 超时不超过剩余时间的设置，剩余时间足够时返回base
+	 */
+	static RuntimeOptions bound(RuntimeOptions base, long deadline) {
+		if (Long.MAX_VALUE == deadline) {
+			return base;
+		}
+		// 超时为0表示无限等待，剩余时间已用完时取1毫秒，由调用方随后按超时处理
+		int left = (int) Math.max(1, Math.min(deadline - System.currentTimeMillis(), Integer.MAX_VALUE));
+		if (fits(base.connectTimeout, left) && fits(base.readTimeout, left)) {
+			return base;
+		}
+		RuntimeOptions runtime = new RuntimeOptions();
+		runtime.connectTimeout = fits(base.connectTimeout, left) ? base.connectTimeout : left;
+		runtime.readTimeout = fits(base.readTimeout, left) ? base.readTimeout : left;
+		return runtime;
+	}
+
+	/**
+	 * @return 批量调用涉及的任务中最晚的截止时间，调用结果在此之前对部分任务仍然有用
+	 */
+	static long latest(Map<String, List<ScanTask>> tasks, List<String> md5_list) {
+		long deadline = 0;
+		for (String md5 : md5_list) {
+			for (ScanTask task : tasks.get(md5)) {
+				deadline = Math.max(deadline, task.getDeadline());
+			}
+		}
+		return deadline;
+	}
+
+	private static boolean fits(Integer timeout, int left) {
+		return null != timeout && timeout > 0 && timeout <= left;
+	}
+}
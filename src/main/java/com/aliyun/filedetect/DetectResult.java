@@ -1,5 +1,8 @@
 package com.aliyun.filedetect;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class DetectResult {
 	
 	// 检测是否成功完成，true: 可通过getDetectResultInfo查看结果; false: 可通过getErrorInfo获取错误信息
@@ -16,6 +19,7 @@ public class DetectResult {
     	info.time = this.time;
     	info.error_code = this.error_code;
     	info.error_string = this.error_string;
+    	info.timing = this.timing;
     	return info;
     }
 
@@ -34,6 +38,7 @@ public class DetectResult {
     	info.time = this.time;
     	info.result = this.result;
     	info.score = this.score;
+    	info.timing = this.timing;
     	return info;
     }
 	
@@ -51,6 +56,7 @@ public class DetectResult {
 	    // 当网络出现问题时(未获取到服务应答)，返回 
 	    // {"action":"xxx", "error_code":"NetworkError", "error_message":"zzz"}
 		public String error_string = null; // 扩展错误信息
+		public Timing timing = null; // 各阶段时间
 	}
 
 	public static class VirusInfo {
@@ -58,6 +64,55 @@ public class DetectResult {
 		public String  ext_info = null; //扩展信息为json字符串
 	}
 
+	// 检测各阶段的时间点，单位为毫秒（System.currentTimeMillis），未经历的阶段为0
+	// 用于区分客户端排队、计算md5、上传的用时与服务端检测用时
+	public static class Timing {
+		public long enqueue_time = 0; // 提交检测
+		public long dequeue_time = 0; // 首次被检测线程处理
+		public long hash_start_time = 0; // 开始计算md5
+		public long hash_end_time = 0; // md5计算完成
+		public long lookup_time = 0; // 首次查询到检测结果（含检测中、无记录）
+		public long upload_url_time = 0; // 获得上传地址
+		public long upload_start_time = 0; // 开始上传文件
+		public long upload_end_time = 0; // 文件上传完成
+		public long submit_time = 0; // 发起检测（CreateFileDetect）成功
+		public List<Long> poll_times = new ArrayList<>(); // 每次查询到检测结果的时间，首次即lookup_time
+		public long finish_time = 0; // 得到最终结果
+		public int throttle_retries = 0; // 被限流后重试的次数
+		public long upload_bytes = 0; // 上传的字节数，文件已存在于服务端时为0
+		public boolean cache_hit = false; // 结果来自本地检测结果缓存
+		public boolean shared = false; // 结果来自同时检测的同md5任务
+
+		// 查询检测结果的次数
+		public int getPollCount() {
+			return poll_times.size();
+		}
+
+		// 排队等待检测线程的用时
+		public long getQueueTime() {
+			return span(enqueue_time, dequeue_time);
+		}
+
+		// 计算md5的用时
+		public long getHashTime() {
+			return span(hash_start_time, hash_end_time);
+		}
+
+		// 上传文件的用时
+		public long getUploadTime() {
+			return span(upload_start_time, upload_end_time);
+		}
+
+		// 发起检测到得到最终结果的用时，主要为服务端检测用时
+		public long getServiceTime() {
+			return span(submit_time, finish_time);
+		}
+
+		private static long span(long start, long end) {
+			return start > 0 && end >= start ? end - start : 0;
+		}
+	}
+
 	public static enum RESULT {
 		RES_WHITE, // 样本白
 		RES_BLACK, // 样本黑
@@ -69,6 +124,7 @@ public class DetectResult {
 		public long time = 0; // 用时，单位为毫秒
 		public RESULT result = RESULT.RES_UNKNOWN; // 检测结果
 		public int score = 0;				     // 分值，取值范围0-100
+		public Timing timing = null; // 各阶段时间
 		//to developer:支持有null的语言，可以直接返回VirusInfo对象信息，如果没有错误码，返回null
 	    //获取病毒信息,如result为RES_BLACK，可通过此接口获取病毒信息
 		public VirusInfo getVirusInfo() {
@@ -82,6 +138,7 @@ public class DetectResult {
 	
 	public String md5 = null; // 样本md5
 	public long time = 0; // 用时，单位为毫秒
+	public Timing timing = new Timing(); // 各阶段时间
 	
 	public ERR_CODE error_code = ERR_CODE.ERR_INIT; // 错误码
 	// 扩展错误信息，如果error_code 为 ERR_CALL_API，此字段有效
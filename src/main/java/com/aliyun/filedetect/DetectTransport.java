@@ -0,0 +1,53 @@
+package com.aliyun.filedetect;
+
+import com.aliyun.sas20181203.models.CreateFileDetectRequest;
+import com.aliyun.sas20181203.models.CreateFileDetectResponse;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlRequest;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponse;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlList;
+import com.aliyun.sas20181203.models.GetFileDetectResultRequest;
+import com.aliyun.sas20181203.models.GetFileDetectResultResponse;
+import com.aliyun.teautil.models.RuntimeOptions;
+
+/**
+ * 检测服务的访问方式
+ *
+ * 默认实现为OpenApiTransport，通过OpenAPI与OSS访问云端服务；
+ * 可通过DetectorOptions.Builder.setTransport替换，例如接入本地模拟服务进行压力测试。
+ * 实现需线程安全，服务端错误以TeaException抛出，限流时code为Throttling.User或RequestTooFrequently
+ */
+public interface DetectTransport {
+	/**
+	 * 批量查询检测结果
+	 */
+	GetFileDetectResultResponse getFileDetectResult(GetFileDetectResultRequest request, RuntimeOptions runtime) throws Exception;
+
+	/**
+	 * 批量申请文件上传地址
+	 */
+	CreateFileDetectUploadUrlResponse createFileDetectUploadUrl(CreateFileDetectUploadUrlRequest request, RuntimeOptions runtime) throws Exception;
+
+	/**
+	 * 上传文件到申请到的地址
+	 *
+	 * @param runtime connectTimeout与readTimeout为上传的连接与读写超时
+	 */
+	void uploadFile(String path, CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url, RuntimeOptions runtime) throws Exception;
+
+	/**
+	 * 上传文件到申请到的地址，到达截止时间时中止上传
+	 *
+	 * 默认实现只以runtime中的超时限制上传，单次读写不超时但总用时仍可能超过截止时间
+	 *
+	 * @param deadline 截止时间，单位为毫秒，Long.MAX_VALUE 不限
+	 */
+	default void uploadFile(String path, CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url, RuntimeOptions runtime, long deadline)
+			throws Exception {
+		uploadFile(path, upload_url, runtime);
+	}
+
+	/**
+	 * 对已上传的文件发起检测
+	 */
+	CreateFileDetectResponse createFileDetect(CreateFileDetectRequest request, RuntimeOptions runtime) throws Exception;
+}
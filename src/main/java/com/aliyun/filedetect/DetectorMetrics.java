@@ -0,0 +1,126 @@
+package com.aliyun.filedetect;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 检测过程的运行指标记录，各阶段在热路径上直接记录，由OpenAPIDetector.getMetrics汇总
+ *
+ * 时间单位均为微秒
+ */
+class DetectorMetrics {
+	static final String UPLOAD_FILE = "UploadFile";
+	// 按检测流程排列的接口
+	static final List<String> ACTIONS = Arrays.asList(RateLimiter.GET_FILE_DETECT_RESULT,
+			RateLimiter.CREATE_FILE_DETECT_UPLOAD_URL, UPLOAD_FILE, RateLimiter.CREATE_FILE_DETECT);
+
+	final Histogram m_queue_wait = new Histogram(); // 提交到首次被检测线程处理
+	final Histogram m_hash_time = new Histogram();
+	final Histogram m_hash_size = new Histogram(); // 单位为字节
+	final Histogram m_upload_size = new Histogram(); // 单位为字节
+	final Histogram m_upload_time = new Histogram(); // 上传成功的用时，与m_upload_size一起估算上传速度
+	final Histogram m_poll_count = new Histogram(); // 每个文件得到结果前的查询次数
+	final Histogram m_detect_time = new Histogram(); // 提交到回调
+	final LongAdder m_submit_count = new LongAdder();
+	final LongAdder m_succ_count = new LongAdder();
+	final LongAdder m_error_count = new LongAdder();
+	final LongAdder m_expire_early_count = new LongAdder(); // 剩余时间不足、未计算md5或未上传即结束的任务数
+	private final ConcurrentHashMap<String, Api> m_apis = new ConcurrentHashMap<>();
+
+	/**
+	 * 记录一次接口调用
+	 *
+	 * @param start_nanos 调用开始时的System.nanoTime
+	 * @param ok          是否调用成功
+	 */
+	void recordApi(String action, long start_nanos, boolean ok) {
+		Api api = getApi(action);
+		api.m_latency.recordSince(start_nanos);
+		if (!ok) {
+			api.m_error_count.increment();
+		}
+	}
+
+	void recordResult(DetectResult result, long start_nanos) {
+		m_detect_time.recordSince(start_nanos);
+		if (result.isSucc()) {
+			m_succ_count.increment();
+		} else {
+			m_error_count.increment();
+		}
+	}
+
+	/**
+	 * 按已完成的md5计算估算指定大小的文件计算md5的用时
+	 *
+	 * @return 单位为毫秒，样本不足时为0
+	 */
+	long estimateHashTime(long size) {
+		return estimate(m_hash_time, m_hash_size, size);
+	}
+
+	/**
+	 * 按已完成的上传估算指定大小的文件上传的用时
+	 *
+	 * @return 单位为毫秒，样本不足时为0
+	 */
+	long estimateUploadTime(long size) {
+		return estimate(m_upload_time, m_upload_size, size);
+	}
+
+	/**
+	 * @return 计算md5后需要上传的文件比例，服务端已有的文件无需上传，样本不足时为0
+	 */
+	double getUploadRatio() {
+		long hash_count = m_hash_size.getCount();
+		if (hash_count < Config.DEADLINE_ESTIMATE_MIN_SAMPLES) {
+			return 0;
+		}
+		return Math.min(1.0, (double) m_upload_size.getCount() / hash_count);
+	}
+
+	// 以累计用时除以累计字节数得到的平均速度估算，小文件的固定开销不计入，估算值偏小，不会误判
+	private static long estimate(Histogram time, Histogram size_histogram, long size) {
+		long bytes = size_histogram.getSum();
+		if (size_histogram.getCount() < Config.DEADLINE_ESTIMATE_MIN_SAMPLES || bytes <= 0 || size <= 0) {
+			return 0;
+		}
+		return (long) ((double) time.getSum() / bytes * size / 1000);
+	}
+
+	/**
+	 * @param limiter 用于读取限流次数与当前限速
+	 */
+	ApiStats getApiStats(String action, RateLimiter limiter) {
+		Api api = getApi(action);
+		ApiStats stats = new ApiStats();
+		stats.action = action;
+		stats.latency = api.m_latency.getStats();
+		stats.call_count = stats.latency.count;
+		stats.error_count = api.m_error_count.sum();
+		if (!UPLOAD_FILE.equals(action)) {
+			stats.throttle_count = limiter.getThrottleCount(action);
+			stats.rate = limiter.getRate(action);
+		}
+		return stats;
+	}
+
+	private Api getApi(String action) {
+		Api api = m_apis.get(action);
+		if (null == api) {
+			api = new Api();
+			Api old = m_apis.putIfAbsent(action, api);
+			if (null != old) {
+				api = old;
+			}
+		}
+		return api;
+	}
+
+	private static class Api {
+		private final Histogram m_latency = new Histogram();
+		private final LongAdder m_error_count = new LongAdder();
+	}
+}
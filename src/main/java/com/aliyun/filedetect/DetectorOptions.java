@@ -0,0 +1,434 @@
+package com.aliyun.filedetect;
+
+/**
+ * 检测器配置，通过builder()构建，未设置的项使用默认值
+ *
+ * 示例：DetectorOptions.builder().setThreadPoolSize(16).setQueueSizeMax(1000).build()
+ */
+public class DetectorOptions {
+	private final String m_endpoint;
+	private final int m_thread_pool_size;
+	private final int m_queue_size_max;
+	private final int m_query_result_interval;
+	private final int m_query_result_max_interval;
+	private final int m_query_result_batch_size;
+	private final int m_upload_url_batch_size;
+	private final int m_upload_url_batch_window;
+	private final int m_connect_timeout;
+	private final int m_read_timeout;
+	private final int m_upload_timeout;
+	private final double m_api_rate_limit;
+	private final int m_hash_thread_pool_size;
+	private final int m_hash_cache_max_entries;
+	private final int m_hash_queue_size;
+	private final int m_upload_thread_pool_size;
+	private final int m_upload_queue_size;
+	private final int m_deliver_thread_pool_size;
+	private final int m_deliver_queue_size;
+	private final int m_verdict_cache_max_entries;
+	private final long m_verdict_cache_max_bytes;
+	private final boolean m_virtual_threads;
+	private final DetectTransport m_transport;
+
+	private DetectorOptions(Builder builder) {
+		m_endpoint = builder.m_endpoint;
+		m_thread_pool_size = builder.m_thread_pool_size;
+		m_queue_size_max = builder.m_queue_size_max;
+		m_query_result_interval = builder.m_query_result_interval;
+		m_query_result_max_interval = builder.m_query_result_max_interval;
+		m_query_result_batch_size = builder.m_query_result_batch_size;
+		m_upload_url_batch_size = builder.m_upload_url_batch_size;
+		m_upload_url_batch_window = builder.m_upload_url_batch_window;
+		m_connect_timeout = builder.m_connect_timeout;
+		m_read_timeout = builder.m_read_timeout;
+		m_upload_timeout = builder.m_upload_timeout;
+		m_api_rate_limit = builder.m_api_rate_limit;
+		m_hash_thread_pool_size = builder.m_hash_thread_pool_size;
+		m_hash_cache_max_entries = builder.m_hash_cache_max_entries;
+		m_hash_queue_size = builder.m_hash_queue_size;
+		m_upload_thread_pool_size = builder.m_upload_thread_pool_size;
+		m_upload_queue_size = builder.m_upload_queue_size;
+		m_deliver_thread_pool_size = builder.m_deliver_thread_pool_size;
+		m_deliver_queue_size = builder.m_deliver_queue_size;
+		m_verdict_cache_max_entries = builder.m_verdict_cache_max_entries;
+		m_verdict_cache_max_bytes = builder.m_verdict_cache_max_bytes;
+		m_virtual_threads = builder.m_virtual_threads;
+		m_transport = builder.m_transport;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return 以当前配置为初始值的builder
+	 */
+	public Builder toBuilder() {
+		Builder builder = new Builder();
+		builder.m_endpoint = m_endpoint;
+		builder.m_thread_pool_size = m_thread_pool_size;
+		builder.m_queue_size_max = m_queue_size_max;
+		builder.m_query_result_interval = m_query_result_interval;
+		builder.m_query_result_max_interval = m_query_result_max_interval;
+		builder.m_query_result_batch_size = m_query_result_batch_size;
+		builder.m_upload_url_batch_size = m_upload_url_batch_size;
+		builder.m_upload_url_batch_window = m_upload_url_batch_window;
+		builder.m_connect_timeout = m_connect_timeout;
+		builder.m_read_timeout = m_read_timeout;
+		builder.m_upload_timeout = m_upload_timeout;
+		builder.m_api_rate_limit = m_api_rate_limit;
+		builder.m_hash_thread_pool_size = m_hash_thread_pool_size;
+		builder.m_hash_cache_max_entries = m_hash_cache_max_entries;
+		builder.m_hash_queue_size = m_hash_queue_size;
+		builder.m_upload_thread_pool_size = m_upload_thread_pool_size;
+		builder.m_upload_queue_size = m_upload_queue_size;
+		builder.m_deliver_thread_pool_size = m_deliver_thread_pool_size;
+		builder.m_deliver_queue_size = m_deliver_queue_size;
+		builder.m_verdict_cache_max_entries = m_verdict_cache_max_entries;
+		builder.m_verdict_cache_max_bytes = m_verdict_cache_max_bytes;
+		builder.m_virtual_threads = m_virtual_threads;
+		builder.m_transport = m_transport;
+		return builder;
+	}
+
+	public String getEndpoint() {
+		return m_endpoint;
+	}
+
+	public int getThreadPoolSize() {
+		return m_thread_pool_size;
+	}
+
+	public int getQueueSizeMax() {
+		return m_queue_size_max;
+	}
+
+	public int getQueryResultInterval() {
+		return m_query_result_interval;
+	}
+
+	public int getQueryResultMaxInterval() {
+		return m_query_result_max_interval;
+	}
+
+	public int getQueryResultBatchSize() {
+		return m_query_result_batch_size;
+	}
+
+	public int getUploadUrlBatchSize() {
+		return m_upload_url_batch_size;
+	}
+
+	public int getUploadUrlBatchWindow() {
+		return m_upload_url_batch_window;
+	}
+
+	public int getConnectTimeout() {
+		return m_connect_timeout;
+	}
+
+	public int getReadTimeout() {
+		return m_read_timeout;
+	}
+
+	public int getUploadTimeout() {
+		return m_upload_timeout;
+	}
+
+	public double getApiRateLimit() {
+		return m_api_rate_limit;
+	}
+
+	public int getHashThreadPoolSize() {
+		return m_hash_thread_pool_size;
+	}
+
+	public int getHashCacheMaxEntries() {
+		return m_hash_cache_max_entries;
+	}
+
+	public int getHashQueueSize() {
+		return m_hash_queue_size;
+	}
+
+	public int getUploadThreadPoolSize() {
+		return m_upload_thread_pool_size;
+	}
+
+	public int getUploadQueueSize() {
+		return m_upload_queue_size;
+	}
+
+	public int getDeliverThreadPoolSize() {
+		return m_deliver_thread_pool_size;
+	}
+
+	public int getDeliverQueueSize() {
+		return m_deliver_queue_size;
+	}
+
+	public int getVerdictCacheMaxEntries() {
+		return m_verdict_cache_max_entries;
+	}
+
+	public long getVerdictCacheMaxBytes() {
+		return m_verdict_cache_max_bytes;
+	}
+
+	public boolean isVirtualThreads() {
+		return m_virtual_threads;
+	}
+
+	/**
+	 * @return 自定义的检测服务访问方式，未设置时为null，使用OpenApiTransport
+	 */
+	public DetectTransport getTransport() {
+		return m_transport;
+	}
+
+	public static class Builder {
+		private String m_endpoint = Config.ENDPOINT;
+		private int m_thread_pool_size = Config.THREAD_POOL_SIZE;
+		private int m_queue_size_max = Config.QUEUE_SIZE_MAX;
+		private int m_query_result_interval = Config.QUERY_RESULT_INTERVAL;
+		private int m_query_result_max_interval = Config.QUERY_RESULT_MAX_INTERVAL;
+		private int m_query_result_batch_size = Config.QUERY_RESULT_BATCH_SIZE;
+		private int m_upload_url_batch_size = Config.UPLOAD_URL_BATCH_SIZE;
+		private int m_upload_url_batch_window = Config.UPLOAD_URL_BATCH_WINDOW;
+		private int m_connect_timeout = Config.HTTP_CONNECT_TIMEOUT;
+		private int m_read_timeout = Config.HTTP_READ_TIMEOUT;
+		private int m_upload_timeout = Config.HTTP_UPLOAD_TIMEOUT;
+		private double m_api_rate_limit = Config.API_RATE_LIMIT;
+		private int m_hash_thread_pool_size = Config.HASH_THREAD_POOL_SIZE;
+		private int m_hash_cache_max_entries = Config.HASH_CACHE_MAX_ENTRIES;
+		private int m_hash_queue_size = Config.HASH_QUEUE_SIZE;
+		private int m_upload_thread_pool_size = Config.UPLOAD_THREAD_POOL_SIZE;
+		private int m_upload_queue_size = Config.UPLOAD_QUEUE_SIZE;
+		private int m_deliver_thread_pool_size = Config.DELIVER_THREAD_POOL_SIZE;
+		private int m_deliver_queue_size = Config.DELIVER_QUEUE_SIZE;
+		private int m_verdict_cache_max_entries = Config.VERDICT_CACHE_MAX_ENTRIES;
+		private long m_verdict_cache_max_bytes = Config.VERDICT_CACHE_MAX_BYTES;
+		private boolean m_virtual_threads = false;
+		private DetectTransport m_transport = null;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param endpoint OpenAPI服务地址
+		 */
+		public Builder setEndpoint(String endpoint) {
+			m_endpoint = endpoint;
+			return this;
+		}
+
+		/**
+		 * @param thread_pool_size 检测线程池大小
+		 */
+		public Builder setThreadPoolSize(int thread_pool_size) {
+			m_thread_pool_size = thread_pool_size;
+			return this;
+		}
+
+		/**
+		 * @param queue_size_max 检测队列最大个数
+		 */
+		public Builder setQueueSizeMax(int queue_size_max) {
+			m_queue_size_max = queue_size_max;
+			return this;
+		}
+
+		/**
+		 * @param query_result_interval 查询检测结果的最小间隔时间，单位为毫秒
+		 */
+		public Builder setQueryResultInterval(int query_result_interval) {
+			m_query_result_interval = query_result_interval;
+			return this;
+		}
+
+		/**
+		 * @param query_result_max_interval 检测中样本退避查询的最大间隔时间，单位为毫秒
+		 */
+		public Builder setQueryResultMaxInterval(int query_result_max_interval) {
+			m_query_result_max_interval = query_result_max_interval;
+			return this;
+		}
+
+		/**
+		 * @param query_result_batch_size 单次批量查询检测结果的最大md5个数
+		 */
+		public Builder setQueryResultBatchSize(int query_result_batch_size) {
+			m_query_result_batch_size = query_result_batch_size;
+			return this;
+		}
+
+		/**
+		 * @param upload_url_batch_size 单次批量申请上传地址的最大md5个数
+		 */
+		public Builder setUploadUrlBatchSize(int upload_url_batch_size) {
+			m_upload_url_batch_size = upload_url_batch_size;
+			return this;
+		}
+
+		/**
+		 * @param upload_url_batch_window 批量申请上传地址时等待更多样本的时长，单位为毫秒
+		 */
+		public Builder setUploadUrlBatchWindow(int upload_url_batch_window) {
+			m_upload_url_batch_window = upload_url_batch_window;
+			return this;
+		}
+
+		/**
+		 * @param connect_timeout 网络连接超时时间，单位为毫秒
+		 */
+		public Builder setConnectTimeout(int connect_timeout) {
+			m_connect_timeout = connect_timeout;
+			return this;
+		}
+
+		/**
+		 * @param read_timeout OpenAPI读取超时时间，单位为毫秒
+		 */
+		public Builder setReadTimeout(int read_timeout) {
+			m_read_timeout = read_timeout;
+			return this;
+		}
+
+		/**
+		 * @param upload_timeout 上传文件超时时间，单位为毫秒
+		 */
+		public Builder setUploadTimeout(int upload_timeout) {
+			m_upload_timeout = upload_timeout;
+			return this;
+		}
+
+		/**
+		 * @param api_rate_limit 每个API的最大调用速率，单位为次每秒，0 表示不限速（默认），被限流后自动降速
+		 */
+		public Builder setApiRateLimit(double api_rate_limit) {
+			m_api_rate_limit = api_rate_limit;
+			return this;
+		}
+
+		/**
+		 * @param hash_thread_pool_size md5计算线程池大小
+		 */
+		public Builder setHashThreadPoolSize(int hash_thread_pool_size) {
+			m_hash_thread_pool_size = hash_thread_pool_size;
+			return this;
+		}
+
+		/**
+		 * @param hash_cache_max_entries 文件md5缓存最大条目数
+		 */
+		public Builder setHashCacheMaxEntries(int hash_cache_max_entries) {
+			m_hash_cache_max_entries = hash_cache_max_entries;
+			return this;
+		}
+
+		/**
+		 * @param hash_queue_size md5计算队列容量
+		 */
+		public Builder setHashQueueSize(int hash_queue_size) {
+			m_hash_queue_size = hash_queue_size;
+			return this;
+		}
+
+		/**
+		 * @param upload_thread_pool_size 上传文件并发起检测的线程数
+		 */
+		public Builder setUploadThreadPoolSize(int upload_thread_pool_size) {
+			m_upload_thread_pool_size = upload_thread_pool_size;
+			return this;
+		}
+
+		/**
+		 * @param upload_queue_size 上传队列容量，队列满时反压上游
+		 */
+		public Builder setUploadQueueSize(int upload_queue_size) {
+			m_upload_queue_size = upload_queue_size;
+			return this;
+		}
+
+		/**
+		 * @param deliver_thread_pool_size 回调检测结果的线程数
+		 */
+		public Builder setDeliverThreadPoolSize(int deliver_thread_pool_size) {
+			m_deliver_thread_pool_size = deliver_thread_pool_size;
+			return this;
+		}
+
+		/**
+		 * @param deliver_queue_size 回调队列容量，队列满时反压上游
+		 */
+		public Builder setDeliverQueueSize(int deliver_queue_size) {
+			m_deliver_queue_size = deliver_queue_size;
+			return this;
+		}
+
+		/**
+		 * @param verdict_cache_max_entries 检测结果缓存最大条目数
+		 */
+		public Builder setVerdictCacheMaxEntries(int verdict_cache_max_entries) {
+			m_verdict_cache_max_entries = verdict_cache_max_entries;
+			return this;
+		}
+
+		/**
+		 * @param verdict_cache_max_bytes 检测结果缓存最大内存，单位为字节
+		 */
+		public Builder setVerdictCacheMaxBytes(long verdict_cache_max_bytes) {
+			m_verdict_cache_max_bytes = verdict_cache_max_bytes;
+			return this;
+		}
+
+		/**
+		 * 检测调度、上传与回调阶段使用虚拟线程，需要Java 21及以上版本，不支持时使用平台线程。
+		 * 虚拟线程开销很小，此时线程池大小即为并发上限，可设置为数千；
+		 * 上传与回调阶段的虚拟线程按需创建、空闲后退出，检测调度线程直接从检测队列取任务，仍预先全部启动
+		 * 
+		 * @param virtual_threads 是否使用虚拟线程
+		 */
+		public Builder setVirtualThreads(boolean virtual_threads) {
+			m_virtual_threads = virtual_threads;
+			return this;
+		}
+
+		/**
+		 * 替换检测服务的访问方式，设置后init不再创建OpenAPI客户端，endpoint与AccessKey不再使用；
+		 * 传入的transport不随检测器关闭，OpenApiTransport不再使用时由调用方close
+		 * 
+		 * @param transport 检测服务访问方式，null 使用OpenApiTransport访问云端服务
+		 */
+		public Builder setTransport(DetectTransport transport) {
+			m_transport = transport;
+			return this;
+		}
+
+		/**
+		 * @throws IllegalArgumentException 配置项取值非法
+		 */
+		public DetectorOptions build() {
+			if (null == m_endpoint || m_endpoint.isEmpty()) {
+				throw new IllegalArgumentException("endpoint is empty");
+			}
+			if (m_thread_pool_size <= 0 || m_queue_size_max <= 0 || m_hash_thread_pool_size <= 0 || m_hash_queue_size <= 0
+					|| m_upload_thread_pool_size <= 0 || m_upload_queue_size <= 0 || m_deliver_thread_pool_size <= 0 || m_deliver_queue_size <= 0) {
+				throw new IllegalArgumentException("thread pool size and queue size must be positive");
+			}
+			if (m_query_result_interval <= 0 || m_query_result_max_interval < m_query_result_interval) {
+				throw new IllegalArgumentException("invalid query result interval");
+			}
+			if (m_query_result_batch_size <= 0 || m_upload_url_batch_size <= 0 || m_upload_url_batch_window < 0) {
+				throw new IllegalArgumentException("invalid batch size");
+			}
+			if (m_connect_timeout < 0 || m_read_timeout < 0 || m_upload_timeout < 0) {
+				throw new IllegalArgumentException("timeout must not be negative");
+			}
+			if (m_api_rate_limit < 0) {
+				throw new IllegalArgumentException("api rate limit must not be negative");
+			}
+			return new DetectorOptions(this);
+		}
+	}
+}
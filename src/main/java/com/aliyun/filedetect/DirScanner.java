@@ -0,0 +1,400 @@
+package com.aliyun.filedetect;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 目录扫描
+ *
+ * 多个线程并行遍历目录树，遍历到的文件立即提交检测，遍历与md5计算、上传检测同时进行；
+ * 检测队列满时遍历线程等待，遍历速度随检测速度调节。结果与进度通过IScanListener实时回调，不在内存中保留。
+ *
+ * 设置扫描清单后只检测新增、改变或结果已过期的文件，其余文件以清单中的结果回调。
+ *
+ * 示例：new DirScanner(detector, ScanOptions.builder().addInclude("*.php").build()).scan("/var/www", listener)
+ */
+public class DirScanner {
+	private final OpenAPIDetector m_detector;
+	private final ScanOptions m_options;
+	private volatile Scan m_scan = null;
+	private volatile ScanManifest m_manifest = null;
+	private volatile long m_manifest_max_age = 0;
+	private volatile boolean m_report_unchanged = true;
+
+	/**
+	 * @param detector 已初始化的检测器
+	 * @param options  扫描配置，null 使用默认配置
+	 */
+	public DirScanner(OpenAPIDetector detector, ScanOptions options) {
+		m_detector = detector;
+		m_options = null == options ? ScanOptions.builder().build() : options;
+	}
+
+	/**
+	 * 设置扫描清单，用于增量扫描，对之后开始的扫描生效
+	 *
+	 * 扫描过程中更新清单内容，扫描结束后由调用者通过ScanManifest.save保存
+	 *
+	 * @param manifest 扫描清单，null 不使用清单，检测所有文件
+	 * @param max_age  清单中检测结果的有效期，单位为毫秒，过期的文件重新检测，<= 0 不过期
+	 */
+	public void setManifest(ScanManifest manifest, long max_age) {
+		m_manifest = manifest;
+		m_manifest_max_age = max_age;
+	}
+
+	/**
+	 * @param report_unchanged 未改变的文件是否以清单中的结果回调，监控模式补扫时只回调有变化的文件
+	 */
+	void setReportUnchanged(boolean report_unchanged) {
+		m_report_unchanged = report_unchanged;
+	}
+
+	/**
+	 * 扫描文件或目录，所有文件得到检测结果后返回
+	 *
+	 * @param path     文件或目录路径
+	 * @param listener 结果与进度回调
+	 * @return 最终进度
+	 * @throws InterruptedException 扫描期间线程被中断，停止遍历；已提交的检测仍会回调listener
+	 * @throws IllegalStateException 当前对象正在进行另一次扫描
+	 */
+	public ScanProgress scan(String path, IScanListener listener) throws InterruptedException {
+		Scan scan = new Scan(Paths.get(path).toAbsolutePath().normalize(), listener);
+		synchronized (this) {
+			if (null != m_scan) {
+				throw new IllegalStateException("scan in progress");
+			}
+			m_scan = scan;
+		}
+		try {
+			return scan.run();
+		} finally {
+			m_scan = null;
+		}
+	}
+
+	/**
+	 * 取消正在进行的扫描，停止遍历，已提交的检测仍会完成并回调，scan随后返回
+	 */
+	public void cancel() {
+		Scan scan = m_scan;
+		if (null != scan) {
+			scan.m_canceled = true;
+		}
+	}
+
+	/**
+	 * @return 正在进行的扫描的进度，未在扫描时返回null
+	 */
+	public ScanProgress getProgress() {
+		Scan scan = m_scan;
+		return null == scan ? null : scan.getProgress();
+	}
+
+	private class Scan {
+		final Path m_root;
+		final IScanListener m_listener;
+		final ScanManifest m_scan_manifest = m_manifest;
+		final long m_max_age = m_manifest_max_age;
+		final int m_generation = null == m_scan_manifest ? 0 : m_scan_manifest.beginScan();
+		final long m_start_time = System.currentTimeMillis();
+		volatile boolean m_canceled = false;
+		volatile boolean m_walk_finished = false;
+		final Set<Object> m_visited = ConcurrentHashMap.newKeySet(); // 跟随符号链接时已进入的目录
+		final AtomicLong m_pending = new AtomicLong(1); // 未结束的检测数，加上遍历本身
+		final CountDownLatch m_done = new CountDownLatch(1);
+		final LongAdder m_dir_count = new LongAdder();
+		final LongAdder m_file_count = new LongAdder();
+		final LongAdder m_skip_count = new LongAdder();
+		final LongAdder m_walk_error_count = new LongAdder();
+		final LongAdder m_done_count = new LongAdder();
+		final LongAdder m_unchanged_count = new LongAdder();
+		final LongAdder m_white_count = new LongAdder();
+		final LongAdder m_black_count = new LongAdder();
+		final LongAdder m_fail_count = new LongAdder();
+
+		Scan(Path root, IScanListener listener) {
+			m_root = root;
+			m_listener = listener;
+		}
+
+		ScanProgress run() throws InterruptedException {
+			final AtomicInteger index = new AtomicInteger();
+			ForkJoinPool pool = new ForkJoinPool(m_options.getWalkThreadNum(), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				@Override
+				public ForkJoinWorkerThread newThread(ForkJoinPool fork_pool) {
+					ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(fork_pool);
+					thread.setName("filedetect-scan-" + index.incrementAndGet());
+					return thread;
+				}
+			}, null, false);
+			try {
+				pool.execute(new RecursiveAction() {
+					@Override
+					protected void compute() {
+						try {
+							visitRoot();
+						} finally {
+							m_walk_finished = true;
+							finishOne();
+						}
+					}
+				});
+				while (!m_done.await(m_options.getProgressInterval(), TimeUnit.MILLISECONDS)) {
+					m_listener.onProgress(getProgress());
+				}
+			} catch (InterruptedException e) {
+				m_canceled = true;
+				throw e;
+			} finally {
+				pool.shutdownNow();
+			}
+			// 完整遍历后移除已不存在的文件，遍历不完整时无法区分
+			if (null != m_scan_manifest && !m_canceled && 0 == m_walk_error_count.sum()) {
+				m_scan_manifest.prune(m_root.toString(), m_generation);
+			}
+			ScanProgress progress = getProgress();
+			m_listener.onProgress(progress);
+			return progress;
+		}
+
+		ScanProgress getProgress() {
+			ScanProgress progress = new ScanProgress();
+			progress.dir_count = m_dir_count.sum();
+			progress.file_count = m_file_count.sum();
+			progress.skip_count = m_skip_count.sum();
+			progress.walk_error_count = m_walk_error_count.sum();
+			progress.done_count = m_done_count.sum();
+			progress.unchanged_count = m_unchanged_count.sum();
+			progress.white_count = m_white_count.sum();
+			progress.black_count = m_black_count.sum();
+			progress.fail_count = m_fail_count.sum();
+			progress.walk_finished = m_walk_finished;
+			progress.canceled = m_canceled;
+			progress.elapsed = System.currentTimeMillis() - m_start_time;
+			return progress;
+		}
+
+		void visitRoot() {
+			BasicFileAttributes attrs = readAttributes(m_root, true);
+			if (null == attrs) {
+				return;
+			}
+			if (attrs.isDirectory()) {
+				if (m_options.getMaxDepth() <= 0) {
+					m_skip_count.increment();
+					return;
+				}
+				if (m_options.getSymlinkPolicy() == ScanOptions.SymlinkPolicy.FOLLOW && null != attrs.fileKey()) {
+					m_visited.add(attrs.fileKey());
+				}
+				new DirTask(m_root, 0).invoke();
+			} else if (attrs.isRegularFile()) {
+				visitFile(m_root, attrs);
+			} else {
+				m_skip_count.increment();
+			}
+		}
+
+		/**
+		 * @return 文件属性，出错时回调onError并返回null
+		 */
+		BasicFileAttributes readAttributes(Path path, boolean follow) {
+			try {
+				if (follow) {
+					return Files.readAttributes(path, BasicFileAttributes.class);
+				}
+				return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException e) {
+				onWalkError(path, e);
+				return null;
+			}
+		}
+
+		void onWalkError(Path path, IOException error) {
+			m_walk_error_count.increment();
+			m_listener.onError(path.toString(), error);
+		}
+
+		/**
+		 * 处理目录中的一个条目
+		 *
+		 * @return 需要进入的子目录，不进入时返回null
+		 */
+		DirTask visit(Path path, int depth) {
+			BasicFileAttributes attrs = readAttributes(path, false);
+			if (null == attrs) {
+				return null;
+			}
+			ScanOptions.SymlinkPolicy policy = m_options.getSymlinkPolicy();
+			if (attrs.isSymbolicLink()) {
+				if (policy == ScanOptions.SymlinkPolicy.SKIP) {
+					m_skip_count.increment();
+					return null;
+				}
+				attrs = readAttributes(path, true);
+				if (null == attrs) {
+					return null;
+				}
+				if (attrs.isDirectory() && policy != ScanOptions.SymlinkPolicy.FOLLOW) {
+					m_skip_count.increment();
+					return null;
+				}
+			}
+			Path relative = m_root.relativize(path);
+			if (m_options.isExcluded(relative)) {
+				m_skip_count.increment();
+				return null;
+			}
+			if (attrs.isDirectory()) {
+				if (depth >= m_options.getMaxDepth()) {
+					m_skip_count.increment();
+					return null;
+				}
+				// 跟随符号链接时可能形成环，同一目录只进入一次
+				if (policy == ScanOptions.SymlinkPolicy.FOLLOW && null != attrs.fileKey() && !m_visited.add(attrs.fileKey())) {
+					m_skip_count.increment();
+					return null;
+				}
+				return new DirTask(path, depth);
+			}
+			if (!attrs.isRegularFile() || !m_options.isIncluded(relative) || !m_options.isSizeAllowed(attrs.size())) {
+				m_skip_count.increment();
+				return null;
+			}
+			if (!m_options.isModifiedAllowed(attrs.lastModifiedTime().toMillis())) {
+				// 文件仍存在，保留清单中的条目
+				if (null != m_scan_manifest) {
+					m_scan_manifest.touch(path.toString(), m_generation);
+				}
+				m_skip_count.increment();
+				return null;
+			}
+			visitFile(path, attrs);
+			return null;
+		}
+
+		/**
+		 * 文件未改变且清单中的结果未过期时直接回调，否则提交检测
+		 */
+		void visitFile(Path path, BasicFileAttributes attrs) {
+			final String file_path = path.toString();
+			final long size = attrs.size();
+			final long mtime = attrs.lastModifiedTime().toMillis();
+			final long stat_time = System.currentTimeMillis();
+			if (null != m_scan_manifest) {
+				ScanManifest.Entry entry = m_scan_manifest.lookup(file_path, size, mtime, m_max_age, m_generation);
+				if (null != entry) {
+					m_unchanged_count.increment();
+					if (m_report_unchanged) {
+						onResult(file_path, entry.toResult());
+					}
+					return;
+				}
+			}
+			m_pending.incrementAndGet();
+			m_file_count.increment();
+			try {
+				// 队列满时等待，遍历速度随检测速度调节
+				m_detector.detect(file_path, m_options.getDetectTimeout(), new IDetectResultCallback() {
+					public void onScanResult(int seq, String callback_path, DetectResult res) {
+						try {
+							if (null != m_scan_manifest) {
+								m_scan_manifest.record(file_path, size, mtime, stat_time, res, m_generation);
+							}
+							onResult(file_path, res);
+						} finally {
+							finishOne();
+						}
+					}
+				}, -1, m_options.getPriority());
+			} catch (InterruptedException e) {
+				// 扫描被中断，线程池关闭
+				m_canceled = true;
+				m_file_count.decrement();
+				finishOne();
+			}
+		}
+
+		void onResult(String file_path, DetectResult res) {
+			if (res.isSucc()) {
+				if (DetectResult.RESULT.RES_BLACK == res.result) {
+					m_black_count.increment();
+				} else {
+					m_white_count.increment();
+				}
+			} else {
+				m_fail_count.increment();
+			}
+			m_done_count.increment();
+			m_listener.onResult(file_path, res);
+		}
+
+		void finishOne() {
+			if (0 == m_pending.decrementAndGet()) {
+				m_done.countDown();
+			}
+		}
+
+		/**
+		 * 遍历一个目录，子目录派生为新任务由空闲线程并行处理
+		 */
+		class DirTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+			private final Path m_dir;
+			private final int m_depth;
+
+			DirTask(Path dir, int depth) {
+				m_dir = dir;
+				m_depth = depth;
+			}
+
+			@Override
+			protected void compute() {
+				if (m_canceled) {
+					return;
+				}
+				m_dir_count.increment();
+				List<DirTask> subtasks = new ArrayList<>();
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(m_dir)) {
+					for (Path path : stream) {
+						if (m_canceled) {
+							break;
+						}
+						DirTask subtask = visit(path, m_depth + 1);
+						if (null != subtask) {
+							subtask.fork();
+							subtasks.add(subtask);
+						}
+					}
+				} catch (IOException e) {
+					onWalkError(m_dir, e);
+				} catch (DirectoryIteratorException e) {
+					onWalkError(m_dir, e.getCause());
+				}
+				for (DirTask subtask : subtasks) {
+					subtask.join();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,420 @@
+package com.aliyun.filedetect;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 目录监控：根据文件系统变化事件检测新增与修改的文件
+ *
+ * 同一文件的连续修改事件合并，文件在静默期内无新事件、且修改时间早于静默期后才提交检测，避免检测写入中的文件。
+ * 事件队列溢出时对所有监控目录进行一次补扫，只检测上次补扫以来修改过的文件，且与扫描清单比较跳过未改变的文件；
+ * 补扫期间的再次溢出合并为下一次补扫。删除的文件从扫描清单中移除，补扫时移除已不存在的文件。静默期后的提交与补扫使用各自的线程，检测队列满时互不阻塞。
+ * 开始监控前已存在的文件不检测，需要时可先用DirScanner扫描一次，两者设置同一扫描清单。
+ *
+ * 示例：
+ * DirWatcher watcher = new DirWatcher(detector, options, listener);
+ * watcher.watch("/data/upload");
+ * watcher.start();
+ */
+public class DirWatcher {
+	private final OpenAPIDetector m_detector;
+	private final ScanOptions m_options;
+	private final IScanListener m_listener;
+	private final WatchService m_watch_service;
+	private final Map<WatchKey, WatchedDir> m_keys = new ConcurrentHashMap<>();
+	private final List<Path> m_roots = new CopyOnWriteArrayList<>();
+	private final ConcurrentHashMap<Path, Pending> m_pending = new ConcurrentHashMap<>(); // 等待静默的文件
+	private final AtomicBoolean m_catch_up_requested = new AtomicBoolean(false);
+	private final LongAdder m_event_count = new LongAdder();
+	private final LongAdder m_overflow_count = new LongAdder();
+	private final LongAdder m_catch_up_count = new LongAdder();
+	private final LongAdder m_submit_count = new LongAdder();
+	private volatile ScanManifest m_manifest = new ScanManifest();
+	private volatile long m_manifest_max_age = 0;
+	private volatile int m_quiet_period = Config.WATCH_QUIET_PERIOD;
+	private volatile long m_catch_up_since; // 补扫只检测此时间之后修改的文件
+	private volatile boolean m_closed = false;
+	private Thread m_watch_thread = null;
+	private ScheduledExecutorService m_scheduler = null; // 提交静默期已过的文件
+	private ExecutorService m_catch_up_executor = null; // 溢出后补扫
+	private final Set<Thread> m_threads = ConcurrentHashMap.newKeySet(); // 监控使用的线程，close时等待其结束
+
+	private static class WatchedDir {
+		final Path dir;
+		final Path root;
+
+		WatchedDir(Path dir, Path root) {
+			this.dir = dir;
+			this.root = root;
+		}
+	}
+
+	private static class Pending {
+		final Path root;
+		final long time; // 最近一次事件的时间
+
+		Pending(Path root, long time) {
+			this.root = root;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * @param detector 已初始化的检测器
+	 * @param options  过滤规则、符号链接策略、最大深度与检测超时，null 使用默认配置
+	 * @param listener 检测结果回调；注册目录出错时回调onError；每次补扫结束时回调onProgress
+	 * @throws IOException 无法创建WatchService
+	 */
+	public DirWatcher(OpenAPIDetector detector, ScanOptions options, IScanListener listener) throws IOException {
+		m_detector = detector;
+		m_options = null == options ? ScanOptions.builder().build() : options;
+		m_listener = listener;
+		m_watch_service = FileSystems.getDefault().newWatchService();
+		m_catch_up_since = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param quiet_period 文件无变化多久后提交检测，单位为毫秒
+	 */
+	public void setQuietPeriod(int quiet_period) {
+		m_quiet_period = Math.max(0, quiet_period);
+	}
+
+	/**
+	 * 设置扫描清单，未改变的文件不重复检测，可与DirScanner共用
+	 *
+	 * @param manifest 扫描清单，null 使用内部清单
+	 * @param max_age  清单中检测结果的有效期，单位为毫秒，<= 0 不过期
+	 */
+	public void setManifest(ScanManifest manifest, long max_age) {
+		m_manifest = null == manifest ? new ScanManifest() : manifest;
+		m_manifest_max_age = max_age;
+	}
+
+	/**
+	 * 监控目录及其子目录，新建的子目录自动加入监控
+	 *
+	 * @param path 目录路径
+	 * @throws IOException 目录不存在或无法注册
+	 */
+	public void watch(String path) throws IOException {
+		Path root = Paths.get(path).toAbsolutePath().normalize();
+		if (!Files.isDirectory(root)) {
+			throw new IOException("not a directory: " + root);
+		}
+		m_roots.add(root);
+		registerTree(root, root, false);
+	}
+
+	/**
+	 * 开始处理变化事件
+	 */
+	public synchronized void start() {
+		if (null != m_watch_thread || m_closed) {
+			return;
+		}
+		m_scheduler = Executors.newSingleThreadScheduledExecutor(track(Threads.factory("filedetect-watch-", false)));
+		m_catch_up_executor = Executors.newSingleThreadExecutor(track(Threads.factory("filedetect-watch-catchup-", false)));
+		int tick = Math.max(20, Math.min(500, m_quiet_period / 4));
+		m_scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				submitQuiet();
+			}
+		}, tick, tick, TimeUnit.MILLISECONDS);
+		m_watch_thread = track(Threads.factory("filedetect-watch-event-", false)).newThread(new Runnable() {
+			@Override
+			public void run() {
+				processEvents();
+			}
+		});
+		m_watch_thread.start();
+	}
+
+	private ThreadFactory track(final ThreadFactory factory) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = factory.newThread(r);
+				m_threads.add(thread);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * 停止监控并等待监控线程结束，尚在静默期内的文件不再检测，正在进行的补扫中止，已提交的检测仍会回调
+	 */
+	public synchronized void close() throws IOException {
+		m_closed = true;
+		m_watch_service.close();
+		// 中断等待检测队列空位的提交与补扫
+		if (null != m_scheduler) {
+			m_scheduler.shutdownNow();
+			m_catch_up_executor.shutdownNow();
+		}
+		// 在回调中关闭时不等待自身所在的线程
+		if (!m_threads.contains(Thread.currentThread())) {
+			try {
+				if (null != m_scheduler) {
+					m_scheduler.awaitTermination(5, TimeUnit.SECONDS);
+					m_catch_up_executor.awaitTermination(5, TimeUnit.SECONDS);
+				}
+				if (null != m_watch_thread) {
+					m_watch_thread.join(5000);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		m_pending.clear();
+	}
+
+	/**
+	 * @return 监控统计
+	 */
+	public WatchStats getStats() {
+		WatchStats stats = new WatchStats();
+		stats.watched_dir_count = m_keys.size();
+		stats.pending_count = m_pending.size();
+		stats.event_count = m_event_count.sum();
+		stats.overflow_count = m_overflow_count.sum();
+		stats.catch_up_count = m_catch_up_count.sum();
+		stats.submit_count = m_submit_count.sum();
+		return stats;
+	}
+
+	/**
+	 * 注册目录树
+	 *
+	 * @param add_files 是否将目录中已有的文件加入等待队列，用于监控期间新建的目录
+	 */
+	private void registerTree(final Path dir, final Path root, final boolean add_files) throws IOException {
+		final boolean follow = m_options.getSymlinkPolicy() == ScanOptions.SymlinkPolicy.FOLLOW;
+		Set<FileVisitOption> visit_options = follow ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+		int max_depth = m_options.getMaxDepth() - (dir.equals(root) ? 0 : root.relativize(dir).getNameCount());
+		if (max_depth <= 0) {
+			return;
+		}
+		Files.walkFileTree(dir, visit_options, max_depth, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+				if (!path.equals(root) && m_options.isExcluded(root.relativize(path))) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				WatchKey key = path.register(m_watch_service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+				m_keys.put(key, new WatchedDir(path, root));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+				if (add_files && !attrs.isDirectory()) {
+					m_pending.put(path, new Pending(root, System.currentTimeMillis()));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path path, IOException error) {
+				// 跟随符号链接形成的环由walkFileTree发现，跳过即可
+				if (!(error instanceof NoSuchFileException) && !(error instanceof FileSystemLoopException)) {
+					m_listener.onError(path.toString(), error);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void processEvents() {
+		while (!m_closed) {
+			WatchKey key;
+			try {
+				key = m_watch_service.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			WatchedDir watched = m_keys.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				m_event_count.increment();
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					m_overflow_count.increment();
+					requestCatchUp();
+					continue;
+				}
+				if (null == watched) {
+					continue;
+				}
+				Path path = watched.dir.resolve((Path) event.context());
+				if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+					m_pending.remove(path);
+					m_manifest.remove(path.toString());
+					continue;
+				}
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && isWatchableDir(path)) {
+					try {
+						registerTree(path, watched.root, true);
+					} catch (IOException e) {
+						m_listener.onError(path.toString(), e);
+					}
+					continue;
+				}
+				m_pending.put(path, new Pending(watched.root, System.currentTimeMillis()));
+			}
+			if (!key.reset()) {
+				m_keys.remove(key); // 目录已删除
+			}
+		}
+	}
+
+	private boolean isWatchableDir(Path path) {
+		if (m_options.getSymlinkPolicy() == ScanOptions.SymlinkPolicy.FOLLOW) {
+			return Files.isDirectory(path);
+		}
+		return Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+	}
+
+	/**
+	 * 提交静默期已过的文件
+	 */
+	private void submitQuiet() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<Path, Pending> item : m_pending.entrySet()) {
+			Pending pending = item.getValue();
+			if (now - pending.time < m_quiet_period) {
+				continue;
+			}
+			// 期间有新事件时条目已被替换，留待下次处理
+			if (m_pending.remove(item.getKey(), pending)) {
+				try {
+					submit(item.getKey(), pending.root);
+				} catch (InterruptedException e) {
+					return; // 已关闭
+				}
+			}
+		}
+	}
+
+	private void submit(final Path path, Path root) throws InterruptedException {
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if (attrs.isSymbolicLink()) {
+				if (m_options.getSymlinkPolicy() == ScanOptions.SymlinkPolicy.SKIP) {
+					return;
+				}
+				attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			}
+		} catch (IOException e) {
+			return; // 文件已删除
+		}
+		Path relative = root.relativize(path);
+		if (!attrs.isRegularFile() || m_options.isExcluded(relative) || !m_options.isIncluded(relative)
+				|| !m_options.isSizeAllowed(attrs.size()) || !m_options.isModifiedAllowed(attrs.lastModifiedTime().toMillis())) {
+			return;
+		}
+		final long size = attrs.size();
+		final long mtime = attrs.lastModifiedTime().toMillis();
+		final long stat_time = System.currentTimeMillis();
+		// 没有事件的修改（如事件丢失后补扫到的文件）以修改时间判断静默
+		if (stat_time - mtime < m_quiet_period) {
+			m_pending.putIfAbsent(path, new Pending(root, mtime));
+			return;
+		}
+		final ScanManifest manifest = m_manifest;
+		final String file_path = path.toString();
+		if (null != manifest.lookup(file_path, size, mtime, m_manifest_max_age, 0)) {
+			return; // 未改变
+		}
+		m_submit_count.increment();
+		m_detector.detect(file_path, m_options.getDetectTimeout(), new IDetectResultCallback() {
+			public void onScanResult(int seq, String callback_path, DetectResult res) {
+				manifest.record(file_path, size, mtime, stat_time, res, 0);
+				m_listener.onResult(file_path, res);
+			}
+		}, -1, m_options.getPriority());
+	}
+
+	private void requestCatchUp() {
+		if (m_closed || !m_catch_up_requested.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			m_catch_up_executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					catchUp();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// 已关闭
+		}
+	}
+
+	/**
+	 * 溢出后补扫：重新注册所有目录，检测上次补扫以来修改过且与清单不一致的文件
+	 */
+	private void catchUp() {
+		m_catch_up_requested.set(false); // 补扫期间的溢出需要再补扫一次
+		m_catch_up_count.increment();
+		long start_time = System.currentTimeMillis();
+		// 修改时间的精度与时钟误差留出余量
+		ScanOptions options = m_options.toBuilder().setModifiedAfter(m_catch_up_since - HashCache.RACY_WINDOW).build();
+		DirScanner scanner = new DirScanner(m_detector, options);
+		scanner.setManifest(m_manifest, m_manifest_max_age);
+		scanner.setReportUnchanged(false);
+		IScanListener listener = new IScanListener() {
+			public void onResult(String file_path, DetectResult res) {
+				m_listener.onResult(file_path, res);
+			}
+
+			public void onError(String path, IOException error) {
+				m_listener.onError(path, error);
+			}
+		};
+		for (Path root : m_roots) {
+			if (m_closed) {
+				return;
+			}
+			try {
+				registerTree(root, root, false);
+				m_listener.onProgress(scanner.scan(root.toString(), listener));
+			} catch (IOException e) {
+				m_listener.onError(root.toString(), e);
+			} catch (InterruptedException e) {
+				return; // 已关闭
+			}
+		}
+		m_catch_up_since = start_time;
+	}
+}
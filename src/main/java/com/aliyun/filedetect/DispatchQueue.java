@@ -0,0 +1,331 @@
+package com.aliyun.filedetect;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 检测线程池的任务队列，按优先级分别排队，优先取出高优先级的任务；
+ * 同一优先级内按截止时间排序，最先到期的任务最先取出，截止时间相同的任务按入队顺序取出；
+ * 无超时的任务以提交时间加no_deadline_age作为排序用的截止时间，有超时的任务持续到达时也不会无限等待
+ *
+ * 低优先级任务等待期间，每连续取出starvation_limit个更高优先级的任务后取出一个低优先级任务，
+ * 高优先级任务持续到达时低优先级任务仍能得到处理。任务的优先级由ScanTask.getPriority决定，
+ * 其他任务按普通优先级处理；任务再次入队（如查询到检测中后重新轮询）时保持原优先级
+ */
+class DispatchQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+	private static final PRIORITY[] PRIORITIES = PRIORITY.values();
+
+	private final ReentrantLock m_lock = new ReentrantLock();
+	private final Condition m_not_empty = m_lock.newCondition();
+	private final List<PriorityQueue<Entry>> m_queues = new ArrayList<>();
+	private final int[] m_passed = new int[PRIORITIES.length]; // 各优先级非空期间被更高优先级连续越过的次数
+	private final int m_starvation_limit;
+	private final long m_no_deadline_age;
+	private int m_size = 0;
+	private long m_order = 0; // 入队序号
+
+	// 入队时确定排序依据，任务在队列中时不变
+	private static class Entry {
+		final Runnable m_task;
+		final long m_deadline;
+		final long m_order;
+
+		Entry(Runnable task, long deadline, long order) {
+			m_task = task;
+			m_deadline = deadline;
+			m_order = order;
+		}
+	}
+
+	private static final Comparator<Entry> EARLIEST_DEADLINE_FIRST = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			if (a.m_deadline != b.m_deadline) {
+				return a.m_deadline < b.m_deadline ? -1 : 1;
+			}
+			return Long.compare(a.m_order, b.m_order);
+		}
+	};
+
+	/**
+	 * @param starvation_limit 低优先级任务等待期间，最多连续取出的更高优先级任务数
+	 * @param no_deadline_age  无超时的任务在同一优先级内排序时视为的超时时长，单位为毫秒
+	 */
+	public DispatchQueue(int starvation_limit, long no_deadline_age) {
+		m_starvation_limit = starvation_limit;
+		m_no_deadline_age = no_deadline_age;
+		for (int i = 0; i < PRIORITIES.length; i++) {
+			m_queues.add(new PriorityQueue<Entry>(16, EARLIEST_DEADLINE_FIRST));
+		}
+	}
+
+	private static int classOf(Runnable r) {
+		if (r instanceof ScanTask) {
+			return ((ScanTask) r).getPriority().ordinal();
+		}
+		return PRIORITY.PRI_NORMAL.ordinal();
+	}
+
+	private long deadlineOf(Runnable r) {
+		if (r instanceof ScanTask) {
+			ScanTask task = (ScanTask) r;
+			long deadline = task.getDeadline();
+			return Long.MAX_VALUE == deadline ? task.getStartTime() + m_no_deadline_age : deadline;
+		}
+		return System.currentTimeMillis() + m_no_deadline_age;
+	}
+
+	/**
+	 * @return 各优先级排队中的任务数，下标为PRIORITY.ordinal()
+	 */
+	public int[] sizes() {
+		int[] sizes = new int[PRIORITIES.length];
+		m_lock.lock();
+		try {
+			for (int i = 0; i < sizes.length; i++) {
+				sizes[i] = m_queues.get(i).size();
+			}
+		} finally {
+			m_lock.unlock();
+		}
+		return sizes;
+	}
+
+	@Override
+	public boolean offer(Runnable r) {
+		if (null == r) {
+			throw new NullPointerException();
+		}
+		m_lock.lock();
+		try {
+			m_queues.get(classOf(r)).add(new Entry(r, deadlineOf(r), m_order++));
+			m_size++;
+			m_not_empty.signal();
+		} finally {
+			m_lock.unlock();
+		}
+		return true;
+	}
+
+	@Override
+	public void put(Runnable r) {
+		offer(r);
+	}
+
+	@Override
+	public boolean offer(Runnable r, long timeout, TimeUnit unit) {
+		return offer(r);
+	}
+
+	// 调用方已持有锁且队列非空
+	private Runnable dequeue() {
+		int serve = -1;
+		for (int i = 0; i < m_passed.length; i++) {
+			if (m_queues.get(i).isEmpty()) {
+				continue;
+			}
+			if (serve < 0) {
+				serve = i;
+			}
+			// 被越过次数已达上限的优先级中，取优先级最高的
+			if (m_passed[i] >= m_starvation_limit) {
+				serve = i;
+				break;
+			}
+		}
+		Runnable r = m_queues.get(serve).poll().m_task;
+		m_size--;
+		m_passed[serve] = 0;
+		for (int i = serve + 1; i < m_passed.length; i++) {
+			if (m_queues.get(i).isEmpty()) {
+				m_passed[i] = 0;
+			} else {
+				m_passed[i]++;
+			}
+		}
+		return r;
+	}
+
+	@Override
+	public Runnable poll() {
+		m_lock.lock();
+		try {
+			return m_size == 0 ? null : dequeue();
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		m_lock.lockInterruptibly();
+		try {
+			while (m_size == 0) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = m_not_empty.awaitNanos(nanos);
+			}
+			return dequeue();
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable take() throws InterruptedException {
+		m_lock.lockInterruptibly();
+		try {
+			while (m_size == 0) {
+				m_not_empty.await();
+			}
+			return dequeue();
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable peek() {
+		m_lock.lock();
+		try {
+			for (PriorityQueue<Entry> queue : m_queues) {
+				if (!queue.isEmpty()) {
+					return queue.peek().m_task;
+				}
+			}
+			return null;
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof Runnable)) {
+			return false;
+		}
+		m_lock.lock();
+		try {
+			// 任务入队后优先级可能被提升，不在当前优先级的队列中时逐个查找
+			if (!removeFrom(m_queues.get(classOf((Runnable) o)), o)) {
+				boolean found = false;
+				for (PriorityQueue<Entry> queue : m_queues) {
+					if (removeFrom(queue, o)) {
+						found = true;
+						break;
+					}
+				}
+				if (!found) {
+					return false;
+				}
+			}
+			m_size--;
+			return true;
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	private static boolean removeFrom(PriorityQueue<Entry> queue, Object o) {
+		Iterator<Entry> iter = queue.iterator();
+		while (iter.hasNext()) {
+			if (iter.next().m_task == o) {
+				iter.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		m_lock.lock();
+		try {
+			return m_size;
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c, int max_elements) {
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		m_lock.lock();
+		try {
+			int n = 0;
+			while (n < max_elements && m_size > 0) {
+				c.add(dequeue());
+				n++;
+			}
+			return n;
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return 当前任务的快照，按优先级从高到低排列，同一优先级内不保证顺序，迭代期间队列的变化不会反映到迭代器中
+	 */
+	@Override
+	public Iterator<Runnable> iterator() {
+		final List<Runnable> snapshot = new ArrayList<>();
+		m_lock.lock();
+		try {
+			for (PriorityQueue<Entry> queue : m_queues) {
+				for (Entry entry : queue) {
+					snapshot.add(entry.m_task);
+				}
+			}
+		} finally {
+			m_lock.unlock();
+		}
+		return new Iterator<Runnable>() {
+			private int m_index = 0;
+			private Runnable m_last = null;
+
+			public boolean hasNext() {
+				return m_index < snapshot.size();
+			}
+
+			public Runnable next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				m_last = snapshot.get(m_index++);
+				return m_last;
+			}
+
+			public void remove() {
+				if (null == m_last) {
+					throw new IllegalStateException();
+				}
+				DispatchQueue.this.remove(m_last);
+				m_last = null;
+			}
+		};
+	}
+}
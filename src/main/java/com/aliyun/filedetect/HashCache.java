@@ -0,0 +1,230 @@
+package com.aliyun.filedetect;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 文件md5缓存，以文件标识（设备号/inode、大小、修改时间、状态改变时间）为键
+ *
+ * 文件未改变时直接返回已计算的md5；硬链接及指向同一文件的不同路径共用同一份结果，
+ * 同一文件并发请求时只计算一次
+ */
+class HashCache {
+	// 修改时间或状态改变时间距计算开始过近时不缓存，避免同一时间粒度内的再次修改无法被发现
+	static final long RACY_WINDOW = 2000;
+
+	private final int m_max_entries;
+	private final HashEngine m_engine;
+	private final LinkedHashMap<Object, Entry> m_map = new LinkedHashMap<>(16, 0.75f, true);
+	private final ReentrantLock m_lock = new ReentrantLock(); // 保护m_map
+	private final ConcurrentHashMap<Identity, FutureTask<String>> m_inflight = new ConcurrentHashMap<>();
+
+	private final AtomicLong m_hit_count = new AtomicLong();
+	private final AtomicLong m_miss_count = new AtomicLong();
+	private final AtomicLong m_eviction_count = new AtomicLong();
+
+	public HashCache(int max_entries, HashEngine engine) {
+		m_max_entries = max_entries;
+		m_engine = engine;
+	}
+
+	/**
+	 * 只查询缓存，不计算，不计入命中统计；未命中的文件随后通过getMd5计算，避免重复计数
+	 *
+	 * @return 文件未缓存或已改变返回null
+	 */
+	public String peek(String path) {
+		Identity ident = identify(path);
+		if (null == ident) {
+			return null;
+		}
+		m_lock.lock();
+		try {
+			Entry entry = m_map.get(ident.key);
+			if (null != entry && entry.ident.equals(ident)) {
+				return entry.md5;
+			}
+		} finally {
+			m_lock.unlock();
+		}
+		return null;
+	}
+
+	/**
+	 * 获取文件md5，文件未改变时直接返回缓存结果
+	 *
+	 * @return 文件不存在或读取失败返回null
+	 */
+	public String getMd5(final String path) {
+		final Identity ident = identify(path);
+		if (null == ident) {
+			return m_engine.calcMd5(path);
+		}
+		m_lock.lock();
+		try {
+			Entry entry = m_map.get(ident.key);
+			if (null != entry && entry.ident.equals(ident)) {
+				m_hit_count.incrementAndGet();
+				return entry.md5;
+			}
+		} finally {
+			m_lock.unlock();
+		}
+
+		// 同一文件并发请求时只计算一次
+		FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() {
+				long start_time = System.currentTimeMillis();
+				String md5 = m_engine.calcMd5(path);
+				if (null != md5 && start_time - Math.max(ident.mtime, ident.ctime) > RACY_WINDOW && ident.equals(identify(path))) {
+					put(ident, md5);
+				}
+				return md5;
+			}
+		});
+		FutureTask<String> running = m_inflight.putIfAbsent(ident, task);
+		if (null != running) {
+			m_hit_count.incrementAndGet();
+			return await(running);
+		}
+		m_miss_count.incrementAndGet();
+		try {
+			task.run();
+		} finally {
+			m_inflight.remove(ident, task);
+		}
+		return await(task);
+	}
+
+	public CacheStats getStats() {
+		CacheStats stats = new CacheStats();
+		m_lock.lock();
+		try {
+			stats.size = m_map.size();
+		} finally {
+			m_lock.unlock();
+		}
+		stats.hit_count = m_hit_count.get();
+		stats.miss_count = m_miss_count.get();
+		stats.eviction_count = m_eviction_count.get();
+		return stats;
+	}
+
+	private void put(Identity ident, String md5) {
+		m_lock.lock();
+		try {
+			m_map.put(ident.key, new Entry(ident, md5));
+			Iterator<Map.Entry<Object, Entry>> iter = m_map.entrySet().iterator();
+			while (m_map.size() > m_max_entries && iter.hasNext()) {
+				iter.next();
+				iter.remove();
+				m_eviction_count.incrementAndGet();
+			}
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	private static String await(FutureTask<String> task) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					return null;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * 获取文件标识，无法获取时返回null
+	 */
+	static Identity identify(String path) {
+		try {
+			Path p = Paths.get(path);
+			BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+			if (!attrs.isRegularFile()) {
+				return null;
+			}
+			Object key = attrs.fileKey();
+			if (null == key) {
+				key = p.toAbsolutePath().normalize().toString();
+			}
+			long ctime = 0;
+			try {
+				Object value = Files.getAttribute(p, "unix:ctime");
+				if (value instanceof FileTime) {
+					ctime = ((FileTime) value).toMillis();
+				}
+			} catch (UnsupportedOperationException | IllegalArgumentException e) {
+				ctime = attrs.creationTime().toMillis();
+			}
+			return new Identity(key, attrs.size(), attrs.lastModifiedTime().toMillis(), ctime);
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	static class Identity {
+		final Object key; // 设备号/inode，不支持时为规范化路径
+		final long size;
+		final long mtime;
+		final long ctime;
+
+		Identity(Object key, long size, long mtime, long ctime) {
+			this.key = key;
+			this.size = size;
+			this.mtime = mtime;
+			this.ctime = ctime;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Identity)) {
+				return false;
+			}
+			Identity other = (Identity) obj;
+			return key.equals(other.key) && size == other.size && mtime == other.mtime && ctime == other.ctime;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = key.hashCode();
+			h = h * 31 + (int) (size ^ (size >>> 32));
+			h = h * 31 + (int) (mtime ^ (mtime >>> 32));
+			return h * 31 + (int) (ctime ^ (ctime >>> 32));
+		}
+	}
+
+	private static class Entry {
+		final Identity ident;
+		final String md5;
+
+		Entry(Identity ident, String md5) {
+			this.ident = ident;
+			this.md5 = md5;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.aliyun.filedetect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * md5计算引擎，使用独立线程池，避免磁盘读取与网络请求相互阻塞
+ *
+ * 小文件通过FileChannel读入线程独占的直接内存缓冲区，大文件分段内存映射；
+ * 每个线程复用自己的MessageDigest
+ */
+class HashEngine {
+	private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+	private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(Config.HASH_BUFFER_SIZE);
+		}
+	};
+
+	private final Stage m_stage;
+	private final AtomicLong m_file_count = new AtomicLong();
+	private final AtomicLong m_byte_count = new AtomicLong();
+	private final AtomicLong m_time_nanos = new AtomicLong();
+	private final DetectorMetrics m_metrics;
+
+	public HashEngine(int thread_num, int queue_size, DetectorMetrics metrics) {
+		m_metrics = metrics;
+		m_stage = new Stage("hash", thread_num, queue_size, false); // 计算密集，始终使用平台线程
+	}
+
+	/**
+	 * 提交md5计算任务，等待队列满时阻塞
+	 *
+	 * @return false 引擎已关闭
+	 */
+	public boolean submit(Runnable job) {
+		return m_stage.submit(job);
+	}
+
+	/**
+	 * 关闭引擎
+	 *
+	 * @return 尚未执行的任务
+	 * @throws InterruptedException
+	 */
+	public List<Runnable> shutdown() throws InterruptedException {
+		return m_stage.shutdown();
+	}
+
+	/**
+	 * 计算文件md5
+	 *
+	 * @return 文件不存在或读取失败返回null
+	 */
+	public String calcMd5(String path) {
+		long start_time = System.nanoTime();
+		MessageDigest md5 = DIGEST.get();
+		md5.reset();
+		long total = 0;
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size >= Config.HASH_MMAP_THRESHOLD) {
+				// 大文件分段映射，避免复制到用户态缓冲区
+				for (long pos = 0; pos < size; pos += Config.HASH_MMAP_REGION_SIZE) {
+					long len = Math.min(Config.HASH_MMAP_REGION_SIZE, size - pos);
+					MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+					md5.update(region);
+					total += len;
+				}
+			} else {
+				ByteBuffer buffer = BUFFER.get();
+				while (true) {
+					buffer.clear();
+					int n = channel.read(buffer);
+					if (n < 0) {
+						break;
+					}
+					buffer.flip();
+					md5.update(buffer);
+					total += n;
+				}
+			}
+			return new String(Hex.encodeHex(md5.digest()));
+		} catch (IOException | RuntimeException e) {
+			return null;
+		} catch (InternalError e) {
+			// 内存映射期间文件被截断，访问映射区域时抛出InternalError
+			return null;
+		} finally {
+			m_file_count.incrementAndGet();
+			m_byte_count.addAndGet(total);
+			m_time_nanos.addAndGet(System.nanoTime() - start_time);
+			m_metrics.m_hash_time.recordSince(start_time);
+			m_metrics.m_hash_size.record(total);
+		}
+	}
+
+	public HashStats getStats() {
+		HashStats stats = new HashStats();
+		stats.file_count = m_file_count.get();
+		stats.byte_count = m_byte_count.get();
+		stats.time = TimeUnit.NANOSECONDS.toMillis(m_time_nanos.get());
+		long nanos = m_time_nanos.get();
+		if (nanos > 0) {
+			// 各线程累计耗时计算的单线程吞吐量
+			stats.throughput = stats.byte_count / 1048576.0 / (nanos / 1e9);
+		}
+		stats.queue_size = m_stage.getQueueSize();
+		stats.thread_num = m_stage.getThreadNum();
+		return stats;
+	}
+
+	public StageStats getStageStats() {
+		return m_stage.getStats();
+	}
+}
@@ -0,0 +1,10 @@
+package com.aliyun.filedetect;
+
+public class HashStats {
+	public long file_count = 0; // 已计算md5的文件数
+	public long byte_count = 0; // 已读取的字节数
+	public long time = 0; // 各线程累计用时，单位为毫秒
+	public double throughput = 0; // 单线程平均吞吐量，单位为MB/s
+	public int queue_size = 0; // 等待计算的文件数
+	public int thread_num = 0; // 计算线程数
+}
@@ -0,0 +1,92 @@
+package com.aliyun.filedetect;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁直方图，按2的幂划分桶，记录一次只需几次原子操作，可在热路径上使用
+ *
+ * 第i个桶记录二进制位数为i的值，即[2^(i-1), 2^i - 1]，第0个桶记录 <= 0 的值
+ */
+class Histogram {
+	private static final int BUCKET_NUM = 48;
+
+	private final AtomicLongArray m_buckets = new AtomicLongArray(BUCKET_NUM);
+	private final LongAdder m_count = new LongAdder();
+	private final LongAdder m_sum = new LongAdder();
+	private final AtomicLong m_max = new AtomicLong();
+
+	public void record(long value) {
+		int index = value <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(value), BUCKET_NUM - 1);
+		m_buckets.incrementAndGet(index);
+		m_count.increment();
+		m_sum.add(value);
+		long max = m_max.get();
+		while (value > max && !m_max.compareAndSet(max, value)) {
+			max = m_max.get();
+		}
+	}
+
+	/**
+	 * 记录自start_nanos（System.nanoTime）以来经过的时间，单位为微秒
+	 */
+	public void recordSince(long start_nanos) {
+		record((System.nanoTime() - start_nanos) / 1000);
+	}
+
+	/**
+	 * @return 记录次数，不汇总各桶，可在热路径上调用
+	 */
+	public long getCount() {
+		return m_count.sum();
+	}
+
+	/**
+	 * @return 记录值之和
+	 */
+	public long getSum() {
+		return m_sum.sum();
+	}
+
+	public HistogramStats getStats() {
+		HistogramStats stats = new HistogramStats();
+		long[] counts = new long[BUCKET_NUM];
+		long[] bounds = new long[BUCKET_NUM];
+		long count = 0;
+		for (int i = 0; i < BUCKET_NUM; i++) {
+			counts[i] = m_buckets.get(i);
+			bounds[i] = i == 0 ? 0 : (i == BUCKET_NUM - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+			count += counts[i];
+		}
+		// 各项分别读取，并发记录时以桶内计数为准
+		stats.count = count;
+		stats.sum = m_sum.sum();
+		stats.max = m_max.get();
+		stats.mean = count > 0 ? (double) stats.sum / count : 0;
+		stats.p50 = percentile(counts, bounds, count, 0.50, stats.max);
+		stats.p90 = percentile(counts, bounds, count, 0.90, stats.max);
+		stats.p99 = percentile(counts, bounds, count, 0.99, stats.max);
+		stats.bucket_bounds = bounds;
+		stats.bucket_counts = counts;
+		return stats;
+	}
+
+	/**
+	 * @return 分位数所在桶的上界，不超过最大值
+	 */
+	private static long percentile(long[] counts, long[] bounds, long count, double ratio, long max) {
+		if (count <= 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * ratio);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(bounds[i], max);
+			}
+		}
+		return max;
+	}
+}
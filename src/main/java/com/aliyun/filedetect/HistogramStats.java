@@ -0,0 +1,13 @@
+package com.aliyun.filedetect;
+
+public class HistogramStats {
+	public long count = 0; // 样本数
+	public long sum = 0; // 样本值之和
+	public long max = 0; // 最大值
+	public double mean = 0; // 平均值
+	public long p50 = 0; // 50分位数，按所在桶的上界估算，下同
+	public long p90 = 0; // 90分位数
+	public long p99 = 0; // 99分位数
+	public long[] bucket_bounds = new long[0]; // 各桶上界（含），按2的幂划分
+	public long[] bucket_counts = new long[0]; // 各桶样本数
+}
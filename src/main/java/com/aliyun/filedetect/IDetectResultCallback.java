@@ -1,9 +1,22 @@
 package com.aliyun.filedetect;
 
+/**
+ * 检测结果回调
+ *
+ * 回调通常在检测器的回调线程（filedetect-deliver-*，数量见DetectorOptions.setDeliverThreadPoolSize）中执行，
+ * 以下情况在其他线程中执行：
+ * 1. 命中缓存的结果，回调队列已满时在调用detect的线程中直接回调，此时回调在detect返回前完成
+ * 2. 回调队列已满时，在产生结果的检测线程中回调
+ * 3. 在回调中发起的检测，其结果在产生结果的线程中回调，不再经过回调队列
+ * 4. 检测器正在关闭时，尚未送达的结果在调用uninit的线程中回调
+ *
+ * 回调中可以再次调用detect、detectAsync、detectSync；等待队列空间的detect在回调中调用时不等待。
+ * 回调应尽快返回，耗时的处理请交给调用方自己的线程，否则会占用回调线程或检测线程
+ */
 public interface IDetectResultCallback {
 	/**
 	 * 返回调用接口
-	 * 
+	 *
 	 * @param seq       顺序号，由调用时返回（数值 1-2G循环使用）
 	 * @param file_path 待检测文件路径
 	 * @param res       检测结果
@@ -0,0 +1,30 @@
+package com.aliyun.filedetect;
+
+import java.io.IOException;
+
+public interface IScanListener {
+	/**
+	 * 单个文件得到检测结果，在检测器的回调线程中并发调用
+	 * 
+	 * @param file_path 文件路径
+	 * @param res       检测结果
+	 */
+	public void onResult(String file_path, DetectResult res);
+
+	/**
+	 * 遍历目录或读取文件属性出错，如无访问权限，在遍历线程中并发调用
+	 * 
+	 * @param path  出错的路径
+	 * @param error 错误信息
+	 */
+	public default void onError(String path, IOException error) {
+	}
+
+	/**
+	 * 扫描进度，在调用scan的线程中按间隔调用，扫描结束时再调用一次
+	 * 
+	 * @param progress 进度快照
+	 */
+	public default void onProgress(ScanProgress progress) {
+	}
+}
@@ -0,0 +1,76 @@
+package com.aliyun.filedetect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * 以只读属性发布检测器运行指标的MBean，属性名同MetricsSnapshot.toMap
+ *
+ * 阶段指标在初始化后才出现，因此MBeanInfo每次按当前快照生成
+ */
+class MetricsMBean implements DynamicMBean {
+	private final OpenAPIDetector m_detector;
+
+	MetricsMBean(OpenAPIDetector detector) {
+		m_detector = detector;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Number value = m_detector.getMetrics().toMap().get(attribute);
+		if (null == value) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		// 同一次读取的属性来自同一份快照
+		Map<String, Number> map = m_detector.getMetrics().toMap();
+		AttributeList list = new AttributeList();
+		for (String name : attributes) {
+			Number value = map.get(name);
+			if (null != value) {
+				list.add(new Attribute(name, value));
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(action));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attrs = new ArrayList<>();
+		for (Map.Entry<String, Number> entry : m_detector.getMetrics().toMap().entrySet()) {
+			attrs.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(),
+					true, false, false));
+		}
+		return new MBeanInfo(getClass().getName(), "File detect metrics", attrs.toArray(new MBeanAttributeInfo[0]),
+				null, new MBeanOperationInfo[0], null);
+	}
+}
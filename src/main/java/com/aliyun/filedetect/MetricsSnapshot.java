@@ -0,0 +1,92 @@
+package com.aliyun.filedetect;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 检测器运行指标快照，计数与直方图均为检测器创建以来的累计值，时间单位为微秒
+ */
+public class MetricsSnapshot {
+	public long timestamp = 0; // 快照时间，单位为毫秒
+	public int queue_size = 0; // 已提交尚未回调的任务数
+	public int queue_size_max = 0; // 检测队列最大个数
+	public int inflight_md5_count = 0; // 正在检测的不同md5数
+	public long submit_count = 0; // 进入检测队列的任务数，不含提交时命中缓存的任务
+	public long succ_count = 0; // 成功完成的任务数
+	public long error_count = 0; // 以错误结束的任务数，不含因队列满等原因未能提交的任务
+	public long expire_early_count = 0; // 剩余时间不足以完成md5计算与上传，提前以超时结束的任务数，含于error_count
+	public HistogramStats queue_wait = new HistogramStats(); // 提交到首次被检测线程处理的用时
+	public HistogramStats hash_time = new HistogramStats(); // 单个文件计算md5的用时
+	public HistogramStats hash_size = new HistogramStats(); // 计算md5的文件大小，单位为字节
+	public HistogramStats upload_size = new HistogramStats(); // 上传的文件大小，单位为字节
+	public double upload_throughput = 0; // 单个连接平均上传速度，单位为MB/s
+	public HistogramStats poll_count = new HistogramStats(); // 每个文件得到结果前查询检测结果的次数
+	public HistogramStats detect_time = new HistogramStats(); // 提交到回调的用时，含命中缓存的任务
+	public List<ApiStats> apis = new ArrayList<>(); // 各接口调用情况，上传文件用时见UploadFile
+	public CacheStats verdict_cache = new CacheStats(); // 检测结果缓存
+	public CacheStats hash_cache = new CacheStats(); // 文件md5缓存
+	public List<StageStats> stages = new ArrayList<>(); // 流水线各阶段，未初始化时为空
+
+	/**
+	 * 展开为“分组.指标”形式的数值表，用于JMX等只支持标量的监控系统
+	 */
+	public Map<String, Number> toMap() {
+		Map<String, Number> map = new LinkedHashMap<>();
+		map.put("timestamp", timestamp);
+		map.put("queue_size", queue_size);
+		map.put("queue_size_max", queue_size_max);
+		map.put("inflight_md5_count", inflight_md5_count);
+		map.put("submit_count", submit_count);
+		map.put("succ_count", succ_count);
+		map.put("error_count", error_count);
+		map.put("expire_early_count", expire_early_count);
+		putHistogram(map, "queue_wait", queue_wait);
+		putHistogram(map, "hash_time", hash_time);
+		putHistogram(map, "hash_size", hash_size);
+		putHistogram(map, "upload_size", upload_size);
+		map.put("upload_throughput", upload_throughput);
+		putHistogram(map, "poll_count", poll_count);
+		putHistogram(map, "detect_time", detect_time);
+		for (ApiStats api : apis) {
+			String prefix = "api." + api.action;
+			map.put(prefix + ".call_count", api.call_count);
+			map.put(prefix + ".error_count", api.error_count);
+			map.put(prefix + ".throttle_count", api.throttle_count);
+			map.put(prefix + ".rate", api.rate);
+			putHistogram(map, prefix + ".latency", api.latency);
+		}
+		putCache(map, "verdict_cache", verdict_cache);
+		putCache(map, "hash_cache", hash_cache);
+		for (StageStats stage : stages) {
+			String prefix = "stage." + stage.name;
+			map.put(prefix + ".thread_num", stage.thread_num);
+			map.put(prefix + ".active_count", stage.active_count);
+			map.put(prefix + ".queue_size", stage.queue_size);
+			map.put(prefix + ".queue_capacity", stage.queue_capacity);
+			map.put(prefix + ".completed_count", stage.completed_count);
+			map.put(prefix + ".blocked_count", stage.blocked_count);
+		}
+		return map;
+	}
+
+	private static void putHistogram(Map<String, Number> map, String prefix, HistogramStats stats) {
+		map.put(prefix + ".count", stats.count);
+		map.put(prefix + ".mean", stats.mean);
+		map.put(prefix + ".p50", stats.p50);
+		map.put(prefix + ".p90", stats.p90);
+		map.put(prefix + ".p99", stats.p99);
+		map.put(prefix + ".max", stats.max);
+	}
+
+	private static void putCache(Map<String, Number> map, String prefix, CacheStats stats) {
+		map.put(prefix + ".hit_count", stats.hit_count);
+		map.put(prefix + ".miss_count", stats.miss_count);
+		map.put(prefix + ".eviction_count", stats.eviction_count);
+		map.put(prefix + ".size", stats.size);
+		map.put(prefix + ".bytes", stats.bytes);
+		map.put(prefix + ".store_hit_count", stats.store_hit_count);
+		map.put(prefix + ".store_error_count", stats.store_error_count);
+	}
+}
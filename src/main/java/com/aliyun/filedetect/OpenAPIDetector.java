@@ -3,11 +3,20 @@ package com.aliyun.filedetect;
 import java.io.File;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import com.aliyun.teautil.models.RuntimeOptions;
 
 public class OpenAPIDetector implements ScanTask.TaskCallback {
 	/**
-	 * 获取单例检测器
+	 * 获取单例检测器，使用默认配置
+	 * 
+	 * 需要不同配置的多个检测器时，通过new OpenAPIDetector(options)创建独立实例
 	 * 
 	 * @return 单例对象
 	 */
@@ -35,12 +44,20 @@ public class OpenAPIDetector implements ScanTask.TaskCallback {
 			return ERR_CODE.ERR_INIT;
 		}
 		
-		com.aliyun.teaopenapi.models.Config config = new com.aliyun.teaopenapi.models.Config().setAccessKeyId(accessKeyId).setAccessKeySecret(accessKeySecret);
-		config.endpoint = "tds.aliyuncs.com";
-		m_client = new com.aliyun.sas20181203.Client(config);
+		DetectTransport transport = m_options.getTransport();
+		m_own_transport = null == transport;
+		if (null == transport) {
+			com.aliyun.teaopenapi.models.Config config = new com.aliyun.teaopenapi.models.Config().setAccessKeyId(accessKeyId).setAccessKeySecret(accessKeySecret);
+			config.endpoint = m_options.getEndpoint();
+			transport = new OpenApiTransport(new com.aliyun.sas20181203.Client(config));
+		}
+		m_transport = transport;
 		m_client_opt = new RuntimeOptions();
-		m_client_opt.connectTimeout = Config.HTTP_CONNECT_TIMEOUT;
-		m_client_opt.readTimeout = Config.HTTP_READ_TIMEOUT;
+		m_client_opt.connectTimeout = m_options.getConnectTimeout();
+		m_client_opt.readTimeout = m_options.getReadTimeout();
+		m_upload_opt = new RuntimeOptions();
+		m_upload_opt.connectTimeout = m_options.getConnectTimeout();
+		m_upload_opt.readTimeout = m_options.getUploadTimeout();
 
 		m_rej_handler = new RejectedExecutionHandler() {
 			@Override
@@ -50,13 +67,37 @@ public class OpenAPIDetector implements ScanTask.TaskCallback {
 				}
 			}
 		};
-		m_queue = new LinkedBlockingDeque<Runnable>();
-		m_threadpool = new ThreadPoolExecutor(Config.THREAD_POOL_SIZE, Config.THREAD_POOL_SIZE, 0, TimeUnit.MILLISECONDS, m_queue);
-		m_threadpool.prestartAllCoreThreads();
-		m_threadpool.setRejectedExecutionHandler(m_rej_handler);
+		m_queue = new DispatchQueue(Config.DISPATCH_STARVATION_LIMIT, Config.DISPATCH_NO_DEADLINE_AGE);
+		m_lock.lock();
+		try {
+			m_threadpool = new ThreadPoolExecutor(m_thread_pool_size, m_thread_pool_size, 0, TimeUnit.MILLISECONDS, m_queue,
+					isVirtualThreads() ? Threads.factory("filedetect-worker-", true) : Executors.defaultThreadFactory());
+			m_threadpool.prestartAllCoreThreads();
+			m_threadpool.setRejectedExecutionHandler(m_rej_handler);
+			if (null != m_store_dir) {
+				m_store = new VerdictStore(new File(m_store_dir), m_store_max_age, Config.VERDICT_STORE_COMPACT_INTERVAL);
+			}
+			m_cache = new VerdictCache(m_options.getVerdictCacheMaxEntries(), m_options.getVerdictCacheMaxBytes()
+					, m_cache_white_ttl, m_cache_black_ttl, m_cache_error_ttl, m_store);
+		} finally {
+			m_lock.unlock();
+		}
+		m_hash_engine = new HashEngine(m_options.getHashThreadPoolSize(), m_options.getHashQueueSize(), m_metrics);
+		m_upload_stage = new Stage("upload", m_options.getUploadThreadPoolSize(), m_options.getUploadQueueSize(), isVirtualThreads());
+		m_deliver_stage = new Stage("deliver", m_options.getDeliverThreadPoolSize(), m_options.getDeliverQueueSize(), isVirtualThreads());
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, Threads.factory("filedetect-timer-", false));
+		timer.setRemoveOnCancelPolicy(true); // 等待任务随负责任务结束时取消其超时，不在队列中滞留
+		m_timer = timer;
+		m_hash_cache = new HashCache(m_options.getHashCacheMaxEntries(), m_hash_engine);
+		m_poller = new ResultPoller(m_transport, m_client_opt, m_queue, m_cache, m_limiter, m_metrics, m_options);
+		m_poller.start();
+		m_uploader = new UploadUrlRequester(m_transport, m_client_opt, m_queue, m_limiter, m_metrics, m_options);
+		m_uploader.start();
 		
-		m_counter = 0;
-		m_alive_task_num = 0;
+		m_counter.set(0);
+		// 上次初始化遗留的任务（如仍在执行的回调）结束时按代次忽略，不会使新的计数变为负数
+		m_generation++;
+		m_alive_task_num.set(0);
 		m_is_inited = true;
 		return ERR_CODE.ERR_SUCC;
 	}
@@ -71,23 +112,65 @@ public class OpenAPIDetector implements ScanTask.TaskCallback {
 			return;
 		}
 		m_is_inited = false;
+		// 先停止批量处理线程，避免其在线程池关闭后继续投递任务
+		for (ScanTask task : m_poller.stop()) {
+			m_rej_handler.rejectedExecution(task, m_threadpool);
+		}
+		for (ScanTask task : m_uploader.stop()) {
+			m_rej_handler.rejectedExecution(task, m_threadpool);
+		}
+		// 等待任务随负责任务一起结束，不再需要单独超时
+		m_timer.shutdownNow();
+		for (Runnable r : m_hash_engine.shutdown()) {
+			if (r instanceof ScanTask.HashJob) {
+				m_rej_handler.rejectedExecution(((ScanTask.HashJob) r).getTask(), m_threadpool);
+			}
+		}
+		for (Runnable r : m_upload_stage.shutdown()) {
+			if (r instanceof ScanTask.UploadJob) {
+				m_rej_handler.rejectedExecution(((ScanTask.UploadJob) r).getTask(), m_threadpool);
+			}
+		}
+		// 自行创建的transport随检测器关闭，通过配置传入的由调用方管理
+		if (m_own_transport && m_transport instanceof OpenApiTransport) {
+			((OpenApiTransport) m_transport).close();
+		}
 		List<Runnable> tasks = m_threadpool.shutdownNow();
 		for (Runnable r : tasks) {
 			m_rej_handler.rejectedExecution(r, m_threadpool);
 		}
-		synchronized(m_queue) {
-			m_queue.notifyAll();
-		}
 		m_threadpool.awaitTermination(5, TimeUnit.SECONDS);
+		// 最后关闭回调阶段，尚未送达的结果在当前线程回调
+		Stage deliver_stage = m_deliver_stage;
+		m_deliver_stage = null;
+		for (Runnable r : deliver_stage.shutdown()) {
+			r.run();
+		}
+		if (null != m_store) {
+			m_store.close();
+		}
 		
 
-		synchronized (this) {
+		m_lock.lock();
+		try {
 			m_threadpool = null;
 			m_rej_handler = null;
 			m_queue = null;
-			m_client = null;
+			m_poller = null;
+			m_uploader = null;
+			m_cache = null;
+			m_store = null;
+			m_hash_cache = null;
+			m_hash_engine = null;
+			m_upload_stage = null;
+			m_timer = null;
+			m_transport = null;
 			m_client_opt = null;
+			m_upload_opt = null;
+		} finally {
+			m_lock.unlock();
 		}
+		signalQueueChanged();
 	}
 
 	/**
@@ -95,29 +178,73 @@ public class OpenAPIDetector implements ScanTask.TaskCallback {
 	 * 
 	 * @param file_path 待检测文件路径
 	 * @param timeout   超时时长，单位毫秒， < 0 无限等待
-	 * @param res       检测结果
-	 * @throws InterruptedException
+	 * @return 检测结果
+	 * @throws InterruptedException 等待期间线程被中断，检测任务随之取消
 	 */
 	public DetectResult detectSync(String file_path, int timeout) throws InterruptedException {
-		final DetectResult res[] = new DetectResult[1];
-		int seq = detect(file_path, timeout, new IDetectResultCallback() {
+		return detectSync(file_path, timeout, PRIORITY.PRI_NORMAL);
+	}
+
+	/**
+	 * 同步文件检测
+	 * 
+	 * @param file_path 待检测文件路径
+	 * @param timeout   超时时长，单位毫秒， < 0 无限等待
+	 * @param priority  检测优先级
+	 * @return 检测结果
+	 * @throws InterruptedException 等待期间线程被中断，检测任务随之取消
+	 */
+	public DetectResult detectSync(String file_path, int timeout, PRIORITY priority) throws InterruptedException {
+		CompletableFuture<DetectResult> future = detectAsync(file_path, timeout, priority);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			throw e;
+		} catch (ExecutionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * 异步文件检测
+	 * 
+	 * 检测出错时future同样正常完成，错误码见DetectResult.error_code；
+	 * 取消future（或以异常完成）会取消对应的检测任务
+	 * 
+	 * @param file_path 待检测文件路径
+	 * @param timeout   超时时长，单位毫秒， < 0 无限等待
+	 * @return 检测结果
+	 */
+	public CompletableFuture<DetectResult> detectAsync(String file_path, int timeout) {
+		return detectAsync(file_path, timeout, PRIORITY.PRI_NORMAL);
+	}
+
+	/**
+	 * 异步文件检测
+	 * 
+	 * @param file_path 待检测文件路径
+	 * @param timeout   超时时长，单位毫秒， < 0 无限等待
+	 * @param priority  检测优先级
+	 * @return 检测结果
+	 */
+	public CompletableFuture<DetectResult> detectAsync(String file_path, int timeout, PRIORITY priority) {
+		final CompletableFuture<DetectResult> future = new CompletableFuture<>();
+		final ScanTask task = newTask(file_path, timeout, priority, new IDetectResultCallback() {
 			public void onScanResult(int seq, String file_path, DetectResult callback_res) {
-				res[0] = callback_res;
-				synchronized(res) {
-					res.notify();
-				}
+				future.complete(callback_res);
 			}
 		});
-		
-		if (seq > 0) {
-			synchronized(res) {
-				try {
-					res.wait();
-				} catch (InterruptedException e) {
+		future.whenComplete(new BiConsumer<DetectResult, Throwable>() {
+			@Override
+			public void accept(DetectResult res, Throwable error) {
+				if (null != error) {
+					cancel(task);
 				}
 			}
-		}
-		return res[0];
+		});
+		submit(task, false);
+		return future;
 	}
 
 	/**
@@ -129,45 +256,231 @@ public class OpenAPIDetector implements ScanTask.TaskCallback {
 	 * @return >0 发起检测成功，检测请求序列号 < 0 错误码，参见ERR_CODE
 	 */
 	public int detect(String file_path, int timeout, IDetectResultCallback callback) {
-		long filesize = get_filesize(file_path);
-		ScanTask task = new ScanTask(file_path, filesize, timeout, callback);
-		if (filesize < 0) {
+		return detect(file_path, timeout, callback, PRIORITY.PRI_NORMAL);
+	}
+
+	/**
+	 * 异步文件检测
+	 * 
+	 * @param file_path 待检测文件路径
+	 * @param timeout   超时时长，单位毫秒， < 0 无限等待
+	 * @param callback  检测结果
+	 * @param priority  检测优先级，检测线程优先处理高优先级的请求
+	 * @return >0 发起检测成功，检测请求序列号 < 0 错误码，参见ERR_CODE
+	 */
+	public int detect(String file_path, int timeout, IDetectResultCallback callback, PRIORITY priority) {
+		return submit(newTask(file_path, timeout, priority, callback), false);
+	}
+
+	/**
+	 * 异步文件检测，队列满时等待队列空间可用；在检测结果回调中调用时不等待
+	 * 
+	 * @param file_path          待检测文件路径
+	 * @param timeout            超时时长，单位毫秒， < 0 无限等待
+	 * @param callback           检测结果
+	 * @param queue_wait_timeout 等待队列空间的时长，单位毫秒， < 0 无限等待
+	 * @return >0 发起检测成功，检测请求序列号 < 0 错误码，参见ERR_CODE
+	 * @throws InterruptedException 等待队列空间期间线程被中断，此时不会发起检测也不会回调
+	 */
+	public int detect(String file_path, int timeout, IDetectResultCallback callback, int queue_wait_timeout)
+			throws InterruptedException {
+		return detect(file_path, timeout, callback, queue_wait_timeout, PRIORITY.PRI_NORMAL);
+	}
+
+	/**
+	 * 异步文件检测，队列满时等待队列空间可用；在检测结果回调中调用时不等待
+	 * 
+	 * @param file_path          待检测文件路径
+	 * @param timeout            超时时长，单位毫秒， < 0 无限等待
+	 * @param callback           检测结果
+	 * @param queue_wait_timeout 等待队列空间的时长，单位毫秒， < 0 无限等待
+	 * @param priority           检测优先级，检测线程优先处理高优先级的请求
+	 * @return >0 发起检测成功，检测请求序列号 < 0 错误码，参见ERR_CODE
+	 * @throws InterruptedException 等待队列空间期间线程被中断，此时不会发起检测也不会回调
+	 */
+	public int detect(String file_path, int timeout, IDetectResultCallback callback, int queue_wait_timeout,
+			PRIORITY priority) throws InterruptedException {
+		// 队列位置在回调开始执行时才释放，回调线程等待队列空间会与排队中的回调互相等待
+		Stage deliver_stage = m_deliver_stage;
+		if (null != deliver_stage && deliver_stage.isCurrentThread()) {
+			return detect(file_path, timeout, callback, priority);
+		}
+		long deadline = queue_wait_timeout < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + queue_wait_timeout;
+		while (!tryReserve()) {
+			if (!m_is_inited || !awaitQueue(false, deadline)) {
+				// 仍然无法入队，按未等待处理并回调错误
+				return detect(file_path, timeout, callback, priority);
+			}
+		}
+		return submit(newTask(file_path, timeout, priority, callback), true);
+	}
+
+	private ScanTask newTask(String file_path, int timeout, PRIORITY priority, IDetectResultCallback callback) {
+		if (null == priority) {
+			priority = PRIORITY.PRI_NORMAL;
+		}
+		return new ScanTask(this, file_path, get_filesize(file_path), timeout, priority, callback);
+	}
+
+	/**
+	 * @param reserved 调用方是否已通过tryReserve占用队列位置
+	 */
+	private int submit(ScanTask task, boolean reserved) {
+		String file_path = task.getPath();
+		if (task.getSize() < 0) {
+			if (reserved) {
+				releaseReserved();
+			}
 			task.errorCallback(ERR_CODE.ERR_FILE_NOT_FOUND, null);
 			return ERR_CODE.ERR_FILE_NOT_FOUND.value();
 		}
-		int seq = 0;
-		try {
-			if (m_is_inited) {
-				synchronized (this) {
-					if (m_is_inited) {
-						task.setSeq(++m_counter);
-						if (m_counter <= 0) { // 超过2G，从头开始
-							m_counter = 0;
-							task.setSeq(++m_counter);
-						}
-						if (this.getQueueSize() >= Config.QUEUE_SIZE_MAX) {
-							throw new IllegalStateException("Deque full");
-						}
-						task.setTaskCallback(this);
-						m_queue.addLast(task);
-						synchronized(m_queue) {
-							m_queue.notify();
-						}
-						seq = task.getSeq();
-					}
-				}
+		// 文件未改变且已有检测结果时直接返回，不进入队列
+		ScanTask.ResultInfo cached = null;
+		String md5 = null;
+		HashCache hash_cache = m_hash_cache;
+		VerdictCache cache = m_cache;
+		if (null != hash_cache && null != cache) {
+			md5 = hash_cache.peek(file_path);
+			if (null != md5) {
+				cached = cache.get(md5);
 			}
-		} catch (IllegalStateException e) {
-			task.errorCallback(ERR_CODE.ERR_DETECT_QUEUE_FULL, null);
-			return ERR_CODE.ERR_DETECT_QUEUE_FULL.value();
 		}
-
-		if (seq <= 0) {
+		DispatchQueue queue = m_queue;
+		if (!m_is_inited || null == queue) {
+			if (reserved) {
+				releaseReserved();
+			}
 			task.errorCallback(ERR_CODE.ERR_INIT, null);
 			return ERR_CODE.ERR_INIT.value();
 		}
+		// 命中缓存的任务同样占用队列位置，直到开始回调结果
+		if (!reserved && !tryReserve()) {
+			task.errorCallback(ERR_CODE.ERR_DETECT_QUEUE_FULL, null);
+			return ERR_CODE.ERR_DETECT_QUEUE_FULL.value();
+		}
+		int seq = nextSeq();
+		task.setSeq(seq);
+		task.setGeneration(m_generation);
+		task.setTaskCallback(this);
+		Stage deliver_stage = m_deliver_stage;
+		task.setDeliverInline(null != deliver_stage && deliver_stage.isCurrentThread());
+		if (null != cached) {
+			task.cachedCallback(md5, cached);
+			return seq;
+		}
+		m_metrics.m_submit_count.increment();
+		queue.add(task);
+		// 与uninit并发时，线程池可能已取走队列中的任务，由这里负责结束未被取走的任务
+		if (!m_is_inited && queue.remove(task)) {
+			task.errorCallback(ERR_CODE.ERR_ABORT, null);
+		}
 		return seq;
 	}
+
+	private int nextSeq() {
+		while (true) {
+			int cur = m_counter.get();
+			int next = cur == Integer.MAX_VALUE ? 1 : cur + 1; // 超过2G，从头开始
+			if (m_counter.compareAndSet(cur, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * 队列未满时占用一个位置，任务结束时由onTaskEnd释放
+	 */
+	private boolean tryReserve() {
+		while (true) {
+			int cur = m_alive_task_num.get();
+			if (cur >= m_queue_size_max) {
+				return false;
+			}
+			if (m_alive_task_num.compareAndSet(cur, cur + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private void releaseReserved() {
+		m_alive_task_num.decrementAndGet();
+		signalQueueChanged();
+	}
+
+	/**
+	 * 等待队列空间可用或队列为空
+	 * 
+	 * @param empty    true 等待队列为空 false 等待队列空间可用
+	 * @param deadline 最晚等待到的时间
+	 * @return 是否满足等待条件
+	 * @throws InterruptedException
+	 */
+	private boolean awaitQueue(boolean empty, long deadline) throws InterruptedException {
+		m_queue_waiters.incrementAndGet();
+		m_queue_lock.lock();
+		try {
+			while (true) {
+				int size = getQueueSize();
+				if (empty ? size == 0 : size < m_queue_size_max) {
+					return true;
+				}
+				if (deadline == Long.MAX_VALUE) {
+					m_queue_changed.await();
+					continue;
+				}
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0) {
+					return false;
+				}
+				m_queue_changed.await(left, TimeUnit.MILLISECONDS);
+			}
+		} finally {
+			m_queue_lock.unlock();
+			m_queue_waiters.decrementAndGet();
+		}
+	}
+
+	/**
+	 * 队列长度或上限变化后唤醒等待者，无人等待时不加锁
+	 */
+	private void signalQueueChanged() {
+		if (m_queue_waiters.get() > 0) {
+			m_queue_lock.lock();
+			try {
+				m_queue_changed.signalAll();
+			} finally {
+				m_queue_lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * 取消检测任务，仍在队列中或正在等待同md5任务结果的任务立即以ERR_ABORT结束
+	 */
+	private void cancel(ScanTask task) {
+		if (!task.cancel()) {
+			return;
+		}
+		DispatchQueue queue = m_queue;
+		if (null != queue && queue.remove(task)) {
+			task.errorCallback(ERR_CODE.ERR_ABORT, null);
+			return;
+		}
+		// 正在等待同md5任务的结果时不再等待
+		ScanTask owner = task.getOwner();
+		if (null != owner && owner.removeWaiter(task)) {
+			task.errorCallback(ERR_CODE.ERR_ABORT, null);
+			return;
+		}
+		ResultPoller poller = m_poller;
+		UploadUrlRequester uploader = m_uploader;
+		if (null != poller) {
+			poller.wakeUp();
+		}
+		if (null != uploader) {
+			uploader.wakeUp();
+		}
+	}
 	
     /** 
     * @brief 获取检测队列长度
@@ -175,11 +488,7 @@ public class OpenAPIDetector implements ScanTask.TaskCallback {
     */
     public int getQueueSize() {
     	if (m_is_inited) {
-			synchronized (this) {
-				if (m_is_inited) {
-					return m_alive_task_num;
-				}
-			}
+    		return m_alive_task_num.get();
 		}
     	return 0;
     }
@@ -191,26 +500,8 @@ public class OpenAPIDetector implements ScanTask.TaskCallback {
      * @throws InterruptedException 
     */
     public ERR_CODE waitQueueAvailable(int timeout) throws InterruptedException {
-    	ERR_CODE code = ERR_CODE.ERR_TIMEOUT;
-    	int all_time = 0;
-    	do {
-    		if (this.getQueueSize() < Config.QUEUE_SIZE_MAX) {
-				code = ERR_CODE.ERR_SUCC;
-				break;
-			}
-    		
-    		if (timeout >= 0 && all_time >= timeout) {
-    			break;
-    		}
-    		int sleep_unit = 200;
-    		if (timeout >= 0 && timeout > all_time  && timeout - all_time  < sleep_unit) {
-    			sleep_unit = timeout - all_time;
-    		}
-    		long start_time = System.currentTimeMillis();
-			Thread.sleep(sleep_unit);
-			all_time += System.currentTimeMillis() - start_time;
-    	} while(true);
-    	return code;
+    	long deadline = timeout < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+    	return awaitQueue(false, deadline) ? ERR_CODE.ERR_SUCC : ERR_CODE.ERR_TIMEOUT;
     }
     
     /** 
@@ -220,40 +511,318 @@ public class OpenAPIDetector implements ScanTask.TaskCallback {
      * @throws InterruptedException 
     */
     public ERR_CODE waitQueueEmpty(int timeout) throws InterruptedException {
-    	ERR_CODE code = ERR_CODE.ERR_TIMEOUT;
-    	int all_time = 0;
-    	do {
-    		if (this.getQueueSize() == 0) {
-				code = ERR_CODE.ERR_SUCC;
-				break;
-			}
-    		
-    		if (timeout >= 0 && all_time >= timeout) {
-    			break;
+    	long deadline = timeout < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+    	return awaitQueue(true, deadline) ? ERR_CODE.ERR_SUCC : ERR_CODE.ERR_TIMEOUT;
+    }
+
+    /** 
+    * @brief 设置检测结果缓存有效期，可在初始化前后调用
+    * @param white_ttl 白样本结果有效期，单位毫秒，<= 0 不缓存
+    * @param black_ttl 黑样本结果有效期，单位毫秒，<= 0 不缓存
+    * @param error_ttl 错误结果有效期，单位毫秒，<= 0 不缓存
+    */
+    public void setVerdictCacheTtl(long white_ttl, long black_ttl, long error_ttl) {
+    	m_lock.lock();
+    	try {
+    		m_cache_white_ttl = white_ttl;
+    		m_cache_black_ttl = black_ttl;
+    		m_cache_error_ttl = error_ttl;
+    		if (null != m_cache) {
+    			m_cache.setTtl(white_ttl, black_ttl, error_ttl);
+    		}
+    	} finally {
+    		m_lock.unlock();
+    	}
+    }
+    
+    /** 
+    * @brief 启用检测结果持久化存储，需在初始化前调用，重启后可复用已获得的检测结果
+    * @param dir 存储目录，null 不启用
+    * @param max_age 检测结果有效期，单位毫秒，<= 0 不过期；内存缓存未命中时，有效期内的存储结果直接使用，不受内存缓存有效期限制
+    */
+    public void setVerdictStore(String dir, long max_age) {
+    	m_lock.lock();
+    	try {
+    		m_store_dir = dir;
+    		m_store_max_age = max_age;
+    	} finally {
+    		m_lock.unlock();
+    	}
+    }
+    
+    /** 
+    * @brief 清空检测结果内存缓存，持久化存储不受影响
+    */
+    public void clearVerdictCache() {
+    	VerdictCache cache = m_cache;
+    	if (null != cache) {
+    		cache.clear();
+    	}
+    }
+    
+    /** 
+    * @brief 获取检测结果缓存统计信息
+    * @return 统计信息，未初始化时各项均为0
+    */
+    public CacheStats getVerdictCacheStats() {
+    	VerdictCache cache = m_cache;
+    	if (null == cache) {
+    		return new CacheStats();
+    	}
+    	return cache.getStats();
+    }
+
+    /** 
+    * @brief 获取文件md5缓存统计信息
+    * @return 统计信息，未初始化时各项均为0
+    */
+    public CacheStats getHashCacheStats() {
+    	HashCache hash_cache = m_hash_cache;
+    	if (null == hash_cache) {
+    		return new CacheStats();
+    	}
+    	return hash_cache.getStats();
+    }
+
+    /** 
+    * @brief 设置OpenAPI最大调用速率，被限流时自动降速，之后逐步恢复到该速率
+    * @param action 接口名（GetFileDetectResult、CreateFileDetectUploadUrl、CreateFileDetect），为null时设置所有接口
+    * @param rate 每秒调用次数，0 表示不限速，只在被限流后自动降速
+    */
+    public void setApiRateLimit(String action, double rate) {
+    	m_limiter.setRate(action, rate);
+    }
+
+    /** 
+    * @brief 调整检测线程池大小，可在初始化前后调用
+    * @param thread_pool_size 线程池大小
+    */
+    public void setThreadPoolSize(int thread_pool_size) {
+    	if (thread_pool_size <= 0) {
+    		throw new IllegalArgumentException("thread pool size must be positive");
+    	}
+    	m_lock.lock();
+    	try {
+    		m_thread_pool_size = thread_pool_size;
+    		if (null != m_threadpool) {
+    			// 扩大时先调整最大值，缩小时先调整核心数，保证核心数不超过最大值
+    			if (thread_pool_size > m_threadpool.getMaximumPoolSize()) {
+    				m_threadpool.setMaximumPoolSize(thread_pool_size);
+    				m_threadpool.setCorePoolSize(thread_pool_size);
+    			} else {
+    				m_threadpool.setCorePoolSize(thread_pool_size);
+    				m_threadpool.setMaximumPoolSize(thread_pool_size);
+    			}
+    			m_threadpool.prestartAllCoreThreads();
     		}
-    		int sleep_unit = 200;
-    		if (timeout >= 0 && timeout > all_time  && timeout - all_time  < sleep_unit) {
-    			sleep_unit = timeout - all_time;
+    	} finally {
+    		m_lock.unlock();
+    	}
+    }
+
+    /** 
+    * @brief 调整检测队列最大个数，可在初始化前后调用，已在队列中的任务不受影响
+    * @param queue_size_max 队列最大个数
+    */
+    public void setQueueSizeMax(int queue_size_max) {
+    	if (queue_size_max <= 0) {
+    		throw new IllegalArgumentException("queue size must be positive");
+    	}
+    	m_queue_size_max = queue_size_max;
+    	signalQueueChanged();
+    }
+
+    /** 
+    * @brief 获取检测器配置
+    * @return 配置，线程池大小及队列最大个数为当前值
+    */
+    public DetectorOptions getOptions() {
+    	m_lock.lock();
+    	try {
+    		return m_options.toBuilder().setThreadPoolSize(m_thread_pool_size).setQueueSizeMax(m_queue_size_max).build();
+    	} finally {
+    		m_lock.unlock();
+    	}
+    }
+
+    /** 
+    * @brief 是否使用虚拟线程执行检测任务
+    * @return 配置启用且运行环境支持（Java 21及以上）时为true
+    */
+    public boolean isVirtualThreads() {
+    	return m_options.isVirtualThreads() && Threads.isVirtualSupported();
+    }
+
+    /** 
+    * @brief 获取检测流水线各阶段统计信息，用于定位瓶颈阶段
+    * @return 依次为：md5计算、检测调度、结果查询（含首次查询与轮询）、申请上传地址、上传并发起检测、结果回调；未初始化时为空
+    */
+    public List<StageStats> getStageStats() {
+    	List<StageStats> stats = new ArrayList<>();
+    	HashEngine hash_engine = m_hash_engine;
+    	ResultPoller poller = m_poller;
+    	UploadUrlRequester uploader = m_uploader;
+    	Stage upload_stage = m_upload_stage;
+    	Stage deliver_stage = m_deliver_stage;
+    	ThreadPoolExecutor threadpool = null;
+    	m_lock.lock();
+    	try {
+    		threadpool = m_threadpool;
+    	} finally {
+    		m_lock.unlock();
+    	}
+    	if (!m_is_inited || null == hash_engine || null == poller || null == uploader || null == upload_stage
+    			|| null == deliver_stage || null == threadpool) {
+    		return stats;
+    	}
+    	stats.add(hash_engine.getStageStats());
+    	StageStats dispatch = new StageStats();
+    	dispatch.name = "dispatch";
+    	dispatch.thread_num = threadpool.getCorePoolSize();
+    	dispatch.active_count = threadpool.getActiveCount();
+    	dispatch.queue_size = threadpool.getQueue().size();
+    	dispatch.queue_capacity = m_queue_size_max;
+    	dispatch.completed_count = threadpool.getCompletedTaskCount();
+    	stats.add(dispatch);
+    	stats.add(poller.getStats("lookup"));
+    	stats.add(uploader.getStats("upload-url"));
+    	stats.add(upload_stage.getStats());
+    	stats.add(deliver_stage.getStats());
+    	return stats;
+    }
+
+    /** 
+    * @brief 获取运行指标快照：排队、md5计算、各接口调用、上传、轮询、限流、缓存及各阶段情况，可随时调用
+    * @return 指标快照，计数为检测器创建以来的累计值，时间单位为微秒
+    */
+    public MetricsSnapshot getMetrics() {
+    	DetectorMetrics metrics = m_metrics;
+    	MetricsSnapshot snapshot = new MetricsSnapshot();
+    	snapshot.timestamp = System.currentTimeMillis();
+    	snapshot.queue_size = getQueueSize();
+    	snapshot.queue_size_max = m_queue_size_max;
+    	snapshot.inflight_md5_count = m_inflight.size();
+    	snapshot.submit_count = metrics.m_submit_count.sum();
+    	snapshot.succ_count = metrics.m_succ_count.sum();
+    	snapshot.error_count = metrics.m_error_count.sum();
+    	snapshot.expire_early_count = metrics.m_expire_early_count.sum();
+    	snapshot.queue_wait = metrics.m_queue_wait.getStats();
+    	snapshot.hash_time = metrics.m_hash_time.getStats();
+    	snapshot.hash_size = metrics.m_hash_size.getStats();
+    	snapshot.upload_size = metrics.m_upload_size.getStats();
+    	snapshot.poll_count = metrics.m_poll_count.getStats();
+    	snapshot.detect_time = metrics.m_detect_time.getStats();
+    	for (String action : DetectorMetrics.ACTIONS) {
+    		ApiStats api = metrics.getApiStats(action, m_limiter);
+    		if (DetectorMetrics.UPLOAD_FILE.equals(action) && api.latency.sum > 0) {
+    			snapshot.upload_throughput = snapshot.upload_size.sum / 1048576.0 / (api.latency.sum / 1e6);
     		}
-    		long start_time = System.currentTimeMillis();
-			Thread.sleep(sleep_unit);
-			all_time += System.currentTimeMillis() - start_time;
-    	} while(true);
-    	return code;
+    		snapshot.apis.add(api);
+    	}
+    	snapshot.verdict_cache = getVerdictCacheStats();
+    	snapshot.hash_cache = getHashCacheStats();
+    	snapshot.stages = getStageStats();
+    	return snapshot;
+    }
+
+    /** 
+    * @brief 将运行指标注册为平台MBeanServer中的MBean，属性名同MetricsSnapshot.toMap，已注册时先注销旧的
+    * @param name MBean名称，用于区分多个检测器实例
+    * @return 注册的ObjectName，域为com.aliyun.filedetect
+    * @throws JMException 名称非法或已被占用
+    */
+    public ObjectName registerMBean(String name) throws JMException {
+    	ObjectName object_name = new ObjectName("com.aliyun.filedetect:type=OpenAPIDetector,name=" + ObjectName.quote(name));
+    	m_lock.lock();
+    	try {
+    		unregisterMBean();
+    		ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), object_name);
+    		m_mbean_name = object_name;
+    	} finally {
+    		m_lock.unlock();
+    	}
+    	return object_name;
+    }
+
+    /** 
+    * @brief 注销registerMBean注册的MBean，未注册时无操作
+    * @throws JMException
+    */
+    public void unregisterMBean() throws JMException {
+    	m_lock.lock();
+    	try {
+    		if (null != m_mbean_name) {
+    			ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_mbean_name);
+    			m_mbean_name = null;
+    		}
+    	} finally {
+    		m_lock.unlock();
+    	}
+    }
+
+    /** 
+    * @brief 获取md5计算统计信息，含吞吐量
+    * @return 统计信息，未初始化时各项均为0
+    */
+    public HashStats getHashStats() {
+    	HashEngine hash_engine = m_hash_engine;
+    	if (null == hash_engine) {
+    		return new HashStats();
+    	}
+    	return hash_engine.getStats();
     }
 
 	private static OpenAPIDetector m_instance = null;
-	private int m_counter = 0;
+	private final AtomicInteger m_counter = new AtomicInteger();
 	private ThreadPoolExecutor m_threadpool = null;
 	private RejectedExecutionHandler m_rej_handler = null;
 
 	volatile boolean m_is_inited = false;
-	com.aliyun.sas20181203.Client m_client = null;
+	DetectTransport m_transport = null;
+	private boolean m_own_transport = false; // m_transport是否由检测器创建
 	RuntimeOptions m_client_opt = null;
-	LinkedBlockingDeque<Runnable> m_queue = null;
+	RuntimeOptions m_upload_opt = null; // 上传文件使用上传超时
+	DispatchQueue m_queue = null;
+	ResultPoller m_poller = null;
+	UploadUrlRequester m_uploader = null;
+	volatile VerdictCache m_cache = null;
+	private long m_cache_white_ttl = Config.VERDICT_CACHE_WHITE_TTL;
+	private long m_cache_black_ttl = Config.VERDICT_CACHE_BLACK_TTL;
+	private long m_cache_error_ttl = Config.VERDICT_CACHE_ERROR_TTL;
+	private VerdictStore m_store = null;
+	volatile HashCache m_hash_cache = null;
+	volatile HashEngine m_hash_engine = null;
+	volatile Stage m_upload_stage = null; // 上传文件并发起检测
+	volatile Stage m_deliver_stage = null; // 回调检测结果
+	volatile ScheduledExecutorService m_timer = null; // 等待同md5任务结果的任务的超时
+	final DetectorOptions m_options;
+	private final ReentrantLock m_lock = new ReentrantLock(); // 不使用synchronized，避免虚拟线程阻塞时占用载体线程
+	final RateLimiter m_limiter;
+	final DetectorMetrics m_metrics = new DetectorMetrics();
+	private ObjectName m_mbean_name = null;
+	private int m_thread_pool_size;
+	private volatile int m_queue_size_max;
+	final ConcurrentHashMap<String, ScanTask> m_inflight = new ConcurrentHashMap<>(); // 正在检测的md5 -> 负责检测的任务
+	private String m_store_dir = null;
+	private long m_store_max_age = Config.VERDICT_STORE_MAX_AGE;
 	
-	private OpenAPIDetector() {
+	/**
+	 * 创建使用默认配置的检测器
+	 */
+	public OpenAPIDetector() {
+		this(DetectorOptions.builder().build());
+	}
 
+	/**
+	 * 创建检测器，各实例拥有独立的线程池、队列与缓存
+	 * 
+	 * @param options 检测器配置
+	 */
+	public OpenAPIDetector(DetectorOptions options) {
+		m_options = options;
+		m_limiter = new RateLimiter(options.getApiRateLimit());
+		m_thread_pool_size = options.getThreadPoolSize();
+		m_queue_size_max = options.getQueueSizeMax();
 	}
 	
 	private long get_filesize(String path) {
@@ -265,27 +834,18 @@ public class OpenAPIDetector implements ScanTask.TaskCallback {
 		return -1;
 	}
 
-	private int m_alive_task_num = 0;
+	private final AtomicInteger m_alive_task_num = new AtomicInteger(); // 已入队尚未结束的任务数，入队时计入
+	private volatile int m_generation = 0; // 初始化代次，每次初始化加1
+	private final ReentrantLock m_queue_lock = new ReentrantLock();
+	private final Condition m_queue_changed = m_queue_lock.newCondition();
+	private final AtomicInteger m_queue_waiters = new AtomicInteger();
 
 	@Override
 	public void onTaskEnd(ScanTask task) {
-		if (m_is_inited) {
-			synchronized (this) {
-				if (m_is_inited) {
-					m_alive_task_num --;
-				}
-			}
-		}
-	}
-
-	@Override
-	public void onTaskBegin(ScanTask task) {
-		if (m_is_inited) {
-			synchronized (this) {
-				if (m_is_inited) {
-					m_alive_task_num ++;
-				}
-			}
+		if (task.getGeneration() != m_generation) {
+			return; // 上次初始化提交的任务，其计数已在重新初始化时清零
 		}
+		m_alive_task_num.decrementAndGet();
+		signalQueueChanged();
 	}
 }
@@ -0,0 +1,241 @@
+package com.aliyun.filedetect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.activation.MimetypesFileTypeMap;
+
+import com.aliyun.sas20181203.models.CreateFileDetectRequest;
+import com.aliyun.sas20181203.models.CreateFileDetectResponse;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlRequest;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponse;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlList;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlListContext;
+import com.aliyun.sas20181203.models.GetFileDetectResultRequest;
+import com.aliyun.sas20181203.models.GetFileDetectResultResponse;
+import com.aliyun.teautil.models.RuntimeOptions;
+
+/**
+ * 通过OpenAPI访问云端检测服务，文件以multipart表单上传到OSS
+ *
+ * 带截止时间的上传由本实例的守护线程在到期时中止，不再使用时调用close结束该线程；
+ * 检测器自行创建的实例在uninit时关闭
+ */
+public class OpenApiTransport implements DetectTransport {
+	private final com.aliyun.sas20181203.Client m_client;
+	// 到达截止时间时断开上传连接，阻塞在读写上的上传线程随即出错返回；首次需要时创建
+	private ScheduledThreadPoolExecutor m_watchdog = null;
+	private final ReentrantLock m_watchdog_lock = new ReentrantLock();
+
+	/**
+	 * @param client OpenAPI客户端，子类自行实现各OpenAPI调用时可为null
+	 */
+	public OpenApiTransport(com.aliyun.sas20181203.Client client) {
+		m_client = client;
+	}
+
+	@Override
+	public GetFileDetectResultResponse getFileDetectResult(GetFileDetectResultRequest request, RuntimeOptions runtime) throws Exception {
+		return m_client.getFileDetectResultWithOptions(request, runtime);
+	}
+
+	@Override
+	public CreateFileDetectUploadUrlResponse createFileDetectUploadUrl(CreateFileDetectUploadUrlRequest request, RuntimeOptions runtime) throws Exception {
+		return m_client.createFileDetectUploadUrlWithOptions(request, runtime);
+	}
+
+	@Override
+	public CreateFileDetectResponse createFileDetect(CreateFileDetectRequest request, RuntimeOptions runtime) throws Exception {
+		return m_client.createFileDetectWithOptions(request, runtime);
+	}
+
+	private static final MimetypesFileTypeMap MIME_TYPES = new MimetypesFileTypeMap();
+	// 上传缓冲区池，不使用ThreadLocal，避免每个虚拟线程各持有一块缓冲区
+	private static final ArrayBlockingQueue<byte[]> UPLOAD_BUFFERS = new ArrayBlockingQueue<>(Config.UPLOAD_BUFFER_POOL_SIZE);
+
+	private ScheduledThreadPoolExecutor getWatchdog() {
+		m_watchdog_lock.lock();
+		try {
+			if (null == m_watchdog) {
+				m_watchdog = new ScheduledThreadPoolExecutor(1, Threads.factory("filedetect-upload-watchdog-", false));
+				m_watchdog.setRemoveOnCancelPolicy(true);
+			}
+			return m_watchdog;
+		} finally {
+			m_watchdog_lock.unlock();
+		}
+	}
+
+	/**
+	 * 结束中止超时上传的守护线程，之后仍可继续使用，需要时重新创建
+	 */
+	public void close() {
+		m_watchdog_lock.lock();
+		try {
+			if (null != m_watchdog) {
+				m_watchdog.shutdownNow();
+				m_watchdog = null;
+			}
+		} finally {
+			m_watchdog_lock.unlock();
+		}
+	}
+
+	private static final String UPLOAD_BOUNDARY = "9431149156168";
+	static final byte[] MULTIPART_END = ("\r\n--" + UPLOAD_BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8); // 只读
+
+	/**
+	 * @return multipart请求体中文件内容之前的部分：表单字段及文件头
+	 */
+	static byte[] multipartHead(Map<String, String> formFields, File file) {
+        StringBuilder strBuf = new StringBuilder();
+        for (Map.Entry<String, String> entry : formFields.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            strBuf.append("--").append(UPLOAD_BOUNDARY).append("\r\n");
+            strBuf.append("Content-Disposition: form-data; name=\"")
+                    .append(entry.getKey()).append("\"\r\n\r\n");
+            strBuf.append(entry.getValue()).append("\r\n");
+        }
+        String contentType = MIME_TYPES.getContentType(file);
+        if (contentType == null || contentType.equals("")) {
+            contentType = "application/octet-stream";
+        }
+        strBuf.append("--").append(UPLOAD_BOUNDARY).append("\r\n");
+        strBuf.append("Content-Disposition: form-data; name=\"file\"; filename=\"")
+                .append(file.getName()).append("\"\r\n");
+        strBuf.append("Content-Type: ").append(contentType).append("\r\n\r\n");
+        return strBuf.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 经由buffer写出文件开头的length字节，文件被截断则抛出异常
+	 */
+	static void writeFileContent(OutputStream out, FileChannel channel, long length, byte[] buffer) throws IOException {
+        ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+        long remain = length;
+        while (remain > 0) {
+            wrapper.clear();
+            if (remain < buffer.length) {
+                wrapper.limit((int) remain);
+            }
+            int bytes = channel.read(wrapper);
+            if (bytes < 0) {
+                throw new IOException("file truncated during upload");
+            }
+            out.write(buffer, 0, bytes);
+            remain -= bytes;
+        }
+	}
+
+	@Override
+	public void uploadFile(String path, CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url, RuntimeOptions runtime) throws IOException {
+		uploadFile(path, upload_url, runtime, Long.MAX_VALUE);
+	}
+
+	/**
+	 * 以multipart表单上传文件
+	 * 
+	 * 预先计算请求体长度并使用定长流模式，文件内容边读边发，不在内存中缓存整个请求体；
+	 * 到达截止时间时断开连接，不等待读写超时
+	 */
+	@Override
+	public void uploadFile(String path, CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url, RuntimeOptions runtime, long deadline)
+			throws IOException {
+        String localFilePath = path;
+        String urlStr = upload_url.publicUrl;
+        CreateFileDetectUploadUrlResponseBodyUploadUrlListContext context = upload_url.context;
+        Map<String, String> formFields = new LinkedHashMap<>();
+        formFields.put("key", context.ossKey);
+        formFields.put("OSSAccessKeyId", context.accessId);
+        formFields.put("policy", context.policy);
+        formFields.put("Signature", context.signature);
+        
+        HttpURLConnection conn = null;
+        ScheduledFuture<?> watchdog = null;
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+        String userAgent = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) " +
+                "Chrome/90.0.4430.212 Safari/537.36";
+        String boundary = UPLOAD_BOUNDARY;
+        File file = new File(localFilePath);
+        byte[] buffer = UPLOAD_BUFFERS.poll();
+        if (null == buffer) {
+            buffer = new byte[Config.UPLOAD_BUFFER_SIZE];
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            byte[] headData = multipartHead(formFields, file);
+            long fileSize = channel.size();
+
+            URL url = new URL(urlStr);
+            conn = (HttpURLConnection) url.openConnection();
+            if (null != runtime.connectTimeout) {
+                conn.setConnectTimeout(runtime.connectTimeout);
+            }
+            if (null != runtime.readTimeout) {
+                conn.setReadTimeout(runtime.readTimeout);
+            }
+            conn.setDoOutput(true);
+            conn.setDoInput(true);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("User-Agent", userAgent);
+            conn.setRequestProperty("Content-Type",
+                    "multipart/form-data; boundary=" + boundary);
+            conn.setFixedLengthStreamingMode(headData.length + fileSize + MULTIPART_END.length);
+            if (Long.MAX_VALUE != deadline) {
+                final HttpURLConnection abort_conn = conn;
+                try {
+                    watchdog = getWatchdog().schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            aborted.set(true);
+                            abort_conn.disconnect();
+                        }
+                    }, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // 并发调用了close，只以runtime中的超时限制本次上传
+                }
+            }
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(headData);
+                // 只发送开始时的文件长度，文件被截断则放弃上传
+                writeFileContent(out, channel, fileSize, buffer);
+                out.write(MULTIPART_END);
+            }
+            // 读取返回数据。
+            try (InputStream in = conn.getInputStream()) {
+                while (in.read(buffer) != -1) {
+                }
+            }
+        } catch (IOException e) {
+            if (aborted.get()) {
+                throw new IOException("upload aborted at deadline", e);
+            }
+            throw e;
+        } finally {
+            if (null != watchdog) {
+                watchdog.cancel(false);
+            }
+            UPLOAD_BUFFERS.offer(buffer);
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+	}
+}
@@ -0,0 +1,11 @@
+package com.aliyun.filedetect;
+
+/**
+ * 检测请求的优先级，检测线程优先处理高优先级的请求；
+ * 高优先级请求持续到达时，低优先级请求仍会按一定比例得到处理，不会无限等待
+ */
+public enum PRIORITY {
+	PRI_HIGH, // 高优先级，用于需要尽快得到结果的交互式检测，如上传文件时的拦截检查
+	PRI_NORMAL, // 普通优先级，未指定优先级的检测请求
+	PRI_LOW; // 低优先级，用于批量扫描等后台检测
+}
@@ -0,0 +1,248 @@
+package com.aliyun.filedetect;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OpenAPI调用限速器
+ *
+ * 每个API独立一个令牌桶，调用前通过acquire获取许可；
+ * 被限流时速率减半并暂停发放许可，之后每次调用成功逐步恢复到设定速率。
+ * 速率为0表示不限速，此时只在被限流后按被限流前一秒内的调用次数减半限速，恢复后重新不限速
+ */
+class RateLimiter {
+	static final String GET_FILE_DETECT_RESULT = "GetFileDetectResult";
+	static final String CREATE_FILE_DETECT_UPLOAD_URL = "CreateFileDetectUploadUrl";
+	static final String CREATE_FILE_DETECT = "CreateFileDetect";
+
+	private final ConcurrentHashMap<String, Bucket> m_buckets = new ConcurrentHashMap<>();
+	private volatile double m_default_rate;
+
+	public RateLimiter(double default_rate) {
+		m_default_rate = default_rate;
+	}
+
+	/**
+	 * @return 是否为限流错误码
+	 */
+	static boolean isThrottling(String code) {
+		return "RequestTooFrequently".equals(code) || "Throttling.User".equals(code);
+	}
+
+	/**
+	 * 设置API的最大调用速率
+	 *
+	 * @param action 接口名，为null时设置所有接口
+	 * @param rate   每秒调用次数，0 表示不限速
+	 */
+	public void setRate(String action, double rate) {
+		if (rate < 0) {
+			throw new IllegalArgumentException("rate must not be negative");
+		}
+		if (null == action) {
+			m_default_rate = rate;
+			for (Bucket bucket : m_buckets.values()) {
+				bucket.setMaxRate(rate);
+			}
+			return;
+		}
+		getBucket(action).setMaxRate(rate);
+	}
+
+	/**
+	 * 获取一次调用许可，必要时等待
+	 *
+	 * @param action   接口名
+	 * @param deadline 最晚等待到的时间，deadline前无法获得许可时立即返回
+	 * @return false 未获得许可（deadline前无法获得或线程被中断）
+	 */
+	public boolean acquire(String action, long deadline) {
+		Bucket bucket = getBucket(action);
+		long now = System.currentTimeMillis();
+		long permit_time = bucket.reserve(now, deadline);
+		if (permit_time < 0) {
+			return false;
+		}
+		long wait_time = permit_time - now;
+		if (wait_time > 0) {
+			try {
+				Thread.sleep(wait_time);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				bucket.cancel(permit_time); // 归还未使用的许可
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void onSuccess(String action) {
+		getBucket(action).onSuccess();
+	}
+
+	public void onThrottled(String action) {
+		getBucket(action).onThrottled(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return 被限流的累计次数
+	 */
+	public long getThrottleCount(String action) {
+		return getBucket(action).m_throttle_count.get();
+	}
+
+	/**
+	 * @return 当前调用速率，单位为次每秒，0 表示不限速
+	 */
+	public double getRate(String action) {
+		return getBucket(action).getRate();
+	}
+
+	private Bucket getBucket(String action) {
+		Bucket bucket = m_buckets.get(action);
+		if (null == bucket) {
+			bucket = new Bucket(m_default_rate);
+			Bucket old = m_buckets.putIfAbsent(action, bucket);
+			if (null != old) {
+				bucket = old;
+			}
+		}
+		return bucket;
+	}
+
+	/**
+	 * 单个API的令牌桶，按时间预约许可，最多积攒一秒的许可
+	 */
+	private static class Bucket {
+		private double m_max_rate; // 设定的最大速率，0 表示不限速
+		private double m_rate; // 当前速率，0 表示不限速
+		private double m_recover_rate = 0; // 不限速时被限流后恢复的目标速率，恢复到该速率后重新不限速
+		private double m_next_free = 0; // 下一个许可的发放时间
+		private double m_last_permit = -1; // 最后预约的许可的发放时间，已归还或不限速时为-1
+		private long m_blocked_until = 0; // 被限流后暂停发放许可的截止时间
+		private long m_last_throttle = 0;
+		private long m_window_start = 0; // 统计调用次数的一秒窗口的起始时间
+		private int m_window_count = 0; // 当前窗口内发放的许可数
+		private int m_last_window_count = 0; // 上一窗口内发放的许可数
+		private final AtomicLong m_throttle_count = new AtomicLong();
+		private final ReentrantLock m_lock = new ReentrantLock();
+
+		Bucket(double rate) {
+			m_max_rate = rate;
+			m_rate = rate;
+		}
+
+		void setMaxRate(double rate) {
+			m_lock.lock();
+			try {
+				m_max_rate = rate;
+				m_rate = rate;
+			} finally {
+				m_lock.unlock();
+			}
+		}
+
+		double getRate() {
+			m_lock.lock();
+			try {
+				return m_rate;
+			} finally {
+				m_lock.unlock();
+			}
+		}
+
+		/**
+		 * @return 许可的发放时间，晚于deadline时返回-1且不占用许可
+		 */
+		long reserve(long now, long deadline) {
+			m_lock.lock();
+			try {
+				if (0 == m_rate) {
+					if (m_blocked_until > deadline) {
+						return -1;
+					}
+					countPermit(now);
+					m_last_permit = -1;
+					return Math.max(now, m_blocked_until);
+				}
+				double interval = 1000.0 / m_rate;
+				double burst = Math.max(1.0, m_rate) * interval;
+				double permit_time = Math.max(m_next_free, now - burst + interval);
+				permit_time = Math.max(permit_time, m_blocked_until);
+				if (permit_time > deadline) {
+					return -1;
+				}
+				countPermit(now);
+				m_next_free = permit_time + interval;
+				m_last_permit = permit_time;
+				return (long) Math.ceil(permit_time);
+			} finally {
+				m_lock.unlock();
+			}
+		}
+
+		/**
+		 * 归还reserve预约的许可，此后没有新的预约时才能归还
+		 */
+		void cancel(long permit_time) {
+			m_lock.lock();
+			try {
+				m_window_count = Math.max(0, m_window_count - 1);
+				if (m_last_permit >= 0 && (long) Math.ceil(m_last_permit) == permit_time) {
+					m_next_free = m_last_permit;
+					m_last_permit = -1;
+				}
+			} finally {
+				m_lock.unlock();
+			}
+		}
+
+		private void countPermit(long now) {
+			if (now - m_window_start >= 1000) {
+				m_last_window_count = now - m_window_start < 2000 ? m_window_count : 0;
+				m_window_start = now;
+				m_window_count = 0;
+			}
+			m_window_count++;
+		}
+
+		void onSuccess() {
+			m_lock.lock();
+			try {
+				if (0 == m_rate) {
+					return;
+				}
+				double target = 0 == m_max_rate ? m_recover_rate : m_max_rate;
+				m_rate = m_rate + target * Config.API_RATE_RECOVER_RATIO;
+				if (m_rate >= target) {
+					m_rate = m_max_rate;
+				}
+			} finally {
+				m_lock.unlock();
+			}
+		}
+
+		void onThrottled(long now) {
+			m_lock.lock();
+			try {
+				m_throttle_count.incrementAndGet();
+				m_blocked_until = Math.max(m_blocked_until, now + Config.REQUEST_TOO_FREQUENTLY_SLEEP_TIME);
+				// 同一批并发请求的限流应答只减速一次
+				if (now - m_last_throttle >= Config.REQUEST_TOO_FREQUENTLY_SLEEP_TIME) {
+					if (0 == m_rate) {
+						// 不限速时以被限流前的调用速率为起点
+						m_recover_rate = Math.max(2 * Config.API_RATE_MIN, Math.max(m_window_count, m_last_window_count));
+						m_rate = m_recover_rate / 2;
+						m_next_free = now;
+					} else {
+						m_rate = Math.max(Config.API_RATE_MIN, m_rate / 2);
+					}
+				}
+				m_last_throttle = now;
+			} finally {
+				m_lock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.aliyun.filedetect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.aliyun.sas20181203.models.GetFileDetectResultRequest;
+import com.aliyun.sas20181203.models.GetFileDetectResultResponse;
+import com.aliyun.sas20181203.models.GetFileDetectResultResponseBody.GetFileDetectResultResponseBodyResultList;
+import com.aliyun.tea.TeaException;
+import com.aliyun.teautil.models.RuntimeOptions;
+
+/**
+ * 检测结果轮询器
+ *
+ * 汇总所有等待检测结果的任务，按md5批量调用GetFileDetectResult，
+ * 再将结果分发回各自的ScanTask，由线程池继续处理。
+ * 检测中的样本按指数退避（带随机抖动）安排下次查询，退避基数依据近期的检测用时调整
+ */
+class ResultPoller extends TaskBatcher {
+	private final DetectTransport m_transport;
+	private final RuntimeOptions m_client_opt;
+	private final VerdictCache m_cache;
+	private final RateLimiter m_limiter;
+	private final DetectorMetrics m_metrics;
+	private final int m_interval;
+	private final int m_max_interval;
+	private volatile long m_detect_time; // 发起检测到得到结果的平均用时，单位为毫秒
+
+	public ResultPoller(DetectTransport transport, RuntimeOptions client_opt, DispatchQueue queue, VerdictCache cache, RateLimiter limiter, DetectorMetrics metrics, DetectorOptions options) {
+		super("filedetect-result-poller", queue, options.getQueryResultBatchSize(), 0, options.getQueryResultInterval());
+		m_transport = transport;
+		m_client_opt = client_opt;
+		m_cache = cache;
+		m_limiter = limiter;
+		m_metrics = metrics;
+		m_interval = options.getQueryResultInterval();
+		m_max_interval = options.getQueryResultMaxInterval();
+		m_detect_time = m_interval;
+	}
+
+	/**
+	 * @return 发起检测后首次查询的等待时间，单位为毫秒
+	 */
+	public long getFirstPollDelay() {
+		return jitter(clamp(m_detect_time / 2));
+	}
+
+	/**
+	 * @param poll_count 已查询到检测中的次数
+	 * @return 下次查询的等待时间，单位为毫秒
+	 */
+	public long getNextPollDelay(int poll_count) {
+		long base = Math.max(m_interval, m_detect_time / 4);
+		return jitter(clamp(base << Math.min(Math.max(poll_count - 1, 0), 10)));
+	}
+
+	private long clamp(long delay) {
+		return Math.max(m_interval, Math.min(delay, m_max_interval));
+	}
+
+	private static long jitter(long delay) {
+		double factor = 1 - Config.QUERY_RESULT_JITTER + 2 * Config.QUERY_RESULT_JITTER * ThreadLocalRandom.current().nextDouble();
+		return (long) (delay * factor);
+	}
+
+	@Override
+	protected int process(Map<String, List<ScanTask>> tasks) {
+		int sleep_time = 0;
+		List<String> md5_list = new ArrayList<>(tasks.keySet());
+		for (int i = 0; i < md5_list.size(); i += getBatchSize()) {
+			List<String> batch = md5_list.subList(i, Math.min(i + getBatchSize(), md5_list.size()));
+			Map<String, ScanTask.ResultInfo> results = getResultByAPI(batch, Deadlines.latest(tasks, batch));
+			long now = System.currentTimeMillis();
+			for (String md5 : batch) {
+				ScanTask.ResultInfo resultinfo = results.get(md5);
+				if (null == resultinfo || ScanTask.IS_DETECTING == resultinfo.result) {
+					// 检测中，按退避时间安排下次查询
+					for (ScanTask task : tasks.get(md5)) {
+						task.recordPoll(now);
+						task.setDueTime(now + getNextPollDelay(task.incPollCount(now)));
+					}
+					continue;
+				}
+				if (ScanTask.REQUEST_TOO_FREQUENTLY == resultinfo.result) {
+					for (ScanTask task : tasks.get(md5)) {
+						task.recordThrottle();
+					}
+					sleep_time = Math.max(sleep_time, Config.REQUEST_TOO_FREQUENTLY_SLEEP_TIME);
+					continue; // 请求太过频繁，下一轮继续查询
+				}
+				m_cache.put(md5, resultinfo);
+				for (ScanTask task : tasks.remove(md5)) {
+					m_metrics.m_poll_count.record(task.getPollCount() + 1);
+					task.recordPoll(now);
+					if (task.getSubmitTime() > 0 && ScanTask.GET_RESULT_FAIL != resultinfo.result) {
+						// 实际检测完成于最后一次查询到检测中与本次查询之间，取中点估算，避免查询间隔计入检测用时
+						long lower = task.getLastPollTime() > 0 ? task.getLastPollTime() - task.getSubmitTime() : 0;
+						long upper = now - task.getSubmitTime();
+						m_detect_time = (m_detect_time * 4 + (lower + upper) / 2) / 5;
+					}
+					task.setResultInfo(resultinfo);
+					dispatch(task);
+				}
+			}
+		}
+		return sleep_time;
+	}
+
+	/**
+	 * 批量查询检测结果
+	 *
+	 * @param md5_list 待查询的md5列表
+	 * @param deadline 等待限速与调用的截止时间，单位为毫秒
+	 * @return md5 -> 查询结果，结果为IS_DETECTING的md5可能不在其中
+	 */
+	private Map<String, ScanTask.ResultInfo> getResultByAPI(List<String> md5_list, long deadline) {
+		String api_name = RateLimiter.GET_FILE_DETECT_RESULT;
+		Map<String, ScanTask.ResultInfo> results = new HashMap<>();
+		if (!m_limiter.acquire(api_name, deadline)) {
+			putAll(results, md5_list, new ScanTask.ResultInfo(ScanTask.REQUEST_TOO_FREQUENTLY));
+			return results;
+		}
+		long start_time = System.nanoTime();
+		boolean ok = false;
+		try {
+			GetFileDetectResultRequest request = new GetFileDetectResultRequest();
+			request.setHashKeyList(new ArrayList<>(md5_list));
+			request.setType(0);
+			GetFileDetectResultResponse response = m_transport.getFileDetectResult(request, Deadlines.bound(m_client_opt, deadline));
+			m_limiter.onSuccess(api_name);
+			ok = true;
+			List<GetFileDetectResultResponseBodyResultList> result_list = response.body.resultList;
+			for (int i = 0; null != result_list && i < result_list.size(); i++) {
+				GetFileDetectResultResponseBodyResultList org_result = result_list.get(i);
+				String md5 = org_result.hashKey;
+				if (null == md5 && md5_list.size() == 1) {
+					md5 = md5_list.get(0);
+				}
+				if (null == md5) {
+					continue;
+				}
+				int result = 0;
+				if (null != org_result.result) {
+					result = org_result.result;
+				}
+				int score = 0;
+				if (null != org_result.score) {
+					score = org_result.score;
+				}
+				results.put(md5.toLowerCase(), new ScanTask.ResultInfo(result, score, org_result.virusType, org_result.ext));
+			}
+			// 应答中缺失的md5视为未找到检测记录
+			for (String md5 : md5_list) {
+				if (!results.containsKey(md5)) {
+					results.put(md5, new ScanTask.ResultInfo(ScanTask.GET_RESULT_FAIL));
+				}
+			}
+		} catch (TeaException error) {
+			if ("GetResultFail".equals(error.code)) {
+				m_limiter.onSuccess(api_name);
+				m_metrics.recordApi(api_name, start_time, true);
+				if (md5_list.size() > 1) {
+					// 批量查询失败时无法区分具体样本，逐个重新查询
+					for (String md5 : md5_list) {
+						results.putAll(getResultByAPI(java.util.Arrays.asList(md5), deadline));
+					}
+					return results;
+				}
+				putAll(results, md5_list, new ScanTask.ResultInfo(ScanTask.GET_RESULT_FAIL));
+				return results;
+			} else if (RateLimiter.isThrottling(error.code)) {
+				m_limiter.onThrottled(api_name);
+				putAll(results, md5_list, new ScanTask.ResultInfo(ScanTask.REQUEST_TOO_FREQUENTLY));
+			} else {
+				putAll(results, md5_list, ScanTask.ResultInfo.error(ScanTask.getErrorMessage(api_name, error.code, error.message)));
+			}
+		} catch (Exception error) {
+			putAll(results, md5_list, ScanTask.ResultInfo.error(ScanTask.getErrorMessage(api_name, "ERR_NETWORK", error.getMessage())));
+		}
+		m_metrics.recordApi(api_name, start_time, ok);
+		return results;
+	}
+
+	private static void putAll(Map<String, ScanTask.ResultInfo> results, List<String> md5_list, ScanTask.ResultInfo resultinfo) {
+		for (String md5 : md5_list) {
+			results.put(md5, resultinfo);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package com.aliyun.filedetect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 扫描清单，记录每个文件上次扫描时的大小、修改时间、md5与检测结果
+ *
+ * 通过DirScanner.setManifest使用：再次扫描时大小与修改时间均未改变、且检测结果未过期的文件不再提交检测，
+ * 直接以清单中的结果回调，扫描报告仍覆盖整个目录树。扫描完整结束后，清单中该目录下已不存在的文件被移除。
+ *
+ * 文件格式：int magic | int 版本 | int 条目数 | 条目... | int crc32
+ * 条目按路径排序，路径只保存与上一条目不同的后缀，时间保存与上一条目的差值：
+ * varint 公共前缀长度 | 路径后缀 | varlong 大小 | varlong 修改时间差 | md5(16字节) | byte 结果 | byte 分值 | 病毒类型 | 扩展信息 | varlong 检测时间差
+ * 字符串以varint(长度+1)开头，0表示null；时间差以zigzag编码
+ */
+public class ScanManifest {
+	private static final int MAGIC = 0x4644534d; // FDSM
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static class Entry {
+		public final long size; // 文件大小，单位为字节
+		public final long mtime; // 修改时间，单位为毫秒
+		public final String md5; // 样本md5
+		public final DetectResult.RESULT result; // 检测结果，RES_WHITE或RES_BLACK
+		public final int score; // 分值，取值范围0-100
+		public final String virus_type; // 病毒类型
+		public final String ext_info; // 扩展信息为json字符串
+		public final long verdict_time; // 得到检测结果的时间，单位为毫秒
+		volatile int m_generation = 0; // 最近一次扫描到此文件的扫描序号，不持久化
+
+		Entry(long size, long mtime, String md5, DetectResult.RESULT result, int score, String virus_type, String ext_info,
+				long verdict_time) {
+			this.size = size;
+			this.mtime = mtime;
+			this.md5 = md5;
+			this.result = result;
+			this.score = score;
+			this.virus_type = virus_type;
+			this.ext_info = ext_info;
+			this.verdict_time = verdict_time;
+		}
+
+		/**
+		 * @return 以清单中的结果构造的检测结果，用时为0
+		 */
+		DetectResult toResult() {
+			DetectResult res = new DetectResult();
+			res.md5 = md5;
+			res.error_code = ERR_CODE.ERR_SUCC;
+			res.result = result;
+			res.score = score;
+			res.virus_type = virus_type;
+			res.ext_info = ext_info;
+			return res;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> m_entries = new ConcurrentHashMap<>();
+	private final AtomicInteger m_generation = new AtomicInteger(0);
+
+	/**
+	 * 创建空清单，首次扫描时所有文件都会提交检测
+	 */
+	public ScanManifest() {
+	}
+
+	/**
+	 * 从文件加载清单
+	 *
+	 * @param file 清单文件，不存在时返回空清单
+	 * @throws IOException 读取失败或文件内容损坏
+	 */
+	public static ScanManifest load(File file) throws IOException {
+		ScanManifest manifest = new ScanManifest();
+		if (!file.isFile()) {
+			return manifest;
+		}
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), crc))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("bad manifest header: " + file);
+			}
+			int count = in.readInt();
+			String path = "";
+			long mtime = 0;
+			long verdict_time = 0;
+			for (int i = 0; i < count; i++) {
+				int prefix = readVarint(in);
+				if (prefix > path.length()) {
+					throw new IOException("bad manifest entry: " + file);
+				}
+				path = path.substring(0, prefix) + readString(in);
+				long size = readVarlong(in);
+				mtime += unzigzag(readVarlong(in));
+				byte[] md5 = new byte[16];
+				in.readFully(md5);
+				DetectResult.RESULT result = in.readByte() == 1 ? DetectResult.RESULT.RES_BLACK : DetectResult.RESULT.RES_WHITE;
+				int score = in.readByte() & 0xff;
+				String virus_type = readString(in);
+				String ext_info = readString(in);
+				verdict_time += unzigzag(readVarlong(in));
+				manifest.m_entries.put(path, new Entry(size, mtime, toHex(md5), result, score, virus_type, ext_info, verdict_time));
+			}
+			int expected = (int) crc.getValue();
+			if (in.readInt() != expected) {
+				throw new IOException("manifest checksum mismatch: " + file);
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * 保存清单，先写入临时文件再替换，写入失败时原文件不变
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save(File file) throws IOException {
+		TreeMap<String, Entry> sorted = new TreeMap<>(m_entries);
+		File tmp = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), crc))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(sorted.size());
+			String last_path = "";
+			long last_mtime = 0;
+			long last_verdict_time = 0;
+			for (Map.Entry<String, Entry> item : sorted.entrySet()) {
+				String path = item.getKey();
+				Entry entry = item.getValue();
+				int prefix = commonPrefix(last_path, path);
+				writeVarint(out, prefix);
+				writeString(out, path.substring(prefix));
+				writeVarlong(out, entry.size);
+				writeVarlong(out, zigzag(entry.mtime - last_mtime));
+				out.write(fromHex(entry.md5));
+				out.writeByte(DetectResult.RESULT.RES_BLACK == entry.result ? 1 : 0);
+				out.writeByte(entry.score);
+				writeString(out, entry.virus_type);
+				writeString(out, entry.ext_info);
+				writeVarlong(out, zigzag(entry.verdict_time - last_verdict_time));
+				last_path = path;
+				last_mtime = entry.mtime;
+				last_verdict_time = entry.verdict_time;
+			}
+			out.writeInt((int) crc.getValue());
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return 文件的清单条目，不存在返回null
+	 */
+	public Entry get(String path) {
+		return m_entries.get(path);
+	}
+
+	/**
+	 * @return 条目数
+	 */
+	public int size() {
+		return m_entries.size();
+	}
+
+	/**
+	 * 开始一次扫描
+	 *
+	 * @return 扫描序号，用于标记本次扫描到的文件
+	 */
+	int beginScan() {
+		return m_generation.incrementAndGet();
+	}
+
+	/**
+	 * 查找可沿用的检测结果，找到时将条目标记为本次扫描到
+	 *
+	 * @param max_age 检测结果有效期，单位为毫秒，<= 0 不过期
+	 * @return 文件大小与修改时间未改变且结果未过期时返回条目，否则返回null
+	 */
+	Entry lookup(String path, long size, long mtime, long max_age, int generation) {
+		Entry entry = m_entries.get(path);
+		if (null == entry || entry.size != size || entry.mtime != mtime) {
+			return null;
+		}
+		if (max_age > 0 && System.currentTimeMillis() - entry.verdict_time > max_age) {
+			return null;
+		}
+		entry.m_generation = generation;
+		return entry;
+	}
+
+	/**
+	 * 将文件的条目标记为本次扫描到，用于因修改时间过滤未检测、但仍存在的文件
+	 */
+	void touch(String path, int generation) {
+		Entry entry = m_entries.get(path);
+		if (null != entry) {
+			entry.m_generation = generation;
+		}
+	}
+
+	/**
+	 * 移除文件的条目，用于已删除的文件
+	 */
+	void remove(String path) {
+		m_entries.remove(path);
+	}
+
+	/**
+	 * 记录文件的检测结果，检测出错时移除条目，下次扫描重新检测
+	 *
+	 * @param stat_time 读取文件大小与修改时间的时间，修改时间距此过近时不记录，避免同一时间粒度内的再次修改无法被发现
+	 */
+	void record(String path, long size, long mtime, long stat_time, DetectResult res, int generation) {
+		if (!res.isSucc() || null == res.md5 || stat_time - mtime <= HashCache.RACY_WINDOW) {
+			m_entries.remove(path);
+			return;
+		}
+		Entry entry = new Entry(size, mtime, res.md5, res.result, res.score, res.virus_type, res.ext_info, System.currentTimeMillis());
+		entry.m_generation = generation;
+		m_entries.put(path, entry);
+	}
+
+	/**
+	 * 移除root下本次扫描未扫描到的条目，即已删除或不再符合扫描规则的文件
+	 */
+	void prune(String root, int generation) {
+		String prefix = root.endsWith(File.separator) ? root : root + File.separator;
+		Iterator<Map.Entry<String, Entry>> it = m_entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Entry> item = it.next();
+			String path = item.getKey();
+			if (item.getValue().m_generation != generation && (path.equals(root) || path.startsWith(prefix))) {
+				it.remove();
+			}
+		}
+	}
+
+	private static int commonPrefix(String a, String b) {
+		int len = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < len && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		// 不拆分代理对，保证后缀可以独立编码
+		if (i > 0 && i < b.length() && Character.isHighSurrogate(b.charAt(i - 1))) {
+			i--;
+		}
+		return i;
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[16];
+		for (int i = 0; i < bytes.length && 2 * i + 1 < hex.length(); i++) {
+			bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1), 16));
+		}
+		return bytes;
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (null == s) {
+			writeVarint(out, 0);
+			return;
+		}
+		byte[] bytes = s.getBytes(UTF8);
+		writeVarint(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int len = readVarint(in);
+		if (len == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[len - 1];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		writeVarlong(out, value & 0xffffffffL);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		long value = readVarlong(in);
+		if (value < 0 || value > Integer.MAX_VALUE) {
+			throw new IOException("bad varint");
+		}
+		return (int) value;
+	}
+
+	private static void writeVarlong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarlong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("bad varint");
+	}
+}
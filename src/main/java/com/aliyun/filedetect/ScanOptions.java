@@ -0,0 +1,309 @@
+package com.aliyun.filedetect;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 目录扫描配置，通过builder()构建，未设置的项使用默认值
+ *
+ * 示例：ScanOptions.builder().addInclude("*.php").addExclude("node_modules").setMaxSize(64L * 1024 * 1024).build()
+ */
+public class ScanOptions {
+	/**
+	 * 符号链接的处理方式
+	 */
+	public static enum SymlinkPolicy {
+		SKIP, // 跳过所有符号链接
+		FOLLOW_FILES, // 检测指向文件的符号链接，不进入指向目录的符号链接
+		FOLLOW, // 跟随所有符号链接，已遍历过的目录不再重复进入
+	}
+
+	private final List<String> m_includes;
+	private final List<String> m_excludes;
+	private final List<Rule> m_include_rules;
+	private final List<Rule> m_exclude_rules;
+	private final long m_min_size;
+	private final long m_max_size;
+	private final SymlinkPolicy m_symlink_policy;
+	private final int m_max_depth;
+	private final long m_modified_after;
+	private final int m_walk_thread_num;
+	private final int m_detect_timeout;
+	private final int m_progress_interval;
+	private final PRIORITY m_priority;
+
+	private ScanOptions(Builder builder) {
+		m_includes = Collections.unmodifiableList(new ArrayList<>(builder.m_includes));
+		m_excludes = Collections.unmodifiableList(new ArrayList<>(builder.m_excludes));
+		m_include_rules = compile(m_includes);
+		m_exclude_rules = compile(m_excludes);
+		m_min_size = builder.m_min_size;
+		m_max_size = builder.m_max_size;
+		m_symlink_policy = builder.m_symlink_policy;
+		m_max_depth = builder.m_max_depth;
+		m_modified_after = builder.m_modified_after;
+		m_walk_thread_num = builder.m_walk_thread_num;
+		m_detect_timeout = builder.m_detect_timeout;
+		m_progress_interval = builder.m_progress_interval;
+		m_priority = builder.m_priority;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return 以当前配置为初始值的builder
+	 */
+	public Builder toBuilder() {
+		Builder builder = new Builder();
+		builder.m_includes.addAll(m_includes);
+		builder.m_excludes.addAll(m_excludes);
+		builder.m_min_size = m_min_size;
+		builder.m_max_size = m_max_size;
+		builder.m_symlink_policy = m_symlink_policy;
+		builder.m_max_depth = m_max_depth;
+		builder.m_modified_after = m_modified_after;
+		builder.m_walk_thread_num = m_walk_thread_num;
+		builder.m_detect_timeout = m_detect_timeout;
+		builder.m_progress_interval = m_progress_interval;
+		builder.m_priority = m_priority;
+		return builder;
+	}
+
+	public List<String> getIncludes() {
+		return m_includes;
+	}
+
+	public List<String> getExcludes() {
+		return m_excludes;
+	}
+
+	public long getMinSize() {
+		return m_min_size;
+	}
+
+	public long getMaxSize() {
+		return m_max_size;
+	}
+
+	public SymlinkPolicy getSymlinkPolicy() {
+		return m_symlink_policy;
+	}
+
+	public int getMaxDepth() {
+		return m_max_depth;
+	}
+
+	public long getModifiedAfter() {
+		return m_modified_after;
+	}
+
+	public int getWalkThreadNum() {
+		return m_walk_thread_num;
+	}
+
+	public int getDetectTimeout() {
+		return m_detect_timeout;
+	}
+
+	public int getProgressInterval() {
+		return m_progress_interval;
+	}
+
+	public PRIORITY getPriority() {
+		return m_priority;
+	}
+
+	/**
+	 * @param relative 相对扫描根目录的路径
+	 * @return 文件是否符合包含规则，未设置包含规则时全部符合
+	 */
+	boolean isIncluded(Path relative) {
+		return m_include_rules.isEmpty() || matches(m_include_rules, relative);
+	}
+
+	/**
+	 * @param relative 相对扫描根目录的路径，目录被排除时不再进入
+	 */
+	boolean isExcluded(Path relative) {
+		return matches(m_exclude_rules, relative);
+	}
+
+	/**
+	 * @return 文件大小是否在限制范围内
+	 */
+	boolean isSizeAllowed(long size) {
+		return size >= m_min_size && (m_max_size < 0 || size <= m_max_size);
+	}
+
+	/**
+	 * @param mtime 文件修改时间，单位为毫秒
+	 */
+	boolean isModifiedAllowed(long mtime) {
+		return mtime > m_modified_after;
+	}
+
+	// 编译后的glob规则，不含路径分隔符的规则只匹配文件名，如*.php匹配任意层级下的php文件
+	private static class Rule {
+		final PathMatcher m_matcher;
+		final boolean m_name_only;
+		Rule(String pattern) {
+			m_matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+			m_name_only = pattern.indexOf('/') < 0;
+		}
+	}
+
+	private static List<Rule> compile(List<String> patterns) {
+		List<Rule> rules = new ArrayList<>();
+		for (String pattern : patterns) {
+			rules.add(new Rule(pattern));
+		}
+		return rules;
+	}
+
+	private static boolean matches(List<Rule> rules, Path relative) {
+		Path name = relative.getFileName();
+		for (Rule rule : rules) {
+			if (rule.m_matcher.matches(rule.m_name_only && null != name ? name : relative)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static class Builder {
+		private final List<String> m_includes = new ArrayList<>();
+		private final List<String> m_excludes = new ArrayList<>();
+		private long m_min_size = 0;
+		private long m_max_size = -1;
+		private SymlinkPolicy m_symlink_policy = SymlinkPolicy.SKIP;
+		private int m_max_depth = Integer.MAX_VALUE;
+		private long m_modified_after = Long.MIN_VALUE;
+		private int m_walk_thread_num = Config.SCAN_WALK_THREAD_NUM;
+		private int m_detect_timeout = Config.SCAN_DETECT_TIMEOUT;
+		private int m_progress_interval = Config.SCAN_PROGRESS_INTERVAL;
+		private PRIORITY m_priority = PRIORITY.PRI_NORMAL;
+
+		private Builder() {
+		}
+
+		/**
+		 * 添加包含规则，设置后只检测符合任一规则的文件
+		 *
+		 * @param glob glob规则，含"/"时匹配相对扫描根目录的路径，否则只匹配文件名
+		 */
+		public Builder addInclude(String glob) {
+			m_includes.add(glob);
+			return this;
+		}
+
+		/**
+		 * 添加排除规则，符合任一规则的文件跳过，目录不再进入
+		 *
+		 * @param glob glob规则，含"/"时匹配相对扫描根目录的路径，否则只匹配文件名
+		 */
+		public Builder addExclude(String glob) {
+			m_excludes.add(glob);
+			return this;
+		}
+
+		/**
+		 * @param min_size 文件大小下限，单位为字节，小于此值的文件跳过
+		 */
+		public Builder setMinSize(long min_size) {
+			m_min_size = min_size;
+			return this;
+		}
+
+		/**
+		 * @param max_size 文件大小上限，单位为字节，大于此值的文件跳过，< 0 不限
+		 */
+		public Builder setMaxSize(long max_size) {
+			m_max_size = max_size;
+			return this;
+		}
+
+		/**
+		 * @param symlink_policy 符号链接的处理方式，默认跳过
+		 */
+		public Builder setSymlinkPolicy(SymlinkPolicy symlink_policy) {
+			m_symlink_policy = symlink_policy;
+			return this;
+		}
+
+		/**
+		 * @param max_depth 遍历的最大层数，扫描根目录下的条目为第1层，0 只处理根路径本身
+		 */
+		public Builder setMaxDepth(int max_depth) {
+			m_max_depth = max_depth;
+			return this;
+		}
+
+		/**
+		 * @param modified_after 只检测修改时间晚于此时间的文件，单位为毫秒，Long.MIN_VALUE 不限
+		 */
+		public Builder setModifiedAfter(long modified_after) {
+			m_modified_after = modified_after;
+			return this;
+		}
+
+		/**
+		 * @param walk_thread_num 并行遍历目录的线程数
+		 */
+		public Builder setWalkThreadNum(int walk_thread_num) {
+			m_walk_thread_num = walk_thread_num;
+			return this;
+		}
+
+		/**
+		 * @param detect_timeout 单个文件检测超时时间，单位为毫秒，< 0 无限等待
+		 */
+		public Builder setDetectTimeout(int detect_timeout) {
+			m_detect_timeout = detect_timeout;
+			return this;
+		}
+
+		/**
+		 * @param progress_interval 进度回调间隔，单位为毫秒
+		 */
+		public Builder setProgressInterval(int progress_interval) {
+			m_progress_interval = progress_interval;
+			return this;
+		}
+
+		/**
+		 * @param priority 提交检测的优先级，后台批量扫描可设为PRI_LOW，避免影响同一检测器上的交互式检测
+		 */
+		public Builder setPriority(PRIORITY priority) {
+			m_priority = priority;
+			return this;
+		}
+
+		/**
+		 * @throws IllegalArgumentException 配置项取值非法，或glob规则语法错误
+		 */
+		public ScanOptions build() {
+			if (m_min_size < 0 || (m_max_size >= 0 && m_max_size < m_min_size)) {
+				throw new IllegalArgumentException("invalid size limit");
+			}
+			if (null == m_symlink_policy) {
+				throw new IllegalArgumentException("symlink policy is null");
+			}
+			if (null == m_priority) {
+				throw new IllegalArgumentException("priority is null");
+			}
+			if (m_max_depth < 0) {
+				throw new IllegalArgumentException("max depth must not be negative");
+			}
+			if (m_walk_thread_num <= 0 || m_progress_interval <= 0) {
+				throw new IllegalArgumentException("walk thread num and progress interval must be positive");
+			}
+			return new ScanOptions(this);
+		}
+	}
+}
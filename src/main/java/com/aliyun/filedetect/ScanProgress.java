@@ -0,0 +1,16 @@
+package com.aliyun.filedetect;
+
+public class ScanProgress {
+	public long dir_count = 0; // 已遍历的目录数
+	public long file_count = 0; // 已提交检测的文件数
+	public long skip_count = 0; // 因过滤规则、大小限制、符号链接策略等跳过的条目数
+	public long walk_error_count = 0; // 遍历目录或读取文件属性出错的条目数
+	public long done_count = 0; // 已得到结果的文件数，含沿用扫描清单结果的文件
+	public long unchanged_count = 0; // 未改变、沿用扫描清单中结果而未提交检测的文件数
+	public long white_count = 0; // 白样本数
+	public long black_count = 0; // 黑样本数
+	public long fail_count = 0; // 检测出错的文件数
+	public boolean walk_finished = false; // 目录遍历是否已结束
+	public boolean canceled = false; // 扫描是否被取消
+	public long elapsed = 0; // 已用时，单位为毫秒
+}
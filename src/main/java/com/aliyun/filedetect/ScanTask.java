@@ -1,61 +1,69 @@
 package com.aliyun.filedetect;
 
-import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingDeque;
-import javax.activation.MimetypesFileTypeMap;
-import org.apache.commons.codec.binary.Hex;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.aliyun.sas20181203.models.CreateFileDetectRequest;
-import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlRequest;
-import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponse;
-import com.aliyun.sas20181203.models.GetFileDetectResultRequest;
-import com.aliyun.sas20181203.models.GetFileDetectResultResponse;
-import com.aliyun.sas20181203.models.GetFileDetectResultResponseBody.GetFileDetectResultResponseBodyResultList;
 import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlList;
-import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlListContext;
 import com.aliyun.tea.TeaException;
 import com.aliyun.teautil.models.RuntimeOptions;
 import com.google.gson.Gson;
 
 class ScanTask implements Runnable {
+	private final OpenAPIDetector m_detector;
 	private int m_seq = 0;
 	private String m_path = null;
 	private long m_size = 0;
 	private int m_timeout = 0;
+	private volatile PRIORITY m_priority = PRIORITY.PRI_NORMAL; // 在检测队列中的优先级，重新入队时保持不变
 	private IDetectResultCallback m_callback = null;
 	private DetectResult m_result = new DetectResult();
 	
 	private long m_start_time = 0;
-	private long m_last_time = 0;
+	private long m_start_nanos = 0; // 用于统计用时
+	private boolean m_dequeued = false; // 是否已被检测线程处理过
+	private boolean m_hashed = false; // 是否已计算过md5
+	private ConcurrentHashMap<String, ScanTask> m_inflight = null; // 负责检测本md5时不为null
+	private final List<ScanTask> m_waiters = new ArrayList<>(); // 等待本任务结果的同md5任务
+	private final ReentrantLock m_waiters_lock = new ReentrantLock(); // 保护m_waiters、m_finished及等待任务的m_expiry
+	private volatile ScanTask m_owner = null; // 本任务正在等待其结果的同md5任务
+	private ScheduledFuture<?> m_expiry = null; // 等待期间到达超时时间时结束等待，由负责任务的m_waiters_lock保护
+	private boolean m_finished = false;
+	private volatile boolean m_cancelled = false; // 调用方已取消
+	private ResultInfo m_resultinfo = null; // 轮询器查询到的结果
+	private volatile long m_due_time = 0; // 所在批量处理线程下次处理本任务的时间
+	private int m_poll_count = 0; // 发起检测后查询到检测中的次数
+	private long m_submit_time = 0; // 发起检测的时间
+	private long m_last_poll_time = 0; // 最后一次查询到检测中的时间
+	private CreateFileDetectUploadUrlResponseBodyUploadUrlList m_upload_url = null; // 批量申请到的上传地址
+	private boolean m_uploaded = false; // 文件是否已上传到当前上传地址
 	
 	public static interface TaskCallback {
 		public void onTaskEnd(ScanTask task);
-		public void onTaskBegin(ScanTask task);
 	}
 	private TaskCallback m_taskCallback = null;
+	private int m_generation = 0; // 提交时检测器的初始化代次
+	private boolean m_deliver_inline = false; // 在回调线程中提交，结果在产生结果的线程上回调
 
-	public ScanTask(String file_path, long size, int timeout, IDetectResultCallback callback) {
+	public ScanTask(OpenAPIDetector detector, String file_path, long size, int timeout, PRIORITY priority, IDetectResultCallback callback) {
+		m_detector = detector;
 		m_path = file_path;
 		m_size = size;
 		m_timeout = timeout;
+		m_priority = priority;
 		m_callback = callback;
 		m_start_time = System.currentTimeMillis();
+		m_start_nanos = System.nanoTime();
+		m_result.timing.enqueue_time = m_start_time;
 	}
 
 	public void setSeq(int seq) {
@@ -65,90 +73,315 @@ class ScanTask implements Runnable {
 	public int getSeq() {
 		return m_seq;
 	}
+
+	/**
+	 * @return 提交检测的时间
+	 */
+	long getStartTime() {
+		return m_start_time;
+	}
+
+	public PRIORITY getPriority() {
+		return m_priority;
+	}
 	
 	public void setTaskCallback(TaskCallback callback) {
 		m_taskCallback = callback;
-		if (null != m_taskCallback) {
-			m_taskCallback.onTaskBegin(this);
-		}
+	}
+
+	void setGeneration(int generation) {
+		m_generation = generation;
+	}
+
+	int getGeneration() {
+		return m_generation;
+	}
+
+	void setDeliverInline(boolean deliver_inline) {
+		m_deliver_inline = deliver_inline;
 	}
 	
-	private static final int GET_RESULT_FAIL = 1000; // 获取结果失败，未找到文件推送记录或者检测结果已过期
-	private static final int REQUEST_TOO_FREQUENTLY = 2000; // 请求太频繁，请稍后再试
-	private static final int HAS_EXCEPTION = -1; // 存在异常
-	private static final int IS_OK = 0;
-	private static final int IS_BLACK = 1; // 可疑文件
-	private static final int IS_DETECTING = 3; // 检测中，请等待
+	static final int GET_RESULT_FAIL = 1000; // 获取结果失败，未找到文件推送记录或者检测结果已过期
+	static final int REQUEST_TOO_FREQUENTLY = 2000; // 请求太频繁，请稍后再试
+	static final int HAS_EXCEPTION = -1; // 存在异常
+	static final int IS_OK = 0;
+	static final int IS_BLACK = 1; // 可疑文件
+	static final int IS_DETECTING = 3; // 检测中，请等待
 
 	public void run() {
 		// 缓存对象
-		OpenAPIDetector detector = OpenAPIDetector.getInstance();
-		com.aliyun.sas20181203.Client client = detector.m_client;
+		OpenAPIDetector detector = m_detector;
+		DetectTransport transport = detector.m_transport;
 		RuntimeOptions client_opt = detector.m_client_opt;
-		LinkedBlockingDeque<Runnable> queue = detector.m_queue;
-		if (!detector.m_is_inited || null == client || null == queue) {
+		RuntimeOptions upload_opt = detector.m_upload_opt;
+		DispatchQueue queue = detector.m_queue;
+		ResultPoller poller = detector.m_poller;
+		UploadUrlRequester uploader = detector.m_uploader;
+		VerdictCache cache = detector.m_cache;
+		HashCache hash_cache = detector.m_hash_cache;
+		HashEngine hash_engine = detector.m_hash_engine;
+		RateLimiter limiter = detector.m_limiter;
+		Stage upload_stage = detector.m_upload_stage;
+		if (!detector.m_is_inited || null == transport || null == upload_opt || null == queue || null == poller || null == uploader
+				|| null == cache || null == hash_cache || null == hash_engine || null == upload_stage) {
 			errorCallback(ERR_CODE.ERR_INIT, null);
 			return;
 		}
+		if (!m_dequeued) {
+			m_dequeued = true;
+			m_result.timing.dequeue_time = System.currentTimeMillis();
+			detector.m_metrics.m_queue_wait.recordSince(m_start_nanos);
+		}
 		// 判断是否已超时
 		if (checkTimeout()) {
 			return;
 		}
 		
-		// 计算文件md5
+		// 计算文件md5，交给独立的md5计算线程池，完成后重新进入队列
 		if (null == m_result.md5) {
-			m_result.md5 = calcMd5(m_path);
-			if (null == m_result.md5) {
+			if (m_hashed) {
 				errorCallback(ERR_CODE.ERR_FILE_NOT_FOUND, null);
 				return;
 			}
+			// 剩余时间不足以完成通常的md5计算与上传时直接结束，不再读取文件
+			DetectorMetrics metrics = detector.m_metrics;
+			long expected = metrics.estimateHashTime(m_size) + (long) (metrics.estimateUploadTime(m_size) * metrics.getUploadRatio());
+			if (checkBudget(expected, ERR_CODE.ERR_TIMEOUT_QUEUE)) {
+				return;
+			}
+			if (!hash_engine.submit(new HashJob(hash_cache, queue))) {
+				errorCallback(ERR_CODE.ERR_ABORT, null);
+			}
+			return;
 		}
 		
-		// 如果距离上次查询过短，则需要等待一会
-		if (System.currentTimeMillis() - m_last_time < Config.QUERY_RESULT_INTERVAL) {
-			synchronized(queue) {
-				try {
-					queue.wait(Config.QUERY_RESULT_INTERVAL);
-				} catch (InterruptedException e) {
+		// 同一md5的检测由最先提交的任务负责，其余任务等待其结果
+		if (null == m_inflight) {
+			ConcurrentHashMap<String, ScanTask> inflight = detector.m_inflight;
+			while (true) {
+				ScanTask owner = inflight.putIfAbsent(m_result.md5, this);
+				if (null == owner) {
+					m_inflight = inflight;
+					break;
 				}
-			}
-			if (System.currentTimeMillis() - m_last_time < Config.QUERY_RESULT_INTERVAL) {
-				// 时间不够就放到队列里去
-				queue.addLast(this);
-				return;
+				if (owner.addWaiter(this, detector.m_timer)) {
+					return;
+				}
+				inflight.remove(m_result.md5, owner); // 已结束，重新尝试
 			}
 		}
 		
-		// 更新时间戳
-		m_last_time = System.currentTimeMillis();
-		
-		// 获取扫描结果
-		ResultInfo resultinfo = null;
-		while (true) {
-			resultinfo = getResultByAPI(client, client_opt, m_result.md5);
-			if (resultinfo.result != REQUEST_TOO_FREQUENTLY) {
-				break;
+		// 已获取上传地址，交给上传阶段上传文件并发起检测
+		CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url = m_upload_url;
+		m_upload_url = null;
+		if (null != upload_url) {
+			// 上传阶段积压时最多等待到本任务超时
+			if (!upload_stage.submit(new UploadJob(transport, client_opt, upload_opt, limiter, poller, upload_url), getDeadline())
+					&& !checkTimeout()) {
+				errorCallback(ERR_CODE.ERR_ABORT, null);
 			}
-			needSleep(Config.REQUEST_TOO_FREQUENTLY_SLEEP_TIME); // 请求太过频繁，需要休眠
-			// 判断是否已超时
-			if (checkTimeout()) {
+			return;
+		}
+		
+		// 检测结果由轮询器批量查询，尚未得到结果则交给轮询器
+		ResultInfo resultinfo = m_resultinfo;
+		m_resultinfo = null;
+		if (null == resultinfo) {
+			// 命中缓存则直接返回结果
+			resultinfo = cache.get(m_result.md5);
+			if (null == resultinfo) {
+				waitResult(poller, 0);
 				return;
 			}
+			m_result.timing.cache_hit = true;
 		}
 		
 		switch(resultinfo.result) {
 		case HAS_EXCEPTION:
+			errorCallback(ERR_CODE.ERR_CALL_API, resultinfo.error_string);
 			return; // 出错，退出
 		case GET_RESULT_FAIL:
-		{// 没有结果，则尝试上传文件
+			// 没有结果，则批量申请上传地址后上传文件
+			m_due_time = 0;
+			if (!uploader.add(this)) {
+				errorCallback(ERR_CODE.ERR_ABORT, null);
+			}
+			break;
+		case IS_BLACK:
+			okCallback(true, resultinfo); // 报黑
+			break;
+		case IS_DETECTING:
+			waitResult(poller, poller.getNextPollDelay(incPollCount(System.currentTimeMillis()))); // 检测中，请等待
+			break;
+		default:
+			okCallback(false, resultinfo); // 其他结果均为白
+			break;
+		}
+	}
+
+	String getMd5() {
+		return m_result.md5;
+	}
+
+	/**
+	 * @return 所在批量处理线程下次处理本任务的时间
+	 */
+	long getDueTime() {
+		return m_due_time;
+	}
+
+	void setDueTime(long due_time) {
+		m_due_time = due_time;
+	}
+
+	/**
+	 * @return 本任务需要被处理的最早时间：下次处理时间或超时时间
+	 */
+	long getWakeTime() {
+		return Math.min(m_due_time, getDeadline());
+	}
+
+	/**
+	 * @return 本任务最迟需要被处理的时间，已取消时为0
+	 */
+	long getDeadline() {
+		if (m_cancelled) {
+			return 0;
+		}
+		return m_timeout >= 0 ? m_start_time + m_timeout + 1 : Long.MAX_VALUE;
+	}
+
+	/**
+	 * 记录一次查询到检测中
+	 * 
+	 * @return 已查询到检测中的次数
+	 */
+	int incPollCount(long now) {
+		m_last_poll_time = now;
+		return ++m_poll_count;
+	}
+
+	int getPollCount() {
+		return m_poll_count;
+	}
+
+	/**
+	 * 记录一次查询到检测结果（含检测中、无记录）
+	 */
+	void recordPoll(long now) {
+		if (0 == m_result.timing.lookup_time) {
+			m_result.timing.lookup_time = now;
+		}
+		m_result.timing.poll_times.add(now);
+	}
+
+	/**
+	 * 记录一次被限流后重试
+	 */
+	void recordThrottle() {
+		m_result.timing.throttle_retries++;
+	}
+
+	/**
+	 * @return 最后一次查询到检测中的时间，未查询到时为0
+	 */
+	long getLastPollTime() {
+		return m_last_poll_time;
+	}
+
+	/**
+	 * @return 发起检测的时间，未发起检测时为0
+	 */
+	long getSubmitTime() {
+		return m_submit_time;
+	}
+
+	/**
+	 * 记录发起检测，此后重新统计查询到检测中的次数
+	 */
+	void markSubmitted(long now) {
+		m_submit_time = now;
+		m_result.timing.submit_time = now;
+		m_last_poll_time = 0;
+		m_poll_count = 0;
+	}
+
+	/**
+	 * md5计算任务，在md5计算线程池中执行
+	 */
+	class HashJob implements Runnable {
+		private final HashCache m_hash_cache;
+		private final DispatchQueue m_queue;
+
+		HashJob(HashCache hash_cache, DispatchQueue queue) {
+			m_hash_cache = hash_cache;
+			m_queue = queue;
+		}
+
+		ScanTask getTask() {
+			return ScanTask.this;
+		}
+
+		public void run() {
+			// 无论计算是否出错都交回队列，由任务自行结束，避免回调丢失、队列位置无法释放
+			try {
+				if (!isExpired()) {
+					m_result.timing.hash_start_time = System.currentTimeMillis();
+					try {
+						m_result.md5 = m_hash_cache.getMd5(m_path);
+					} finally {
+						m_result.timing.hash_end_time = System.currentTimeMillis();
+						m_hashed = true;
+					}
+				}
+			} finally {
+				m_queue.add(ScanTask.this);
+			}
+		}
+	}
+
+	/**
+	 * 上传文件并发起检测的任务，在上传阶段线程池中执行
+	 */
+	class UploadJob implements Runnable {
+		private final DetectTransport m_transport;
+		private final RuntimeOptions m_client_opt;
+		private final RuntimeOptions m_upload_opt;
+		private final RateLimiter m_limiter;
+		private final ResultPoller m_poller;
+		private final CreateFileDetectUploadUrlResponseBodyUploadUrlList m_upload_url;
+
+		UploadJob(DetectTransport transport, RuntimeOptions client_opt, RuntimeOptions upload_opt, RateLimiter limiter, ResultPoller poller,
+				CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url) {
+			m_transport = transport;
+			m_client_opt = client_opt;
+			m_upload_opt = upload_opt;
+			m_limiter = limiter;
+			m_poller = poller;
+			m_upload_url = upload_url;
+		}
+
+		ScanTask getTask() {
+			return ScanTask.this;
+		}
+
+		public void run() {
+			if (checkTimeout()) {
+				return;
+			}
+			// 剩余时间不足以完成上传时不再上传，避免占用上传带宽
+			if (!m_uploaded && !Boolean.TRUE.equals(m_upload_url.fileExist)
+					&& checkBudget(m_detector.m_metrics.estimateUploadTime(m_size), ERR_CODE.ERR_TIMEOUT)) {
+				return;
+			}
 			int detect_ret = 0;
 			while (true) {
-				detect_ret = uploadAndDetectByAPI(client, client_opt, m_path, m_result.md5);
+				detect_ret = uploadAndDetectByAPI(m_transport, m_client_opt, m_upload_opt, m_limiter, m_path, m_result.md5, m_upload_url);
 				if (detect_ret != REQUEST_TOO_FREQUENTLY) {
 					break;
 				}
-				needSleep(Config.REQUEST_TOO_FREQUENTLY_SLEEP_TIME); // 请求太过频繁，需要休眠
-				// 判断是否已超时
+				// 请求太过频繁，由限速器降速后重试，判断是否已超时
+				recordThrottle();
 				if (checkTimeout()) {
 					return;
 				}
@@ -157,97 +390,299 @@ class ScanTask implements Runnable {
 			if (HAS_EXCEPTION == detect_ret) {
 				return; // 出错，退出
 			}
-			queue.addLast(this); // 重新添加到队列，等待再次查询扫描结果
-		} break;
-		case IS_BLACK:
-			okCallback(true, resultinfo); // 报黑
-			break;
-		case IS_DETECTING:
-			queue.addLast(this); // 检测中，请等待
-			break;
-		default:
-			okCallback(false, resultinfo); // 其他结果均为白
-			break;
+			// 等待再次查询扫描结果，首次查询时间依据近期检测用时确定
+			markSubmitted(System.currentTimeMillis());
+			waitResult(m_poller, m_poller.getFirstPollDelay());
+		}
+	}
+
+	/**
+	 * 提交检测时已得到缓存结果，直接返回
+	 */
+	void cachedCallback(String md5, ResultInfo resultinfo) {
+		m_result.md5 = md5;
+		m_result.timing.cache_hit = true;
+		if (HAS_EXCEPTION == resultinfo.result) {
+			errorCallback(ERR_CODE.ERR_CALL_API, resultinfo.error_string);
+		} else {
+			okCallback(IS_BLACK == resultinfo.result, resultinfo);
+		}
+	}
+
+	/**
+	 * 设置轮询器查询到的结果，随后任务重新进入线程池处理
+	 */
+	void setResultInfo(ResultInfo resultinfo) {
+		m_resultinfo = resultinfo;
+	}
+
+	long getSize() {
+		return m_size;
+	}
+
+	String getPath() {
+		return m_path;
+	}
+
+	/**
+	 * 设置批量申请到的上传地址，随后任务重新进入线程池处理
+	 */
+	void setUploadUrl(CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url) {
+		m_result.timing.upload_url_time = System.currentTimeMillis();
+		m_upload_url = upload_url;
+	}
+
+	/**
+	 * 交给轮询器，在指定时间后查询检测结果
+	 */
+	private void waitResult(ResultPoller poller, long delay) {
+		m_due_time = System.currentTimeMillis() + delay;
+		if (!poller.add(this)) {
+			errorCallback(ERR_CODE.ERR_ABORT, null);
 		}
 	}
 
 	public void errorCallback(ERR_CODE errCode, String errString) {
 		m_result.error_code = errCode;
 		m_result.error_string = errString;
-		m_result.time = System.currentTimeMillis() - m_start_time;
-		if (null != m_taskCallback) {
-			m_taskCallback.onTaskEnd(this);
-		}
-		if (null != m_callback) {
-			m_callback.onScanResult(m_seq, m_path, m_result);
-		}
+		setFinishTime();
+		deliver();
+		releaseWaiters();
 	}
 	
 	public void okCallback(boolean is_black, ResultInfo resultinfo) {
 		m_result.error_code = ERR_CODE.ERR_SUCC;
 		m_result.result = is_black ? DetectResult.RESULT.RES_BLACK : DetectResult.RESULT.RES_WHITE;
-		m_result.time = System.currentTimeMillis() - m_start_time;
+		setFinishTime();
 		m_result.score = resultinfo.score;
 		m_result.virus_type = resultinfo.virus_type;
 		m_result.ext_info = resultinfo.ext;
-		if (null != m_taskCallback) {
-			m_taskCallback.onTaskEnd(this);
-		}
-		if (null != m_callback) {
-			m_callback.onScanResult(m_seq, m_path, m_result);
-		}
+		deliver();
+		releaseWaiters();
 	}
 	
-	private boolean checkTimeout() {
-		long curr_time = System.currentTimeMillis();
-		if (m_timeout >= 0) {
-			if (curr_time - m_start_time > m_timeout) {
-				if (null == m_result.md5) {
-					errorCallback(ERR_CODE.ERR_TIMEOUT_QUEUE, null);
-				} else {
-					errorCallback(ERR_CODE.ERR_TIMEOUT, null);
+	/**
+	 * 交给回调阶段通知调用方，以下情况在当前线程回调：
+	 * 回调阶段已关闭或队列已满，不阻塞提交检测的线程与检测线程；
+	 * 已在回调线程中，或任务是在回调中提交的，回调线程可能正等待其结果（如detectSync），排队会互相等待
+	 */
+	private void deliver() {
+		if (null != m_taskCallback) { // 未进入检测队列的任务不计入
+			m_detector.m_metrics.recordResult(m_result, m_start_nanos);
+		}
+		Runnable job = new Runnable() {
+			public void run() {
+				if (null != m_taskCallback) {
+					m_taskCallback.onTaskEnd(ScanTask.this);
+				}
+				if (null != m_callback) {
+					m_callback.onScanResult(m_seq, m_path, m_result);
 				}
-				return true;
 			}
+		};
+		Stage deliver_stage = m_detector.m_deliver_stage;
+		if (m_deliver_inline || null == deliver_stage || deliver_stage.isCurrentThread() || !deliver_stage.offer(job)) {
+			job.run();
 		}
-		return false;
 	}
 	
-	private void needSleep(int ms) {
+	/**
+	 * 添加等待本任务结果的同md5任务，等待任务优先级更高时提升本任务的优先级，避免其被低优先级的检测拖慢；
+	 * 等待任务的超时由timer处理，不依赖本任务所处的阶段
+	 * 
+	 * @return false 本任务已结束
+	 */
+	boolean addWaiter(final ScanTask waiter, ScheduledExecutorService timer) {
+		m_waiters_lock.lock();
 		try {
-			Thread.sleep(ms);
-		} catch (InterruptedException e) {
+			if (m_finished) {
+				return false;
+			}
+			m_waiters.add(waiter);
+			waiter.m_owner = this;
+			if (waiter.m_priority.ordinal() < m_priority.ordinal()) {
+				m_priority = waiter.m_priority;
+			}
+			if (waiter.m_timeout >= 0 && null != timer) {
+				final DispatchQueue queue = m_detector.m_queue;
+				try {
+					waiter.m_expiry = timer.schedule(new Runnable() {
+						public void run() {
+							// 交回线程池，由其自行返回超时错误
+							if (removeWaiter(waiter) && null != queue) {
+								queue.add(waiter);
+							}
+						}
+					}, waiter.getDeadline() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException e) {
+					// 检测器正在关闭，等待任务随本任务结束
+				}
+			}
+			return true;
+		} finally {
+			m_waiters_lock.unlock();
 		}
 	}
 
-	private String calcMd5(String path) {
-		FileInputStream fileInputStream = null;
+	/**
+	 * 移除尚未得到结果的等待任务，用于其超时或被取消
+	 * 
+	 * @return false 等待任务已不在等待本任务
+	 */
+	boolean removeWaiter(ScanTask waiter) {
+		m_waiters_lock.lock();
 		try {
-			MessageDigest MD5 = MessageDigest.getInstance("MD5");
-			fileInputStream = new FileInputStream(path);
-			byte[] buffer = new byte[8192];
-			int length;
-			while ((length = fileInputStream.read(buffer)) != -1) {
-				MD5.update(buffer, 0, length);
+			if (!m_waiters.remove(waiter)) {
+				return false;
 			}
-			return new String(Hex.encodeHex(MD5.digest()));
-		} catch (Exception e) {
-			return null;
+			waiter.stopWaiting();
+			return true;
 		} finally {
-			try {
-				if (fileInputStream != null) {
-					fileInputStream.close();
+			m_waiters_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return 本任务正在等待其结果的同md5任务，未在等待时为null
+	 */
+	ScanTask getOwner() {
+		return m_owner;
+	}
+
+	// 调用方持有负责任务的m_waiters_lock
+	private void stopWaiting() {
+		m_owner = null;
+		if (null != m_expiry) {
+			m_expiry.cancel(false);
+			m_expiry = null;
+		}
+	}
+	
+	/**
+	 * 本任务结束，将结果交给等待任务；本任务超时或被取消则等待任务重新发起检测
+	 */
+	private void releaseWaiters() {
+		List<ScanTask> waiters = null;
+		m_waiters_lock.lock();
+		try {
+			m_finished = true;
+			if (m_waiters.isEmpty()) {
+				waiters = null;
+			} else {
+				waiters = new ArrayList<>(m_waiters);
+				m_waiters.clear();
+				for (ScanTask waiter : waiters) {
+					waiter.stopWaiting();
 				}
-			} catch (IOException e) {
 			}
+		} finally {
+			m_waiters_lock.unlock();
+		}
+		if (null != m_inflight) {
+			m_inflight.remove(m_result.md5, this);
+			m_inflight = null;
+		}
+		if (null == waiters) {
+			return;
+		}
+		boolean share = !m_cancelled && m_result.error_code != ERR_CODE.ERR_TIMEOUT && m_result.error_code != ERR_CODE.ERR_TIMEOUT_QUEUE;
+		DispatchQueue queue = m_detector.m_queue;
+		for (ScanTask waiter : waiters) {
+			if (share) {
+				waiter.sharedCallback(m_result);
+			} else if (null != queue) {
+				queue.add(waiter);
+			} else {
+				waiter.errorCallback(ERR_CODE.ERR_ABORT, null);
+			}
+		}
+	}
+	
+	private void sharedCallback(DetectResult res) {
+		m_result.error_code = res.error_code;
+		m_result.error_string = res.error_string;
+		m_result.result = res.result;
+		m_result.score = res.score;
+		m_result.virus_type = res.virus_type;
+		m_result.ext_info = res.ext_info;
+		m_result.timing.shared = true;
+		setFinishTime();
+		deliver();
+	}
+	
+	private void setFinishTime() {
+		long now = System.currentTimeMillis();
+		m_result.time = now - m_start_time;
+		m_result.timing.finish_time = now;
+	}
+	
+	boolean isTimeout() {
+		return m_timeout >= 0 && System.currentTimeMillis() - m_start_time > m_timeout;
+	}
+	
+	/**
+	 * @return 已超时或已取消，无需继续检测
+	 */
+	boolean isExpired() {
+		return m_cancelled || isTimeout();
+	}
+	
+	/**
+	 * 取消任务，任务在下次被处理时以ERR_ABORT结束
+	 * 
+	 * @return false 任务已结束
+	 */
+	boolean cancel() {
+		m_cancelled = true;
+		m_waiters_lock.lock();
+		try {
+			return !m_finished;
+		} finally {
+			m_waiters_lock.unlock();
 		}
 	}
 	
+	private boolean checkTimeout() {
+		if (m_cancelled) {
+			errorCallback(ERR_CODE.ERR_ABORT, null);
+			return true;
+		}
+		if (isTimeout()) {
+			if (null == m_result.md5) {
+				errorCallback(ERR_CODE.ERR_TIMEOUT_QUEUE, null);
+			} else {
+				errorCallback(ERR_CODE.ERR_TIMEOUT, null);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 剩余时间不足以完成预计用时的处理时以错误结束任务
+	 * 
+	 * @param expected 预计用时，单位为毫秒，<= 0 表示无法估算
+	 * @return 是否已结束任务
+	 */
+	private boolean checkBudget(long expected, ERR_CODE err_code) {
+		if (m_timeout < 0 || expected <= 0) {
+			return false;
+		}
+		long left = m_start_time + m_timeout - System.currentTimeMillis();
+		if (left >= expected) {
+			return false;
+		}
+		m_detector.m_metrics.m_expire_early_count.increment();
+		errorCallback(err_code, null);
+		return true;
+	}
+
 	static class ResultInfo {
 		public int result = 0;
 		public int score = 0;
 		public String virus_type = null;
 		public String ext = null;
+		public String error_string = null; // result为HAS_EXCEPTION时的扩展错误信息
 		public ResultInfo(int result) {
 			this.result = result;
 		}
@@ -257,9 +692,14 @@ class ScanTask implements Runnable {
 			this.virus_type = virus_type;
 			this.ext = ext;
 		}
+		public static ResultInfo error(String error_string) {
+			ResultInfo info = new ResultInfo(HAS_EXCEPTION);
+			info.error_string = error_string;
+			return info;
+		}
 	}
 	
-	private String getErrorMessage(String name, String code, String msg) {
+	static String getErrorMessage(String name, String code, String msg) {
 		Map<String, String> map = new HashMap<>();
 		map.put("action", name);
 		map.put("error_code", code);
@@ -267,187 +707,90 @@ class ScanTask implements Runnable {
 		return new Gson().toJson(map);
 	}
 	
-	private ResultInfo getResultByAPI(com.aliyun.sas20181203.Client client, RuntimeOptions client_opt, String md5) {
-        String api_name = "GetFileDetectResult";
-		try {
-            List<String> hashKeyList = new ArrayList<>();
-            hashKeyList.add(md5);
-			GetFileDetectResultRequest request = new GetFileDetectResultRequest();
-            request.setHashKeyList(hashKeyList);
-            request.setType(0);
-            GetFileDetectResultResponse response = client.getFileDetectResultWithOptions(request, client_opt);
-            GetFileDetectResultResponseBodyResultList org_result = response.body.resultList.get(0);
-            int result = 0;
-            if (null != org_result.result) {
-            	result = org_result.result;
-            }
-            int score = 0;
-            if (null != org_result.score) {
-            	score = org_result.score;
-            }
-            return new ResultInfo(result, score, org_result.virusType, org_result.ext);
-        } catch (TeaException error) {
-        	if ("GetResultFail".equals(error.code)) {
-        		return new ResultInfo(GET_RESULT_FAIL); 
-        	}
-        	if ("RequestTooFrequently".equals(error.code)) {
-        		return new ResultInfo(REQUEST_TOO_FREQUENTLY);
-        	}
-
-        	if ("Throttling.User".equals(error.code)) {
-        		return new ResultInfo(REQUEST_TOO_FREQUENTLY);
-        	}
-        	errorCallback(ERR_CODE.ERR_CALL_API, getErrorMessage(api_name, error.code, error.message));
-        	return new ResultInfo(HAS_EXCEPTION);
-        } catch (Exception error) {
-        	errorCallback(ERR_CODE.ERR_CALL_API, getErrorMessage(api_name, "ERR_NETWORK", error.getMessage()));
-        	return new ResultInfo(HAS_EXCEPTION);
-        }
-	}
-	
-	private int uploadAndDetectByAPI(com.aliyun.sas20181203.Client client, RuntimeOptions client_opt, String path, String md5) {
+	private int uploadAndDetectByAPI(DetectTransport transport, RuntimeOptions client_opt, RuntimeOptions upload_opt, RateLimiter limiter, String path, String md5, CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url_response) {
 		String api_name = "";
 		ERR_CODE api_callerr = ERR_CODE.ERR_CALL_API;
 		try {
-        	CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url_response = null;
-        	{
-        		// 获取上传参数
-        		api_name = "CreateFileDetectUploadUrl";
-        		api_callerr = ERR_CODE.ERR_CALL_API;
-        		
-        		CreateFileDetectUploadUrlRequest.CreateFileDetectUploadUrlRequestHashKeyContextList hashKeyContextList0 = new CreateFileDetectUploadUrlRequest.CreateFileDetectUploadUrlRequestHashKeyContextList()
-                        .setHashKey(md5)
-                        .setFileSize((int)m_size);
-                CreateFileDetectUploadUrlRequest request = new CreateFileDetectUploadUrlRequest()
-                        .setHashKeyContextList(java.util.Arrays.asList(
-                            hashKeyContextList0
-                        ));
-	            request.setType(0);
-	            CreateFileDetectUploadUrlResponse response = client.createFileDetectUploadUrlWithOptions(request, client_opt);
-	            upload_url_response = response.body.getUploadUrlList().get(0);
-        	}
-            if (!upload_url_response.fileExist) {
-            	// 上传文件
-            	api_name = "UploadFile";
-            	api_callerr = ERR_CODE.ERR_UPLOAD;
-            	uploadFile(path, upload_url_response.publicUrl, upload_url_response.context);
+            if (!Boolean.TRUE.equals(upload_url_response.fileExist)) {
+            	// 上传文件，同一地址只需上传一次，限流重试时跳过
+            	if (!m_uploaded) {
+            		api_name = DetectorMetrics.UPLOAD_FILE;
+            		api_callerr = ERR_CODE.ERR_UPLOAD;
+            		if (null == upload_url_response.publicUrl || null == upload_url_response.context) {
+            			errorCallback(ERR_CODE.ERR_CALL_API, getErrorMessage("CreateFileDetectUploadUrl", upload_url_response.code, upload_url_response.message));
+            			return HAS_EXCEPTION;
+            		}
+            		long start_time = System.nanoTime();
+            		boolean ok = false;
+            		m_result.timing.upload_start_time = System.currentTimeMillis();
+            		try {
+            			transport.uploadFile(path, upload_url_response, Deadlines.bound(upload_opt, getDeadline()), getDeadline());
+            			ok = true;
+            		} finally {
+            			m_detector.m_metrics.recordApi(api_name, start_time, ok);
+            		}
+            		m_result.timing.upload_end_time = System.currentTimeMillis();
+            		m_result.timing.upload_bytes = m_size;
+            		m_detector.m_metrics.m_upload_time.recordSince(start_time);
+            		m_detector.m_metrics.m_upload_size.record(m_size);
+            		m_uploaded = true;
+            	}
             }
             {
+            	// 上传期间被取消则不再发起检测
+            	if (m_cancelled) {
+            		errorCallback(ERR_CODE.ERR_ABORT, null);
+            		return HAS_EXCEPTION;
+            	}
             	// 发起检测
-            	api_name = "CreateFileDetect";
+            	api_name = RateLimiter.CREATE_FILE_DETECT;
             	api_callerr = ERR_CODE.ERR_CALL_API;
+            	if (!limiter.acquire(api_name, getDeadline())) {
+            		// 截止时间前无法获得许可时不再重试
+            		if (Thread.currentThread().isInterrupted()) {
+            			errorCallback(ERR_CODE.ERR_ABORT, null);
+            		} else {
+            			m_detector.m_metrics.m_expire_early_count.increment();
+            			errorCallback(ERR_CODE.ERR_TIMEOUT, null);
+            		}
+            		return HAS_EXCEPTION;
+            	}
             	CreateFileDetectRequest request = new CreateFileDetectRequest();
 	            request.setHashKey(md5);
-	            request.setOssKey(upload_url_response.context.ossKey);
+	            if (null != upload_url_response.context) {
+	            	request.setOssKey(upload_url_response.context.ossKey);
+	            }
 	            request.setType(0);
-	            client.createFileDetectWithOptions(request, client_opt);
+	            long start_time = System.nanoTime();
+	            boolean ok = false;
+	            try {
+	            	transport.createFileDetect(request, Deadlines.bound(client_opt, getDeadline()));
+	            	ok = true;
+	            } finally {
+	            	m_detector.m_metrics.recordApi(api_name, start_time, ok);
+	            }
+	            limiter.onSuccess(api_name);
             }
             
         } catch (TeaException error) {
-        	if ("RequestTooFrequently".equals(error.code)) {
-        		return REQUEST_TOO_FREQUENTLY;
-        	}
-        	if ("Throttling.User".equals(error.code)) {
+        	if (RateLimiter.isThrottling(error.code)) {
+        		if (RateLimiter.CREATE_FILE_DETECT.equals(api_name)) {
+        			limiter.onThrottled(api_name);
+        		}
         		return REQUEST_TOO_FREQUENTLY;
         	}
         	errorCallback(api_callerr, getErrorMessage(api_name, error.code, error.message));
         	return HAS_EXCEPTION;
         } catch (Exception error) {
+        	// 超时设置已按剩余时间收紧，到达截止时间被中止的调用按超时结束
+        	if (isExpired()) {
+        		checkTimeout();
+        		return HAS_EXCEPTION;
+        	}
         	errorCallback(api_callerr, getErrorMessage(api_name, "ERR_NETWORK", error.getMessage()));
         	return HAS_EXCEPTION;
         }
+        m_uploaded = false;
         return IS_OK;
 	}
-	
-	private boolean uploadFile(String localFilePath, String urlStr, CreateFileDetectUploadUrlResponseBodyUploadUrlListContext context) throws IOException {
-        Map<String, String> formFields = new LinkedHashMap<>();
-        formFields.put("key", context.ossKey);
-        formFields.put("OSSAccessKeyId", context.accessId);
-        formFields.put("policy", context.policy);
-        formFields.put("Signature", context.signature);
-        
-        HttpURLConnection conn = null;
-        String userAgent = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) " +
-                "Chrome/90.0.4430.212 Safari/537.36";
-        String boundary = "9431149156168";
-        try {
-            URL url = new URL(urlStr);
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(Config.HTTP_CONNECT_TIMEOUT);
-            conn.setReadTimeout(Config.HTTP_UPLOAD_TIMEOUT);
-            conn.setDoOutput(true);
-            conn.setDoInput(true);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("User-Agent", userAgent);
-            conn.setRequestProperty("Content-Type",
-                    "multipart/form-data; boundary=" + boundary);
-            OutputStream out = new DataOutputStream(conn.getOutputStream());
-            // 遍历读取表单Map中的数据，将数据写入到输出流中。
-            if (formFields != null) {
-                StringBuffer strBuf = new StringBuffer();
-                Iterator<Map.Entry<String, String>> iter = formFields.entrySet().iterator();
-                int i = 0;
-                while (iter.hasNext()) {
-                    Map.Entry<String, String> entry = iter.next();
-                    String inputName = entry.getKey();
-                    String inputValue = entry.getValue();
-                    if (inputValue == null) {
-                        continue;
-                    }
-                    if (i == 0) {
-                        strBuf.append("--").append(boundary).append("\r\n");
-                        strBuf.append("Content-Disposition: form-data; name=\""
-                                + inputName + "\"\r\n\r\n");
-                        strBuf.append(inputValue);
-                    } else {
-                        strBuf.append("\r\n").append("--").append(boundary).append("\r\n");
-                        strBuf.append("Content-Disposition: form-data; name=\""
-                                + inputName + "\"\r\n\r\n");
-                        strBuf.append(inputValue);
-                    }
-                    i++;
-                }
-                out.write(strBuf.toString().getBytes());
-            }
-            // 读取文件信息，将要上传的文件写入到输出流中。
-            File file = new File(localFilePath);
-            String filename = file.getName();
-            String contentType = new MimetypesFileTypeMap().getContentType(file);
-            if (contentType == null || contentType.equals("")) {
-                contentType = "application/octet-stream";
-            }
-            StringBuffer strBuf = new StringBuffer();
-            strBuf.append("\r\n").append("--").append(boundary)
-                    .append("\r\n");
-            strBuf.append("Content-Disposition: form-data; name=\"file\"; "
-                    + "filename=\"" + filename + "\"\r\n");
-            strBuf.append("Content-Type: " + contentType + "\r\n\r\n");
-            out.write(strBuf.toString().getBytes());
-            DataInputStream in = new DataInputStream(new FileInputStream(file));
-            int bytes = 0;
-            byte[] bufferOut = new byte[1024];
-            while ((bytes = in.read(bufferOut)) != -1) {
-                out.write(bufferOut, 0, bytes);
-            }
-            in.close();
-            byte[] endData = ("\r\n--" + boundary + "--\r\n").getBytes();
-            out.write(endData);
-            out.flush();
-            out.close();
-            // 读取返回数据。
-            strBuf = new StringBuffer();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                strBuf.append(line).append("\n");
-            }
-            String res = strBuf.toString();
-            reader.close();
-            return true;
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
-        }
-	}
 }
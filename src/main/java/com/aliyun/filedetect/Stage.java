@@ -0,0 +1,166 @@
+package com.aliyun.filedetect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 检测流水线中的一个阶段，拥有独立的线程与有界队列
+ *
+ * 队列满时submit阻塞调用方，使下游积压逐级反压到上游，最终体现为检测队列满；
+ * offer不阻塞，供不能等待的调用方（如回调阶段）在队列满时自行处理。
+ * 平台线程预先全部启动；虚拟线程按需创建、空闲后退出，线程数只作为并发上限
+ */
+class Stage {
+	private static final int OFFER_WAIT_TIME = 100; // 队列满时检查阶段是否已关闭的间隔，单位为毫秒
+	private static final ThreadLocal<Stage> CURRENT = new ThreadLocal<>(); // 当前线程所属的阶段
+	private static final int VIRTUAL_IDLE_TIME = 1000; // 虚拟线程空闲后退出的时间，单位为毫秒
+
+	private final String m_name;
+	private final BlockingQueue<Runnable> m_queue;
+	private final ThreadPoolExecutor m_executor;
+	private final AtomicLong m_blocked_count = new AtomicLong();
+
+	/**
+	 * @param name       阶段名，同时作为线程名前缀
+	 * @param thread_num 线程数，使用虚拟线程时为同时执行的任务数上限
+	 * @param capacity   队列容量
+	 * @param virtual    是否使用虚拟线程
+	 */
+	public Stage(String name, int thread_num, int capacity, boolean virtual) {
+		m_name = name;
+		m_queue = new ArrayBlockingQueue<>(capacity);
+		final ThreadFactory factory = Threads.factory("filedetect-" + name + "-", virtual);
+		m_executor = new ThreadPoolExecutor(thread_num, thread_num, VIRTUAL_IDLE_TIME, TimeUnit.MILLISECONDS, m_queue, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				return factory.newThread(new Runnable() {
+					public void run() {
+						CURRENT.set(Stage.this);
+						r.run();
+					}
+				});
+			}
+		});
+		if (virtual && Threads.isVirtualSupported()) {
+			m_executor.allowCoreThreadTimeOut(true);
+		} else {
+			m_executor.prestartAllCoreThreads();
+		}
+	}
+
+	/**
+	 * 提交任务，队列满时等待
+	 *
+	 * @return false 阶段已关闭或等待时线程被中断
+	 */
+	public boolean submit(Runnable job) {
+		return submit(job, Long.MAX_VALUE);
+	}
+
+	/**
+	 * 提交任务，队列满时最晚等待到deadline
+	 *
+	 * @param deadline 最晚等待到的时间，Long.MAX_VALUE 表示一直等待到阶段关闭
+	 * @return false 阶段已关闭、已到deadline或等待时线程被中断
+	 */
+	public boolean submit(Runnable job, long deadline) {
+		if (offer(job)) {
+			return true;
+		}
+		if (m_executor.isShutdown()) {
+			return false;
+		}
+		try {
+			while (!m_executor.isShutdown()) {
+				long wait_time = OFFER_WAIT_TIME;
+				if (deadline != Long.MAX_VALUE) {
+					wait_time = Math.min(wait_time, deadline - System.currentTimeMillis());
+					if (wait_time <= 0) {
+						return false;
+					}
+				}
+				if (m_queue.offer(job, wait_time, TimeUnit.MILLISECONDS)) {
+					// 放入前阶段已关闭时，任务可能晚于shutdown取出剩余任务，既不执行也不交还；
+					// 此时取回任务按提交失败处理，取不回则已由shutdown交还
+					if (m_executor.isShutdown()) {
+						return !m_queue.remove(job);
+					}
+					// 直接放入队列不会创建线程，虚拟线程可能已全部空闲退出
+					m_executor.prestartCoreThread();
+					return true;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * 提交任务，队列满时不等待
+	 *
+	 * @return false 阶段已关闭或队列已满
+	 */
+	public boolean offer(Runnable job) {
+		if (m_executor.isShutdown()) {
+			return false;
+		}
+		// 线程未达上限时创建线程执行，否则放入队列
+		try {
+			m_executor.execute(job);
+			return true;
+		} catch (RejectedExecutionException e) {
+			if (!m_executor.isShutdown()) {
+				m_blocked_count.incrementAndGet();
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @return 当前线程是否为本阶段的线程
+	 */
+	public boolean isCurrentThread() {
+		return CURRENT.get() == this;
+	}
+
+	/**
+	 * 关闭阶段
+	 *
+	 * @return 尚未执行的任务
+	 * @throws InterruptedException
+	 */
+	public List<Runnable> shutdown() throws InterruptedException {
+		List<Runnable> jobs = new ArrayList<>(m_executor.shutdownNow());
+		m_executor.awaitTermination(5, TimeUnit.SECONDS);
+		m_queue.drainTo(jobs); // 关闭过程中放入的任务
+		return jobs;
+	}
+
+	public int getThreadNum() {
+		return m_executor.getCorePoolSize();
+	}
+
+	public int getQueueSize() {
+		return m_queue.size();
+	}
+
+	public StageStats getStats() {
+		StageStats stats = new StageStats();
+		stats.name = m_name;
+		stats.thread_num = m_executor.getCorePoolSize();
+		stats.active_count = m_executor.getActiveCount();
+		stats.queue_size = m_queue.size();
+		stats.queue_capacity = m_queue.size() + m_queue.remainingCapacity();
+		stats.completed_count = m_executor.getCompletedTaskCount();
+		stats.blocked_count = m_blocked_count.get();
+		return stats;
+	}
+}
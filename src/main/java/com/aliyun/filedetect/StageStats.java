@@ -0,0 +1,11 @@
+package com.aliyun.filedetect;
+
+public class StageStats {
+	public String name = null; // 阶段名
+	public int thread_num = 0; // 线程数
+	public int active_count = 0; // 正在处理的任务数
+	public int queue_size = 0; // 排队等待处理的任务数
+	public int queue_capacity = 0; // 队列容量，-1 表示不单独限制
+	public long completed_count = 0; // 已处理的任务数
+	public long blocked_count = 0; // 队列满的次数，此时上游等待或（回调阶段）在当前线程处理
+}
@@ -0,0 +1,301 @@
+package com.aliyun.filedetect;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按md5汇总任务并批量调用API的后台线程
+ *
+ * 任务通过add加入等待列表，后台线程每轮取出已到处理时间的任务交给process批量处理，
+ * 处理完成的任务由子类通过dispatch交回线程池，其余任务留待下一轮。
+ * 两轮之间线程休眠到最早需要处理的任务的时间，不早于最小处理间隔
+ */
+abstract class TaskBatcher implements Runnable {
+	protected final DispatchQueue m_queue;
+	private final String m_name;
+	private final int m_batch_size;
+	private final int m_window;
+	private final int m_min_interval;
+
+	// 等待处理的任务，md5 -> 任务列表
+	private final Map<String, List<ScanTask>> m_pending = new LinkedHashMap<>();
+	private final ReentrantLock m_lock = new ReentrantLock();
+	private final Condition m_changed = m_lock.newCondition(); // 有新任务加入或需要重新计算等待时间
+	private volatile boolean m_running = false;
+	private Thread m_thread = null;
+	private long m_earliest_added = Long.MAX_VALUE; // 上轮之后新加入任务的最早处理时间
+	private final AtomicLong m_completed_count = new AtomicLong();
+
+	/**
+	 * @param name       线程名
+	 * @param queue      线程池任务队列
+	 * @param batch_size 单次批量处理的最大md5个数
+	 * @param window       收到第一个任务后等待更多任务的时长，单位为毫秒
+	 * @param min_interval 两轮处理之间的最小间隔，单位为毫秒
+	 */
+	protected TaskBatcher(String name, DispatchQueue queue, int batch_size, int window, int min_interval) {
+		m_name = name;
+		m_queue = queue;
+		m_batch_size = batch_size;
+		m_window = window;
+		m_min_interval = min_interval;
+	}
+
+	/**
+	 * 批量处理一轮任务
+	 *
+	 * @param tasks md5 -> 已到处理时间的任务列表，已处理完成的md5需从中移除
+	 * @return 距下一轮处理的最短等待时间，单位为毫秒
+	 */
+	protected abstract int process(Map<String, List<ScanTask>> tasks);
+
+	public void start() {
+		m_lock.lock();
+		try {
+			if (m_running) {
+				return;
+			}
+			m_running = true;
+			m_thread = new Thread(this, m_name);
+			m_thread.setDaemon(true);
+			m_thread.start();
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	/**
+	 * 停止处理
+	 *
+	 * @return 尚未处理完成的任务
+	 * @throws InterruptedException
+	 */
+	public List<ScanTask> stop() throws InterruptedException {
+		Thread thread = null;
+		m_lock.lock();
+		try {
+			m_running = false;
+			thread = m_thread;
+			m_thread = null;
+			m_changed.signalAll();
+		} finally {
+			m_lock.unlock();
+		}
+		if (null != thread) {
+			thread.interrupt();
+			thread.join(5000);
+		}
+		List<ScanTask> tasks = new ArrayList<>();
+		m_lock.lock();
+		try {
+			for (List<ScanTask> list : m_pending.values()) {
+				tasks.addAll(list);
+			}
+			m_pending.clear();
+		} finally {
+			m_lock.unlock();
+		}
+		return tasks;
+	}
+
+	/**
+	 * 添加待处理的任务
+	 *
+	 * @param task 已计算md5的任务
+	 * @return false 已停止
+	 */
+	public boolean add(ScanTask task) {
+		m_lock.lock();
+		try {
+			if (!m_running) {
+				return false;
+			}
+			String md5 = task.getMd5();
+			List<ScanTask> list = m_pending.get(md5);
+			if (null == list) {
+				list = new ArrayList<>();
+				m_pending.put(md5, list);
+			}
+			list.add(task);
+			long wake_time = task.getWakeTime();
+			if (wake_time < m_earliest_added) {
+				m_earliest_added = wake_time;
+				m_changed.signal();
+			}
+		} finally {
+			m_lock.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * 唤醒后台线程重新计算等待时间，用于任务被取消时尽快将其交回线程池
+	 */
+	public void wakeUp() {
+		m_lock.lock();
+		try {
+			m_changed.signal();
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	/**
+	 * 将任务交回线程池继续处理
+	 */
+	protected void dispatch(ScanTask task) {
+		m_completed_count.incrementAndGet();
+		m_queue.add(task);
+	}
+
+	/**
+	 * @param name 阶段名
+	 */
+	public StageStats getStats(String name) {
+		StageStats stats = new StageStats();
+		stats.name = name;
+		stats.thread_num = 1;
+		stats.queue_capacity = -1;
+		stats.completed_count = m_completed_count.get();
+		m_lock.lock();
+		try {
+			for (List<ScanTask> list : m_pending.values()) {
+				stats.queue_size += list.size();
+			}
+		} finally {
+			m_lock.unlock();
+		}
+		return stats;
+	}
+
+	protected int getBatchSize() {
+		return m_batch_size;
+	}
+
+	public void run() {
+		long next_round = 0; // 下一轮最早开始时间
+		while (m_running) {
+			Map<String, List<ScanTask>> tasks = null;
+			m_lock.lock();
+			try {
+				try {
+					// 休眠到最早需要处理的任务的时间
+					while (m_running) {
+						long wake_time = Math.max(next_round, Math.min(earliestWakeTime(), m_earliest_added));
+						long wait_time = wake_time - System.currentTimeMillis();
+						if (wait_time <= 0) {
+							break;
+						}
+						if (wake_time == Long.MAX_VALUE) {
+							m_changed.await();
+						} else {
+							m_changed.await(wait_time, TimeUnit.MILLISECONDS);
+						}
+					}
+					// 等待一小段时间，以便凑成更大的批次
+					long window_end = System.currentTimeMillis() + m_window;
+					long wait_time = m_window;
+					while (m_running && wait_time > 0 && m_pending.size() < m_batch_size) {
+						m_changed.await(wait_time, TimeUnit.MILLISECONDS);
+						wait_time = window_end - System.currentTimeMillis();
+					}
+				} catch (InterruptedException e) {
+				}
+				if (!m_running) {
+					break;
+				}
+				tasks = new LinkedHashMap<>(m_pending);
+				m_pending.clear();
+				m_earliest_added = Long.MAX_VALUE;
+			} finally {
+				m_lock.unlock();
+			}
+
+			long start_time = System.currentTimeMillis();
+			// 已超时或取消的任务交回线程池处理，未到处理时间的任务留待下一轮；
+			// 下一轮不早于最小处理间隔，因此该间隔内到期的任务并入本轮，以保持批量大小
+			long due_time = start_time + m_min_interval;
+			Map<String, List<ScanTask>> due = new LinkedHashMap<>();
+			Iterator<Map.Entry<String, List<ScanTask>>> iter = tasks.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<String, List<ScanTask>> entry = iter.next();
+				List<ScanTask> list = entry.getValue();
+				boolean is_due = false;
+				Iterator<ScanTask> task_iter = list.iterator();
+				while (task_iter.hasNext()) {
+					ScanTask task = task_iter.next();
+					if (task.isExpired()) {
+						task_iter.remove();
+						dispatch(task);
+						continue;
+					}
+					if (task.getDueTime() <= due_time) {
+						is_due = true;
+					}
+				}
+				if (list.isEmpty() || is_due) {
+					iter.remove();
+				}
+				if (is_due) {
+					due.put(entry.getKey(), list);
+				}
+			}
+			if (!due.isEmpty() && !hasOverdue(due, start_time)) {
+				// 并入的任务均未到期，留待下一轮
+				tasks.putAll(due);
+				due.clear();
+			}
+
+			int sleep_time = due.isEmpty() ? 0 : process(due);
+			next_round = start_time + Math.max(sleep_time, due.isEmpty() ? 0 : m_min_interval);
+
+			// 未处理完成的任务放回等待列表
+			m_lock.lock();
+			try {
+				putBack(tasks);
+				putBack(due);
+			} finally {
+				m_lock.unlock();
+			}
+		}
+	}
+
+	private void putBack(Map<String, List<ScanTask>> tasks) {
+		for (Map.Entry<String, List<ScanTask>> entry : tasks.entrySet()) {
+			List<ScanTask> list = m_pending.get(entry.getKey());
+			if (null == list) {
+				m_pending.put(entry.getKey(), entry.getValue());
+			} else {
+				list.addAll(entry.getValue());
+			}
+		}
+	}
+
+	private static boolean hasOverdue(Map<String, List<ScanTask>> tasks, long now) {
+		for (List<ScanTask> list : tasks.values()) {
+			for (ScanTask task : list) {
+				if (task.getDueTime() <= now) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private long earliestWakeTime() {
+		long wake_time = Long.MAX_VALUE;
+		for (List<ScanTask> list : m_pending.values()) {
+			for (ScanTask task : list) {
+				wake_time = Math.min(wake_time, task.getWakeTime());
+			}
+		}
+		return wake_time;
+	}
+}
@@ -0,0 +1,71 @@
+package com.aliyun.filedetect;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程工厂
+ *
+ * 虚拟线程需要Java 21及以上版本，编译目标为Java 8，因此通过反射创建
+ */
+class Threads {
+	private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+	private static final Method BUILDER_NAME = findMethod(builderClass(), "name", String.class, long.class);
+	private static final Method BUILDER_FACTORY = findMethod(builderClass(), "factory");
+
+	private Threads() {
+	}
+
+	/**
+	 * @return 当前运行环境是否支持虚拟线程
+	 */
+	static boolean isVirtualSupported() {
+		return null != OF_VIRTUAL && null != BUILDER_NAME && null != BUILDER_FACTORY;
+	}
+
+	/**
+	 * 创建线程工厂，线程名为prefix加序号
+	 *
+	 * @param virtual 是否使用虚拟线程，运行环境不支持时使用平台守护线程
+	 */
+	static ThreadFactory factory(final String prefix, boolean virtual) {
+		if (virtual && isVirtualSupported()) {
+			try {
+				Object builder = OF_VIRTUAL.invoke(null);
+				builder = BUILDER_NAME.invoke(builder, prefix, 1L);
+				return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				// 退回平台线程
+			}
+		}
+		final AtomicInteger index = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + index.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static Class<?> builderClass() {
+		try {
+			return Class.forName("java.lang.Thread$Builder");
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	private static Method findMethod(Class<?> clazz, String name, Class<?>... types) {
+		if (null == clazz) {
+			return null;
+		}
+		try {
+			return clazz.getMethod(name, types);
+		} catch (NoSuchMethodException | RuntimeException e) {
+			return null;
+		}
+	}
+}
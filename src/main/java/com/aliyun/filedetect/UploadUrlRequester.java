@@ -0,0 +1,125 @@
+package com.aliyun.filedetect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlRequest;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponse;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlList;
+import com.aliyun.tea.TeaException;
+import com.aliyun.teautil.models.RuntimeOptions;
+
+/**
+ * 上传地址申请器
+ *
+ * 汇总短时间内未找到检测记录的样本，按md5批量调用CreateFileDetectUploadUrl，
+ * 再将上传地址分发回各自的ScanTask，由线程池完成上传并发起检测
+ */
+class UploadUrlRequester extends TaskBatcher {
+	private final DetectTransport m_transport;
+	private final RuntimeOptions m_client_opt;
+	private final RateLimiter m_limiter;
+	private final DetectorMetrics m_metrics;
+
+	public UploadUrlRequester(DetectTransport transport, RuntimeOptions client_opt, DispatchQueue queue, RateLimiter limiter, DetectorMetrics metrics, DetectorOptions options) {
+		super("filedetect-upload-url-requester", queue, options.getUploadUrlBatchSize(), options.getUploadUrlBatchWindow(), 0);
+		m_transport = transport;
+		m_client_opt = client_opt;
+		m_limiter = limiter;
+		m_metrics = metrics;
+	}
+
+	@Override
+	protected int process(Map<String, List<ScanTask>> tasks) {
+		int sleep_time = 0;
+		List<String> md5_list = new ArrayList<>(tasks.keySet());
+		for (int i = 0; i < md5_list.size(); i += getBatchSize()) {
+			List<String> batch = md5_list.subList(i, Math.min(i + getBatchSize(), md5_list.size()));
+			Map<String, Long> size_map = new HashMap<>();
+			for (String md5 : batch) {
+				size_map.put(md5, tasks.get(md5).get(0).getSize());
+			}
+			Map<String, CreateFileDetectUploadUrlResponseBodyUploadUrlList> urls = new HashMap<>();
+			ScanTask.ResultInfo err = createUploadUrlByAPI(size_map, urls, Deadlines.latest(tasks, batch));
+			if (null != err && ScanTask.REQUEST_TOO_FREQUENTLY == err.result) {
+				for (String md5 : batch) {
+					for (ScanTask task : tasks.get(md5)) {
+						task.recordThrottle();
+					}
+				}
+				sleep_time = Config.REQUEST_TOO_FREQUENTLY_SLEEP_TIME;
+				continue; // 请求太过频繁，下一轮继续申请
+			}
+			for (String md5 : batch) {
+				CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url = urls.get(md5);
+				for (ScanTask task : tasks.remove(md5)) {
+					if (null != upload_url) {
+						task.setUploadUrl(upload_url);
+					} else if (null != err) {
+						task.setResultInfo(err);
+					} else {
+						task.setResultInfo(ScanTask.ResultInfo.error(ScanTask.getErrorMessage("CreateFileDetectUploadUrl", "ERR_NO_UPLOAD_URL", "no upload url for " + md5)));
+					}
+					dispatch(task);
+				}
+			}
+		}
+		return sleep_time;
+	}
+
+	/**
+	 * 批量申请上传地址
+	 *
+	 * @param size_map md5 -> 文件大小
+	 * @param urls     md5 -> 上传地址，调用成功时填充
+	 * @param deadline 等待限速与调用的截止时间，单位为毫秒
+	 * @return null 调用成功，否则为错误信息
+	 */
+	private ScanTask.ResultInfo createUploadUrlByAPI(Map<String, Long> size_map, Map<String, CreateFileDetectUploadUrlResponseBodyUploadUrlList> urls,
+			long deadline) {
+		String api_name = RateLimiter.CREATE_FILE_DETECT_UPLOAD_URL;
+		if (!m_limiter.acquire(api_name, deadline)) {
+			return new ScanTask.ResultInfo(ScanTask.REQUEST_TOO_FREQUENTLY);
+		}
+		long start_time = System.nanoTime();
+		boolean ok = false;
+		try {
+			List<CreateFileDetectUploadUrlRequest.CreateFileDetectUploadUrlRequestHashKeyContextList> context_list = new ArrayList<>();
+			for (Map.Entry<String, Long> entry : size_map.entrySet()) {
+				context_list.add(new CreateFileDetectUploadUrlRequest.CreateFileDetectUploadUrlRequestHashKeyContextList()
+						.setHashKey(entry.getKey())
+						.setFileSize((int) (long) entry.getValue()));
+			}
+			CreateFileDetectUploadUrlRequest request = new CreateFileDetectUploadUrlRequest()
+					.setHashKeyContextList(context_list);
+			request.setType(0);
+			CreateFileDetectUploadUrlResponse response = m_transport.createFileDetectUploadUrl(request, Deadlines.bound(m_client_opt, deadline));
+			m_limiter.onSuccess(api_name);
+			ok = true;
+			List<CreateFileDetectUploadUrlResponseBodyUploadUrlList> url_list = response.body.getUploadUrlList();
+			for (int i = 0; null != url_list && i < url_list.size(); i++) {
+				CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url = url_list.get(i);
+				String md5 = upload_url.hashKey;
+				if (null == md5 && size_map.size() == 1) {
+					md5 = size_map.keySet().iterator().next();
+				}
+				if (null != md5) {
+					urls.put(md5.toLowerCase(), upload_url);
+				}
+			}
+			return null;
+		} catch (TeaException error) {
+			if (RateLimiter.isThrottling(error.code)) {
+				m_limiter.onThrottled(api_name);
+				return new ScanTask.ResultInfo(ScanTask.REQUEST_TOO_FREQUENTLY);
+			}
+			return ScanTask.ResultInfo.error(ScanTask.getErrorMessage(api_name, error.code, error.message));
+		} catch (Exception error) {
+			return ScanTask.ResultInfo.error(ScanTask.getErrorMessage(api_name, "ERR_NETWORK", error.getMessage()));
+		} finally {
+			m_metrics.recordApi(api_name, start_time, ok);
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package com.aliyun.filedetect;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 检测结果内存缓存，md5 -> 检测结果
+ *
+ * 按md5分段加锁（ReentrantLock，虚拟线程等待时不占用载体线程），每段为按访问顺序排列的LinkedHashMap，
+ * 超过条目数或内存上限时淘汰最久未访问的条目；白、黑、错误结果分别设置有效期
+ * 可选的持久化存储作为第二级，内存未命中时查询，写入时同步追加；
+ * 存储中的记录按存储自身的有效期判断是否可用，载入内存后按内存有效期从载入时开始计时
+ */
+class VerdictCache {
+	private static final int SEGMENT_NUM = 16;
+	private static final int ENTRY_OVERHEAD = 160; // 单个条目除字符串外的估算内存，单位为字节
+
+	private final Segment[] m_segments = new Segment[SEGMENT_NUM];
+	private volatile long m_white_ttl;
+	private volatile long m_black_ttl;
+	private volatile long m_error_ttl;
+
+	private final AtomicLong m_hit_count = new AtomicLong();
+	private final AtomicLong m_miss_count = new AtomicLong();
+	private final AtomicLong m_eviction_count = new AtomicLong();
+	private final AtomicLong m_store_hit_count = new AtomicLong();
+	private final VerdictStore m_store;
+
+	/**
+	 * @param max_entries 最大条目数
+	 * @param max_bytes   最大估算内存，单位为字节
+	 * @param white_ttl   白样本结果有效期，单位为毫秒
+	 * @param black_ttl   黑样本结果有效期，单位为毫秒
+	 * @param error_ttl   错误结果有效期，单位为毫秒，<= 0 不缓存
+	 * @param store       持久化存储，null 不启用
+	 */
+	public VerdictCache(int max_entries, long max_bytes, long white_ttl, long black_ttl, long error_ttl, VerdictStore store) {
+		m_store = store;
+		for (int i = 0; i < SEGMENT_NUM; i++) {
+			m_segments[i] = new Segment(Math.max(1, max_entries / SEGMENT_NUM), Math.max(1, max_bytes / SEGMENT_NUM));
+		}
+		setTtl(white_ttl, black_ttl, error_ttl);
+	}
+
+	public void setTtl(long white_ttl, long black_ttl, long error_ttl) {
+		m_white_ttl = white_ttl;
+		m_black_ttl = black_ttl;
+		m_error_ttl = error_ttl;
+	}
+
+	/**
+	 * 查询缓存
+	 *
+	 * @param md5 样本md5
+	 * @return 未命中或已过期返回null
+	 */
+	public ScanTask.ResultInfo get(String md5) {
+		Segment segment = segmentFor(md5);
+		Entry entry = null;
+		long now = System.currentTimeMillis();
+		segment.lock.lock();
+		try {
+			entry = segment.map.get(md5);
+			if (null != entry && now - entry.time > ttlOf(entry.info)) {
+				segment.remove(md5);
+				entry = null;
+			}
+		} finally {
+			segment.lock.unlock();
+		}
+		if (null == entry && null != m_store) {
+			// 存储已按其有效期过滤过期记录
+			VerdictStore.StoredVerdict verdict = m_store.get(md5);
+			if (null != verdict) {
+				m_store_hit_count.incrementAndGet();
+				m_hit_count.incrementAndGet();
+				putMemory(md5, verdict.info, now);
+				return verdict.info;
+			}
+		}
+		if (null == entry) {
+			m_miss_count.incrementAndGet();
+			return null;
+		}
+		m_hit_count.incrementAndGet();
+		return entry.info;
+	}
+
+	/**
+	 * 缓存检测结果，只缓存黑、白及错误结果
+	 */
+	public void put(String md5, ScanTask.ResultInfo info) {
+		if (null == md5 || !isFinal(info)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (null != m_store) {
+			m_store.put(md5, info, now);
+		}
+		putMemory(md5, info, now);
+	}
+
+	private void putMemory(String md5, ScanTask.ResultInfo info, long time) {
+		if (ttlOf(info) <= 0) {
+			return;
+		}
+		Entry entry = new Entry(info, time, estimateSize(md5, info));
+		Segment segment = segmentFor(md5);
+		segment.lock.lock();
+		try {
+			segment.remove(md5);
+			segment.map.put(md5, entry);
+			segment.bytes += entry.size;
+			m_eviction_count.addAndGet(segment.evict());
+		} finally {
+			segment.lock.unlock();
+		}
+	}
+
+	/**
+	 * 清空内存缓存，持久化存储不受影响
+	 */
+	public void clear() {
+		for (Segment segment : m_segments) {
+			segment.lock.lock();
+			try {
+				segment.map.clear();
+				segment.bytes = 0;
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+	}
+
+	public CacheStats getStats() {
+		CacheStats stats = new CacheStats();
+		for (Segment segment : m_segments) {
+			segment.lock.lock();
+			try {
+				stats.size += segment.map.size();
+				stats.bytes += segment.bytes;
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		stats.hit_count = m_hit_count.get();
+		stats.miss_count = m_miss_count.get();
+		stats.eviction_count = m_eviction_count.get();
+		stats.store_hit_count = m_store_hit_count.get();
+		if (null != m_store) {
+			stats.store_size = m_store.size();
+			stats.store_error_count = m_store.getErrorCount();
+		}
+		return stats;
+	}
+
+	static boolean isFinal(ScanTask.ResultInfo info) {
+		if (null == info) {
+			return false;
+		}
+		switch (info.result) {
+		case ScanTask.GET_RESULT_FAIL:
+		case ScanTask.REQUEST_TOO_FREQUENTLY:
+		case ScanTask.IS_DETECTING:
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	private long ttlOf(ScanTask.ResultInfo info) {
+		if (ScanTask.HAS_EXCEPTION == info.result) {
+			return m_error_ttl;
+		}
+		if (ScanTask.IS_BLACK == info.result) {
+			return m_black_ttl;
+		}
+		return m_white_ttl;
+	}
+
+	private Segment segmentFor(String md5) {
+		int h = md5.hashCode();
+		h ^= (h >>> 16);
+		return m_segments[h & (SEGMENT_NUM - 1)];
+	}
+
+	private static long estimateSize(String md5, ScanTask.ResultInfo info) {
+		long size = ENTRY_OVERHEAD + 2L * md5.length();
+		if (null != info.virus_type) {
+			size += 40 + 2L * info.virus_type.length();
+		}
+		if (null != info.ext) {
+			size += 40 + 2L * info.ext.length();
+		}
+		if (null != info.error_string) {
+			size += 40 + 2L * info.error_string.length();
+		}
+		return size;
+	}
+
+	private static class Entry {
+		final ScanTask.ResultInfo info;
+		final long time; // 缓存时间
+		final long size; // 估算内存，单位为字节
+
+		Entry(ScanTask.ResultInfo info, long time, long size) {
+			this.info = info;
+			this.time = time;
+			this.size = size;
+		}
+	}
+
+	private static class Segment {
+		final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+		final ReentrantLock lock = new ReentrantLock();
+		final int max_entries;
+		final long max_bytes;
+		long bytes = 0;
+
+		Segment(int max_entries, long max_bytes) {
+			this.max_entries = max_entries;
+			this.max_bytes = max_bytes;
+		}
+
+		void remove(String md5) {
+			Entry old = map.remove(md5);
+			if (null != old) {
+				bytes -= old.size;
+			}
+		}
+
+		int evict() {
+			int count = 0;
+			Iterator<Map.Entry<String, Entry>> iter = map.entrySet().iterator();
+			while ((map.size() > max_entries || bytes > max_bytes) && iter.hasNext()) {
+				bytes -= iter.next().getValue().size;
+				iter.remove();
+				count++;
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,750 @@
+package com.aliyun.filedetect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 检测结果持久化存储，md5 -> 检测结果
+ *
+ * 目录下包含两个文件：
+ * verdict.dat 只追加写入的记录日志
+ * verdict.idx 压缩后按md5排序的索引，以内存映射方式二分查找
+ * 压缩后新追加的记录由内存中的尾部索引定位。压缩时每个md5只保留最新且未过期的一条记录
+ *
+ * 数据文件通道由所有调用线程共用，线程在读写时被中断会使通道关闭：
+ * 已被中断的线程不再访问存储，通道被关闭后由下一次读写重新打开
+ *
+ * 记录格式：int 长度 | md5(16字节) | long 检测时间 | byte 结果 | byte 分值 | 病毒类型 | 扩展信息 | int crc32
+ * 字符串以varint(长度+1)开头，0表示null
+ */
+class VerdictStore {
+	private static final String DATA_FILE = "verdict.dat";
+	private static final String INDEX_FILE = "verdict.idx";
+	private static final int DATA_MAGIC = 0x46445653; // FDVS
+	private static final int INDEX_MAGIC = 0x46445649; // FDVI
+	private static final int VERSION = 1;
+	private static final int DATA_HEADER_LEN = 16; // magic | version | generation
+	private static final int INDEX_HEADER_LEN = 28; // magic | version | generation | 已索引的数据长度 | 条目数
+	private static final int INDEX_ENTRY_LEN = 24; // md5(16字节) | 记录偏移
+	private static final int MIN_RECORD_LEN = 28; // 记录中除长度与crc外的最小长度
+	private static final int MAX_RECORD_LEN = 1024 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static class StoredVerdict {
+		public final ScanTask.ResultInfo info;
+		public final long time; // 检测时间
+
+		StoredVerdict(ScanTask.ResultInfo info, long time) {
+			this.info = info;
+			this.time = time;
+		}
+	}
+
+	private static class TailEntry {
+		final byte[] key;
+		final long pos;
+
+		TailEntry(byte[] key, long pos) {
+			this.key = key;
+			this.pos = pos;
+		}
+	}
+
+	private final File m_dir;
+	private final long m_max_age;
+	private final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
+	private final AtomicBoolean m_compacting = new AtomicBoolean(false);
+	private final AtomicLong m_error_count = new AtomicLong(); // 读写失败或因线程已中断而跳过的次数
+	private final ScheduledExecutorService m_compactor;
+
+	private FileChannel m_data = null;
+	private long m_data_len = 0;
+	private long m_generation = 0;
+	private MappedByteBuffer m_index = null;
+	private int m_index_count = 0;
+	private Map<String, Long> m_tail = new HashMap<>(); // 压缩后追加的记录，md5 -> 偏移
+
+	/**
+	 * 打开存储目录，不存在则创建
+	 *
+	 * @param dir              存储目录
+	 * @param max_age          记录有效期，单位为毫秒，<= 0 不过期
+	 * @param compact_interval 定期压缩间隔，单位为毫秒
+	 * @throws IOException
+	 */
+	public VerdictStore(File dir, long max_age, long compact_interval) throws IOException {
+		m_dir = dir;
+		m_max_age = max_age;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("can not create directory: " + dir);
+		}
+		open();
+		m_compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "filedetect-verdict-store");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		m_compactor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				compactQuietly();
+			}
+		}, compact_interval, compact_interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 查询检测结果
+	 *
+	 * @return 不存在或已过期返回null
+	 */
+	public StoredVerdict get(String md5) {
+		byte[] key = toKey(md5);
+		if (null == key) {
+			return null;
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			m_error_count.incrementAndGet();
+			return null;
+		}
+		for (int attempt = 0; ; attempt++) {
+			FileChannel data = null;
+			m_lock.readLock().lock();
+			try {
+				data = m_data;
+				if (null == data) {
+					return null;
+				}
+				Long offset = m_tail.get(md5);
+				long pos = null != offset ? offset : searchIndex(key);
+				if (pos < 0) {
+					return null;
+				}
+				StoredVerdict verdict = decode(readRecord(data, pos));
+				if (isExpired(verdict.time, System.currentTimeMillis())) {
+					return null;
+				}
+				return verdict;
+			} catch (ClosedChannelException e) {
+				// 通道被关闭，重新打开后重试一次
+			} catch (IOException e) {
+				m_error_count.incrementAndGet();
+				return null;
+			} finally {
+				m_lock.readLock().unlock();
+			}
+			if (!reopen(data) || attempt > 0 || Thread.currentThread().isInterrupted()) {
+				m_error_count.incrementAndGet();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * 追加检测结果，只保存黑、白结果
+	 */
+	public void put(String md5, ScanTask.ResultInfo info, long time) {
+		byte[] key = toKey(md5);
+		if (null == key || null == info || !VerdictCache.isFinal(info) || ScanTask.HAS_EXCEPTION == info.result) {
+			return;
+		}
+		byte[] record;
+		try {
+			record = encode(key, info, time);
+		} catch (IOException e) {
+			m_error_count.incrementAndGet();
+			return;
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			m_error_count.incrementAndGet();
+			return;
+		}
+		boolean need_compact = false;
+		for (int attempt = 0; ; attempt++) {
+			FileChannel data = null;
+			m_lock.writeLock().lock();
+			try {
+				data = m_data;
+				if (null == data) {
+					return;
+				}
+				// 写入中途失败时不移动末尾位置，下一条记录覆盖不完整的部分
+				writeFully(data, ByteBuffer.wrap(record), m_data_len);
+				m_tail.put(md5, m_data_len);
+				m_data_len += record.length;
+				need_compact = m_tail.size() >= Config.VERDICT_STORE_COMPACT_THRESHOLD;
+				break;
+			} catch (ClosedChannelException e) {
+				// 通道被关闭，重新打开后重试一次
+			} catch (IOException e) {
+				m_error_count.incrementAndGet();
+				return;
+			} finally {
+				m_lock.writeLock().unlock();
+			}
+			if (!reopen(data) || attempt > 0 || Thread.currentThread().isInterrupted()) {
+				m_error_count.incrementAndGet();
+				return;
+			}
+		}
+		if (need_compact && !m_compacting.get()) {
+			m_compactor.execute(new Runnable() {
+				@Override
+				public void run() {
+					compactQuietly();
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return 读写失败或因线程已中断而跳过的次数
+	 */
+	public long getErrorCount() {
+		return m_error_count.get();
+	}
+
+	/**
+	 * 数据文件通道被关闭（其他线程读写时被中断）后重新打开，已被重新打开或存储已关闭时不处理
+	 *
+	 * @param closed 读写时发现已关闭的通道
+	 * @return 当前是否有可用的通道
+	 */
+	private boolean reopen(FileChannel closed) {
+		m_lock.writeLock().lock();
+		try {
+			if (null == m_data) {
+				return false;
+			}
+			if (m_data == closed && !closed.isOpen()) {
+				m_data = new RandomAccessFile(new File(m_dir, DATA_FILE), "rw").getChannel();
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			m_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return 当前条目数（含尚未压缩的重复记录）
+	 */
+	public long size() {
+		m_lock.readLock().lock();
+		try {
+			return (long) m_index_count + m_tail.size();
+		} finally {
+			m_lock.readLock().unlock();
+		}
+	}
+
+	public void close() {
+		m_compactor.shutdownNow();
+		try {
+			m_compactor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+		}
+		m_lock.writeLock().lock();
+		try {
+			if (null != m_data) {
+				m_data.force(false);
+				m_data.close();
+			}
+		} catch (IOException e) {
+		} finally {
+			m_data = null;
+			m_index = null;
+			m_index_count = 0;
+			m_tail = new HashMap<>();
+			m_lock.writeLock().unlock();
+		}
+	}
+
+	private void compactQuietly() {
+		try {
+			compact();
+		} catch (IOException e) {
+			m_error_count.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 压缩：每个md5只保留最新且未过期的记录，重写数据文件和索引
+	 * 压缩期间仍可读写，新追加的记录在最后持锁时复制到新文件
+	 */
+	void compact() throws IOException {
+		if (!m_compacting.compareAndSet(false, true)) {
+			return;
+		}
+		File data_tmp = new File(m_dir, DATA_FILE + ".tmp");
+		File index_tmp = new File(m_dir, INDEX_FILE + ".tmp");
+		try {
+			// 1. 持读锁取得当前快照
+			FileChannel old_data;
+			MappedByteBuffer old_index;
+			int old_index_count;
+			List<TailEntry> tail;
+			long start_len;
+			long generation;
+			m_lock.readLock().lock();
+			try {
+				if (null == m_data) {
+					return;
+				}
+				old_data = m_data;
+				old_index = m_index;
+				old_index_count = m_index_count;
+				start_len = m_data_len;
+				generation = m_generation + 1;
+				tail = new ArrayList<>(m_tail.size());
+				for (Map.Entry<String, Long> entry : m_tail.entrySet()) {
+					tail.add(new TailEntry(toKey(entry.getKey()), entry.getValue()));
+				}
+			} finally {
+				m_lock.readLock().unlock();
+			}
+			Collections.sort(tail, new Comparator<TailEntry>() {
+				@Override
+				public int compare(TailEntry a, TailEntry b) {
+					return compareKey(a.key, b.key);
+				}
+			});
+
+			// 2. 不持锁，按md5顺序合并索引与尾部记录，写入新文件。旧文件中已写入的记录不会再改变
+			long now = System.currentTimeMillis();
+			int count = 0;
+			long compacted_len = DATA_HEADER_LEN;
+			DataOutputStream data_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(data_tmp), 1024 * 1024));
+			DataOutputStream index_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index_tmp), 1024 * 1024));
+			try {
+				data_out.writeInt(DATA_MAGIC);
+				data_out.writeInt(VERSION);
+				data_out.writeLong(generation);
+				index_out.writeInt(INDEX_MAGIC);
+				index_out.writeInt(VERSION);
+				index_out.writeLong(generation);
+				index_out.writeLong(0); // 已索引的数据长度，写完后回填
+				index_out.writeInt(0); // 条目数，写完后回填
+
+				int i = 0;
+				int j = 0;
+				byte[] index_key = new byte[16];
+				while (i < old_index_count || j < tail.size()) {
+					long pos;
+					byte[] key;
+					int cmp;
+					if (i < old_index_count) {
+						readIndexKey(old_index, i, index_key);
+						cmp = j < tail.size() ? compareKey(index_key, tail.get(j).key) : -1;
+					} else {
+						cmp = 1;
+					}
+					if (cmp < 0) {
+						key = index_key;
+						pos = readIndexOffset(old_index, i++);
+					} else {
+						key = tail.get(j).key;
+						pos = tail.get(j++).pos;
+						if (cmp == 0) {
+							i++; // 尾部记录更新
+						}
+					}
+					byte[] record = readRecord(old_data, pos);
+					if (isExpired(decodeTime(record), now)) {
+						continue;
+					}
+					data_out.write(record);
+					index_out.write(key);
+					index_out.writeLong(compacted_len);
+					compacted_len += record.length;
+					count++;
+				}
+			} finally {
+				data_out.close();
+				index_out.close();
+			}
+			try (RandomAccessFile raf = new RandomAccessFile(index_tmp, "rw")) {
+				raf.seek(16);
+				raf.writeLong(compacted_len);
+				raf.writeInt(count);
+				raf.getFD().sync();
+			}
+
+			// 3. 持写锁，复制压缩期间追加的记录，替换文件
+			m_lock.writeLock().lock();
+			try {
+				if (m_data != old_data) {
+					return; // 已关闭，或通道被关闭后已重新打开，下次再压缩
+				}
+				FileChannel new_data = new RandomAccessFile(data_tmp, "rw").getChannel();
+				boolean ok = false;
+				try {
+					long new_len = compacted_len;
+					long pos = start_len;
+					Map<String, Long> new_tail = new HashMap<>();
+					while (pos < m_data_len) {
+						byte[] record = readRecord(m_data, pos);
+						writeFully(new_data, ByteBuffer.wrap(record), new_len);
+						new_tail.put(keyToMd5(record, 4), new_len);
+						new_len += record.length;
+						pos += record.length;
+					}
+					new_data.force(false);
+					m_data.close();
+					Files.move(data_tmp.toPath(), new File(m_dir, DATA_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+					Files.move(index_tmp.toPath(), new File(m_dir, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+					m_data = new_data;
+					m_data_len = new_len;
+					m_generation = generation;
+					m_tail = new_tail;
+					mapIndex();
+					ok = true;
+				} finally {
+					if (!ok) {
+						new_data.close();
+						if (!m_data.isOpen()) {
+							// 旧文件已关闭但替换失败，重新打开
+							open();
+						}
+					}
+				}
+			} finally {
+				m_lock.writeLock().unlock();
+			}
+		} finally {
+			data_tmp.delete();
+			index_tmp.delete();
+			m_compacting.set(false);
+		}
+	}
+
+	/**
+	 * 打开数据文件和索引，扫描索引之后的记录重建尾部索引，截断末尾不完整的记录
+	 */
+	private void open() throws IOException {
+		File data_file = new File(m_dir, DATA_FILE);
+		m_data = new RandomAccessFile(data_file, "rw").getChannel();
+		m_tail = new HashMap<>();
+		m_index = null;
+		m_index_count = 0;
+		ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_LEN);
+		if (m_data.size() < DATA_HEADER_LEN || readFully(m_data, header, 0) < DATA_HEADER_LEN
+				|| header.getInt(0) != DATA_MAGIC || header.getInt(4) != VERSION) {
+			// 新建或无法识别，重新初始化
+			m_data.truncate(0);
+			header.clear();
+			header.putInt(DATA_MAGIC).putInt(VERSION).putLong(1);
+			header.flip();
+			writeFully(m_data, header, 0);
+			m_generation = 1;
+			m_data_len = DATA_HEADER_LEN;
+			return;
+		}
+		m_generation = header.getLong(8);
+		long tail_start = DATA_HEADER_LEN;
+		if (mapIndex()) {
+			tail_start = m_index.getLong(16);
+		}
+
+		long size = m_data.size();
+		long pos = tail_start;
+		InputStream in = new BufferedInputStream(Channels.newInputStream(m_data.position(pos)), 1024 * 1024);
+		DataInputStream din = new DataInputStream(in);
+		try {
+			while (pos < size) {
+				byte[] record = readRecord(din);
+				if (null == record) {
+					break;
+				}
+				m_tail.put(keyToMd5(record, 4), pos);
+				pos += record.length;
+			}
+		} catch (IOException e) {
+		}
+		if (pos < size) {
+			m_data.truncate(pos);
+		}
+		m_data_len = pos;
+	}
+
+	/**
+	 * 映射索引文件，索引与数据文件不匹配时忽略
+	 */
+	private boolean mapIndex() throws IOException {
+		m_index = null;
+		m_index_count = 0;
+		File index_file = new File(m_dir, INDEX_FILE);
+		if (!index_file.isFile() || index_file.length() < INDEX_HEADER_LEN) {
+			return false;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(index_file, "r")) {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int count = index.getInt(24);
+			if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION || index.getLong(8) != m_generation
+					|| index.getLong(16) > m_data.size() || count < 0
+					|| (long) INDEX_HEADER_LEN + (long) count * INDEX_ENTRY_LEN > channel.size()) {
+				return false;
+			}
+			m_index = index;
+			m_index_count = count;
+			return true;
+		}
+	}
+
+	private long searchIndex(byte[] key) {
+		MappedByteBuffer index = m_index;
+		if (null == index) {
+			return -1;
+		}
+		byte[] mid_key = new byte[16];
+		int low = 0;
+		int high = m_index_count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			readIndexKey(index, mid, mid_key);
+			int cmp = compareKey(mid_key, key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return readIndexOffset(index, mid);
+			}
+		}
+		return -1;
+	}
+
+	private boolean isExpired(long time, long now) {
+		return m_max_age > 0 && now - time > m_max_age;
+	}
+
+	private static void readIndexKey(ByteBuffer index, int i, byte[] key) {
+		int base = INDEX_HEADER_LEN + i * INDEX_ENTRY_LEN;
+		for (int k = 0; k < 16; k++) {
+			key[k] = index.get(base + k);
+		}
+	}
+
+	private static long readIndexOffset(ByteBuffer index, int i) {
+		return index.getLong(INDEX_HEADER_LEN + i * INDEX_ENTRY_LEN + 16);
+	}
+
+	private static int compareKey(byte[] a, byte[] b) {
+		for (int i = 0; i < 16; i++) {
+			int x = a[i] & 0xff;
+			int y = b[i] & 0xff;
+			if (x != y) {
+				return x < y ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	private static byte[] toKey(String md5) {
+		if (null == md5 || md5.length() != 32) {
+			return null;
+		}
+		byte[] key = new byte[16];
+		for (int i = 0; i < 16; i++) {
+			int hi = Character.digit(md5.charAt(i * 2), 16);
+			int lo = Character.digit(md5.charAt(i * 2 + 1), 16);
+			if (hi < 0 || lo < 0) {
+				return null;
+			}
+			key[i] = (byte) ((hi << 4) | lo);
+		}
+		return key;
+	}
+
+	private static String keyToMd5(byte[] buf, int off) {
+		char[] hex = "0123456789abcdef".toCharArray();
+		char[] out = new char[32];
+		for (int i = 0; i < 16; i++) {
+			int b = buf[off + i] & 0xff;
+			out[i * 2] = hex[b >>> 4];
+			out[i * 2 + 1] = hex[b & 0xf];
+		}
+		return new String(out);
+	}
+
+	private static byte[] encode(byte[] key, ScanTask.ResultInfo info, long time) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bos);
+		out.writeInt(0); // 长度，最后回填
+		out.write(key);
+		out.writeLong(time);
+		out.writeByte(info.result);
+		out.writeByte(info.score);
+		writeString(out, info.virus_type);
+		writeString(out, info.ext);
+		out.writeInt(0); // crc32，最后回填
+		byte[] record = bos.toByteArray();
+		int len = record.length - 8;
+		ByteBuffer buf = ByteBuffer.wrap(record);
+		buf.putInt(0, len);
+		CRC32 crc = new CRC32();
+		crc.update(record, 4, len);
+		buf.putInt(record.length - 4, (int) crc.getValue());
+		return record;
+	}
+
+	private static StoredVerdict decode(byte[] record) throws IOException {
+		DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(record, 20, record.length - 24));
+		long time = in.readLong();
+		int result = in.readByte();
+		int score = in.readByte() & 0xff;
+		String virus_type = readString(in);
+		String ext = readString(in);
+		return new StoredVerdict(new ScanTask.ResultInfo(result, score, virus_type, ext), time);
+	}
+
+	private static long decodeTime(byte[] record) {
+		return ByteBuffer.wrap(record).getLong(20);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (null == s) {
+			writeVarint(out, 0);
+			return;
+		}
+		byte[] bytes = s.getBytes(UTF8);
+		writeVarint(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int len = readVarint(in);
+		if (len == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[len - 1];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("bad varint");
+	}
+
+	/**
+	 * 读取完整记录（含长度与crc），校验失败抛出IOException
+	 */
+	private static byte[] readRecord(FileChannel channel, long pos) throws IOException {
+		ByteBuffer len_buf = ByteBuffer.allocate(4);
+		if (readFully(channel, len_buf, pos) < 4) {
+			throw new EOFException();
+		}
+		int len = len_buf.getInt(0);
+		if (len < MIN_RECORD_LEN || len > MAX_RECORD_LEN) {
+			throw new IOException("bad record length: " + len);
+		}
+		ByteBuffer buf = ByteBuffer.allocate(len + 8);
+		if (readFully(channel, buf, pos) < len + 8) {
+			throw new EOFException();
+		}
+		return checkRecord(buf.array());
+	}
+
+	/**
+	 * 顺序读取下一条记录，到达文件末尾或记录不完整时返回null
+	 */
+	private static byte[] readRecord(DataInputStream in) throws IOException {
+		int len;
+		try {
+			len = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (len < MIN_RECORD_LEN || len > MAX_RECORD_LEN) {
+			return null;
+		}
+		byte[] record = new byte[len + 8];
+		ByteBuffer.wrap(record).putInt(len);
+		try {
+			in.readFully(record, 4, len + 4);
+			return checkRecord(record);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static byte[] checkRecord(byte[] record) throws IOException {
+		int len = record.length - 8;
+		CRC32 crc = new CRC32();
+		crc.update(record, 4, len);
+		if ((int) crc.getValue() != ByteBuffer.wrap(record).getInt(record.length - 4)) {
+			throw new IOException("bad record crc");
+		}
+		return record;
+	}
+
+	private static int readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+		int total = 0;
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, pos + total);
+			if (n < 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+		long offset = pos;
+		while (buf.hasRemaining()) {
+			offset += channel.write(buf, offset);
+		}
+	}
+}
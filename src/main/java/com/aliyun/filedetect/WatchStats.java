@@ -0,0 +1,10 @@
+package com.aliyun.filedetect;
+
+public class WatchStats {
+	public int watched_dir_count = 0; // 监控中的目录数
+	public int pending_count = 0; // 等待静默期结束的文件数
+	public long event_count = 0; // 收到的变化事件数
+	public long overflow_count = 0; // 事件队列溢出次数
+	public long catch_up_count = 0; // 溢出后补扫次数
+	public long submit_count = 0; // 由事件触发提交检测的文件数，不含补扫
+}
@@ -138,36 +138,43 @@ public class Sample {
 	public static void scan(final OpenAPIDetector detector, String path, int detect_timeout_ms, boolean is_sync) throws InterruptedException {
 		System.out.println(String.format("[SCAN] [START] path: %s, detect_timeout_ms: %d, is_sync: %b", path, detect_timeout_ms, is_sync));
 		long start_time = System.currentTimeMillis();
-		final Map<String, DetectResult> result_map = new HashMap<>();
-		if (is_sync) {
-			detectDirOrFileSync(detector, path, detect_timeout_ms, result_map);
-		} else {
-			detectDirOrFile(detector, path, detect_timeout_ms, new IDetectResultCallback() {
-				public void onScanResult(int seq, String file_path, DetectResult callback_res) {
-			    	System.err.println(String.format("[detectFile] [ END ] seq: %d, queueSize: %d, %s", seq, detector.getQueueSize(), formatDetectResult(callback_res)));
-					result_map.put(file_path, callback_res);
-				}
-			});
-			// 等待任务执行完成
-			detector.waitQueueEmpty(-1);
-		}
-		long used_time = System.currentTimeMillis() - start_time;
-		System.out.println(String.format("[SCAN] [ END ] used_time: %d, files: %d", used_time, result_map.size()));
-		
 		int fail_count = 0;
 		int white_count = 0;
 		int black_count = 0;
-		for (Map.Entry<String, DetectResult> entry : result_map.entrySet()) {
-			DetectResult res = entry.getValue();
-			if (res.isSucc()) {
-				if (res.getDetectResultInfo().result == DetectResult.RESULT.RES_BLACK) {
-					black_count ++;
+		if (is_sync) {
+			final Map<String, DetectResult> result_map = new HashMap<>();
+			detectDirOrFileSync(detector, path, detect_timeout_ms, result_map);
+			long used_time = System.currentTimeMillis() - start_time;
+			System.out.println(String.format("[SCAN] [ END ] used_time: %d, files: %d", used_time, result_map.size()));
+			for (Map.Entry<String, DetectResult> entry : result_map.entrySet()) {
+				DetectResult res = entry.getValue();
+				if (res.isSucc()) {
+					if (res.getDetectResultInfo().result == DetectResult.RESULT.RES_BLACK) {
+						black_count ++;
+					} else {
+						white_count ++;
+					}
 				} else {
-					white_count ++;
+					fail_count ++;
 				}
-			} else {
-				fail_count ++;
 			}
+		} else {
+			// 并行遍历目录，结果与进度实时回调
+			ScanOptions options = ScanOptions.builder().setDetectTimeout(detect_timeout_ms).build();
+			ScanProgress progress = new DirScanner(detector, options).scan(path, new IScanListener() {
+				public void onResult(String file_path, DetectResult res) {
+			    	System.err.println(String.format("[detectFile] [ END ] queueSize: %d, path: %s, %s", detector.getQueueSize(), file_path, formatDetectResult(res)));
+				}
+
+				public void onProgress(ScanProgress progress) {
+					System.out.println(String.format("[SCAN] [PROGRESS] dirs: %d, files: %d, done: %d, skipped: %d, walk_errors: %d"
+							, progress.dir_count, progress.file_count, progress.done_count, progress.skip_count, progress.walk_error_count));
+				}
+			});
+			System.out.println(String.format("[SCAN] [ END ] used_time: %d, files: %d", progress.elapsed, progress.done_count));
+			fail_count = (int) progress.fail_count;
+			white_count = (int) progress.white_count;
+			black_count = (int) progress.black_count;
 		}
 		System.out.println(String.format("             fail_count: %d, white_count: %d, black_count: %d"
 				, fail_count, white_count, black_count));
@@ -0,0 +1,82 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.aliyun.teautil.models.RuntimeOptions;
+
+public class DeadlinesTest {
+	private static RuntimeOptions runtime(Integer connect_timeout, Integer read_timeout) {
+		RuntimeOptions runtime = new RuntimeOptions();
+		runtime.connectTimeout = connect_timeout;
+		runtime.readTimeout = read_timeout;
+		return runtime;
+	}
+
+	@Test
+	public void testUnboundedKeepsBase() {
+		RuntimeOptions base = runtime(3000, 10000);
+		assertSame(base, Deadlines.bound(base, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testEnoughTimeKeepsBase() {
+		RuntimeOptions base = runtime(3000, 10000);
+		assertSame(base, Deadlines.bound(base, System.currentTimeMillis() + 60000));
+	}
+
+	@Test
+	public void testShortDeadlineTightensTimeouts() {
+		RuntimeOptions base = runtime(3000, 10000);
+		RuntimeOptions bounded = Deadlines.bound(base, System.currentTimeMillis() + 5000);
+		assertNotSame(base, bounded);
+		assertEquals(3000, (int) bounded.connectTimeout);
+		assertTrue("read " + bounded.readTimeout, bounded.readTimeout > 4000 && bounded.readTimeout <= 5000);
+		// 基础设置不被修改
+		assertEquals(10000, (int) base.readTimeout);
+	}
+
+	@Test
+	public void testUnsetTimeoutBounded() {
+		// 超时为0或未设置表示无限等待，有截止时间时同样需要收紧
+		RuntimeOptions bounded = Deadlines.bound(runtime(0, null), System.currentTimeMillis() + 2000);
+		assertTrue(bounded.connectTimeout > 0 && bounded.connectTimeout <= 2000);
+		assertTrue(bounded.readTimeout > 0 && bounded.readTimeout <= 2000);
+	}
+
+	@Test
+	public void testPassedDeadlineGivesOneMillisecond() {
+		RuntimeOptions bounded = Deadlines.bound(runtime(3000, 10000), System.currentTimeMillis() - 1000);
+		assertEquals(1, (int) bounded.connectTimeout);
+		assertEquals(1, (int) bounded.readTimeout);
+	}
+
+	@Test
+	public void testLatestAcrossWaiters() {
+		ScanTask short_task = new ScanTask(null, "/tmp/a", 0, 1000, PRIORITY.PRI_NORMAL, null);
+		ScanTask long_task = new ScanTask(null, "/tmp/b", 0, 8000, PRIORITY.PRI_NORMAL, null);
+		ScanTask other = new ScanTask(null, "/tmp/c", 0, 30000, PRIORITY.PRI_NORMAL, null);
+		Map<String, List<ScanTask>> tasks = new HashMap<>();
+		tasks.put("aa", Arrays.asList(short_task, long_task));
+		tasks.put("bb", Arrays.asList(other));
+		assertEquals(long_task.getDeadline(), Deadlines.latest(tasks, Arrays.asList("aa")));
+		assertEquals(other.getDeadline(), Deadlines.latest(tasks, Arrays.asList("aa", "bb")));
+	}
+
+	@Test
+	public void testLatestWithoutTimeoutIsUnbounded() {
+		Map<String, List<ScanTask>> tasks = new HashMap<>();
+		tasks.put("aa", Arrays.asList(new ScanTask(null, "/tmp/a", 0, 1000, PRIORITY.PRI_NORMAL, null),
+				new ScanTask(null, "/tmp/b", 0, -1, PRIORITY.PRI_NORMAL, null)));
+		assertEquals(Long.MAX_VALUE, Deadlines.latest(tasks, Arrays.asList("aa")));
+	}
+}
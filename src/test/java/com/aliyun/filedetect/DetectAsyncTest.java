@@ -0,0 +1,128 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DetectAsyncTest {
+	private final CountDownLatch m_gate = new CountDownLatch(1);
+	private File m_dir;
+	private RecordingTransport m_transport;
+	private OpenAPIDetector m_detector;
+
+	@Before
+	public void setUp() throws Exception {
+		m_dir = Files.createTempDirectory("detect-async").toFile();
+		m_transport = new RecordingTransport().setUploadGate(m_gate);
+		// 单个检测线程、单个上传线程，上传被挡住后检测线程阻塞在上传阶段，后续任务留在检测队列
+		m_detector = new OpenAPIDetector(DetectorOptions.builder().setTransport(m_transport)
+				.setThreadPoolSize(1).setUploadThreadPoolSize(1).setUploadQueueSize(1).build());
+		m_detector.init("test", "test");
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		m_gate.countDown();
+		m_detector.uninit();
+		TestFiles.delete(m_dir);
+	}
+
+	private String file(String name) throws IOException {
+		File file = new File(m_dir, name);
+		Files.write(file.toPath(), ("content of " + name).getBytes(StandardCharsets.UTF_8));
+		return file.getPath();
+	}
+
+	private void awaitUploading() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 3000;
+		while (m_transport.getUploadAttempts() == 0) {
+			assertTrue("upload never started", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private void awaitQueueSize(int size) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 3000;
+		while (m_detector.getQueueSize() != size) {
+			assertTrue("queue size " + m_detector.getQueueSize(), System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testFutureCompletesWithResult() throws Exception {
+		m_gate.countDown();
+		DetectResult res = m_detector.detectAsync(file("a.php"), 10000).get(10, TimeUnit.SECONDS);
+		assertEquals(ERR_CODE.ERR_SUCC, res.error_code);
+		assertEquals(DetectResult.RESULT.RES_WHITE, res.result);
+		assertEquals(0, m_detector.getQueueSize());
+	}
+
+	@Test
+	public void testErrorsCompleteNormally() throws Exception {
+		// 出错时future同样正常完成，错误码在结果中
+		DetectResult res = m_detector.detectAsync(new File(m_dir, "missing.php").getPath(), 10000).get(1, TimeUnit.SECONDS);
+		assertEquals(ERR_CODE.ERR_FILE_NOT_FOUND, res.error_code);
+	}
+
+	@Test
+	public void testCancelRemovesQueuedTask() throws Exception {
+		CompletableFuture<DetectResult> a = m_detector.detectAsync(file("a.php"), 10000);
+		CompletableFuture<DetectResult> b = m_detector.detectAsync(file("b.php"), 10000);
+		CompletableFuture<DetectResult> c = m_detector.detectAsync(file("c.php"), 10000);
+		awaitUploading();
+		Thread.sleep(200); // 检测线程阻塞在已满的上传阶段
+		CompletableFuture<DetectResult> queued = m_detector.detectAsync(file("d.php"), 10000);
+		awaitQueueSize(4);
+		assertTrue(queued.cancel(false));
+		// 检测线程仍被占用，任务直接从队列中移除并释放位置
+		awaitQueueSize(3);
+		m_gate.countDown();
+		for (CompletableFuture<DetectResult> future : new CompletableFuture[] { a, b, c }) {
+			assertEquals(ERR_CODE.ERR_SUCC, future.get(10, TimeUnit.SECONDS).error_code);
+		}
+		assertEquals("cancelled task never uploaded", 3, m_transport.getUploadCount());
+		awaitQueueSize(0);
+	}
+
+	@Test
+	public void testInterruptedDetectSyncCancelsTask() throws Exception {
+		final String path = file("a.php");
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		Thread caller = new Thread(new Runnable() {
+			public void run() {
+				try {
+					m_detector.detectSync(path, -1);
+					fail("detectSync returned while the upload was blocked");
+				} catch (Throwable e) {
+					error.set(e);
+				}
+			}
+		});
+		caller.start();
+		awaitUploading();
+		caller.interrupt();
+		caller.join(5000);
+		assertFalse(caller.isAlive());
+		assertTrue(String.valueOf(error.get()), error.get() instanceof InterruptedException);
+		// 上传线程仍在等待，取消后的任务在上传结束时释放位置，不再等待结果
+		m_gate.countDown();
+		awaitQueueSize(0);
+		assertEquals(0, m_transport.getCreateCount());
+		assertEquals("cancellation is not an early expiry", 0, m_detector.getMetrics().expire_early_count);
+	}
+}
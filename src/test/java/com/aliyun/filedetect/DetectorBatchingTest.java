@@ -0,0 +1,129 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DetectorBatchingTest {
+	private static final int FILE_NUM = 40;
+
+	private File m_dir;
+	private RecordingTransport m_transport;
+	private OpenAPIDetector m_detector;
+
+	@Before
+	public void setUp() throws IOException {
+		m_dir = Files.createTempDirectory("detector-batching").toFile();
+		m_transport = new RecordingTransport().setDetectTime(200);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (null != m_detector) {
+			m_detector.uninit();
+		}
+		TestFiles.delete(m_dir);
+	}
+
+	private void init(DetectorOptions.Builder builder) throws Exception {
+		m_detector = new OpenAPIDetector(builder.setTransport(m_transport).build());
+		assertEquals(ERR_CODE.ERR_SUCC, m_detector.init("test", "test"));
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(m_dir, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String md5(String content) throws Exception {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("MD5").digest(content.getBytes(StandardCharsets.UTF_8))) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+
+	private List<DetectResult> detectAll(List<File> files) throws Exception {
+		List<CompletableFuture<DetectResult>> futures = new ArrayList<>();
+		for (File file : files) {
+			futures.add(m_detector.detectAsync(file.getPath(), 30000));
+		}
+		List<DetectResult> results = new ArrayList<>();
+		for (CompletableFuture<DetectResult> future : futures) {
+			results.add(future.get());
+		}
+		return results;
+	}
+
+	private static int sum(List<Integer> sizes) {
+		int total = 0;
+		for (int size : sizes) {
+			total += size;
+		}
+		return total;
+	}
+
+	@Test
+	public void testPendingTasksShareLookupAndUploadUrlCalls() throws Exception {
+		init(DetectorOptions.builder());
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < FILE_NUM; i++) {
+			files.add(write("sample" + i + ".php", "<?php echo " + i + ";"));
+		}
+		for (DetectResult res : detectAll(files)) {
+			assertEquals(ERR_CODE.ERR_SUCC, res.error_code);
+			assertEquals(DetectResult.RESULT.RES_WHITE, res.result);
+		}
+		List<Integer> lookups = m_transport.getLookupSizes();
+		List<Integer> upload_urls = m_transport.getUploadUrlSizes();
+		assertTrue("lookup batches " + lookups, lookups.size() < FILE_NUM && Collections.max(lookups) > 1);
+		assertTrue("upload url batches " + upload_urls, upload_urls.size() < FILE_NUM && Collections.max(upload_urls) > 1);
+		// 每个md5只申请一次上传地址
+		assertEquals(FILE_NUM, sum(upload_urls));
+		assertEquals(FILE_NUM, m_transport.getUploadCount());
+		assertEquals(FILE_NUM, m_transport.getCreateCount());
+	}
+
+	@Test
+	public void testBatchSizeLimits() throws Exception {
+		init(DetectorOptions.builder().setQueryResultBatchSize(4).setUploadUrlBatchSize(3));
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < FILE_NUM; i++) {
+			files.add(write("sample" + i + ".jsp", "<% out.print(" + i + "); %>"));
+		}
+		for (DetectResult res : detectAll(files)) {
+			assertEquals(ERR_CODE.ERR_SUCC, res.error_code);
+		}
+		assertTrue(Collections.max(m_transport.getLookupSizes()) <= 4);
+		assertTrue(Collections.max(m_transport.getUploadUrlSizes()) <= 3);
+		assertEquals(FILE_NUM, sum(m_transport.getUploadUrlSizes()));
+	}
+
+	@Test
+	public void testExistingFileNotUploaded() throws Exception {
+		String content = "<?php eval($_POST['x']);";
+		m_transport.setStored(md5(content)).setBlack(md5(content));
+		init(DetectorOptions.builder());
+		DetectResult res = m_detector.detectSync(write("shell.php", content).getPath(), 30000);
+		assertEquals(ERR_CODE.ERR_SUCC, res.error_code);
+		assertEquals(DetectResult.RESULT.RES_BLACK, res.result);
+		assertEquals(md5(content), res.md5);
+		// 服务端已有文件时不上传，直接发起检测
+		assertEquals(0, m_transport.getUploadAttempts());
+		assertEquals(1, m_transport.getCreateCount());
+	}
+}
@@ -0,0 +1,146 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DispatchQueueTest {
+	private static ScanTask task(PRIORITY priority, int timeout) {
+		return new ScanTask(null, "/tmp/file", 0, timeout, priority, null);
+	}
+
+	@Test
+	public void testHigherPriorityFirst() {
+		DispatchQueue queue = new DispatchQueue(8, 60000);
+		ScanTask low = task(PRIORITY.PRI_LOW, 1000);
+		ScanTask normal = task(PRIORITY.PRI_NORMAL, 1000);
+		ScanTask high = task(PRIORITY.PRI_HIGH, 1000);
+		queue.offer(low);
+		queue.offer(normal);
+		queue.offer(high);
+		assertArrayEquals(new int[] { 1, 1, 1 }, queue.sizes());
+		assertSame(high, queue.peek());
+		assertSame(high, queue.poll());
+		assertSame(normal, queue.poll());
+		assertSame(low, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testEarliestDeadlineFirstWithinPriority() {
+		DispatchQueue queue = new DispatchQueue(8, 60000);
+		ScanTask late = task(PRIORITY.PRI_NORMAL, 5000);
+		ScanTask early = task(PRIORITY.PRI_NORMAL, 1000);
+		ScanTask same = task(PRIORITY.PRI_NORMAL, 5000);
+		queue.offer(late);
+		queue.offer(early);
+		queue.offer(same);
+		assertSame(early, queue.poll());
+		// 截止时间相同时按入队顺序
+		assertSame(late, queue.poll());
+		assertSame(same, queue.poll());
+	}
+
+	@Test
+	public void testNoTimeoutTaskAged() {
+		DispatchQueue queue = new DispatchQueue(8, 1000);
+		ScanTask no_timeout = task(PRIORITY.PRI_NORMAL, -1);
+		ScanTask later = task(PRIORITY.PRI_NORMAL, 5000);
+		ScanTask sooner = task(PRIORITY.PRI_NORMAL, 100);
+		queue.offer(later);
+		queue.offer(no_timeout);
+		queue.offer(sooner);
+		assertSame(sooner, queue.poll());
+		assertSame("no-timeout task sorted at submit time + age", no_timeout, queue.poll());
+		assertSame(later, queue.poll());
+	}
+
+	@Test
+	public void testLowPriorityNotStarved() {
+		int limit = 3;
+		DispatchQueue queue = new DispatchQueue(limit, 60000);
+		ScanTask low = task(PRIORITY.PRI_LOW, 1000);
+		queue.offer(low);
+		for (int i = 0; i < 10; i++) {
+			queue.offer(task(PRIORITY.PRI_HIGH, 1000));
+		}
+		for (int i = 0; i < limit; i++) {
+			assertEquals(PRIORITY.PRI_HIGH, ((ScanTask) queue.poll()).getPriority());
+		}
+		assertSame(low, queue.poll());
+		assertEquals(10 - limit, queue.size());
+	}
+
+	@Test
+	public void testStarvationCountResetWhenEmpty() {
+		DispatchQueue queue = new DispatchQueue(2, 60000);
+		queue.offer(task(PRIORITY.PRI_HIGH, 1000));
+		queue.offer(task(PRIORITY.PRI_HIGH, 1000));
+		queue.poll();
+		queue.poll();
+		// 低优先级任务此前未在排队，不累计被越过的次数
+		ScanTask low = task(PRIORITY.PRI_LOW, 1000);
+		queue.offer(low);
+		queue.offer(task(PRIORITY.PRI_HIGH, 1000));
+		assertEquals(PRIORITY.PRI_HIGH, ((ScanTask) queue.poll()).getPriority());
+		assertSame(low, queue.poll());
+	}
+
+	@Test
+	public void testPlainRunnableTreatedAsNormal() {
+		DispatchQueue queue = new DispatchQueue(8, 60000);
+		Runnable plain = new Runnable() {
+			public void run() {
+			}
+		};
+		ScanTask low = task(PRIORITY.PRI_LOW, 1000);
+		queue.offer(low);
+		queue.offer(plain);
+		assertSame(plain, queue.poll());
+		assertSame(low, queue.poll());
+	}
+
+	@Test
+	public void testRemoveAndDrain() {
+		DispatchQueue queue = new DispatchQueue(8, 60000);
+		ScanTask a = task(PRIORITY.PRI_NORMAL, 1000);
+		ScanTask b = task(PRIORITY.PRI_LOW, 1000);
+		ScanTask c = task(PRIORITY.PRI_HIGH, 1000);
+		queue.offer(a);
+		queue.offer(b);
+		queue.offer(c);
+		assertTrue(queue.remove(b));
+		assertFalse(queue.remove(b));
+		List<Runnable> drained = new ArrayList<>();
+		assertEquals(2, queue.drainTo(drained));
+		assertSame(c, drained.get(0));
+		assertSame(a, drained.get(1));
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void testPollTimeout() throws InterruptedException {
+		final DispatchQueue queue = new DispatchQueue(8, 60000);
+		assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+		final ScanTask t = task(PRIORITY.PRI_NORMAL, 1000);
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+				}
+				queue.offer(t);
+			}
+		}).start();
+		assertSame(t, queue.poll(5, TimeUnit.SECONDS));
+	}
+}
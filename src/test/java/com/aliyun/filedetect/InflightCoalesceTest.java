@@ -0,0 +1,151 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 同一内容的并发检测只上传一次，等待任务的超时与取消不依赖负责任务
+ */
+public class InflightCoalesceTest {
+	private static final String CONTENT = "<?php system($_GET['cmd']);";
+
+	private final Map<String, DetectResult> m_results = new ConcurrentHashMap<>();
+	private final Map<String, CountDownLatch> m_done = new ConcurrentHashMap<>();
+	private final CountDownLatch m_gate = new CountDownLatch(1);
+	private File m_dir;
+	private RecordingTransport m_transport;
+	private OpenAPIDetector m_detector;
+
+	private final IDetectResultCallback m_callback = new IDetectResultCallback() {
+		public void onScanResult(int seq, String file_path, DetectResult res) {
+			m_results.put(file_path, res);
+			m_done.get(file_path).countDown();
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		m_dir = Files.createTempDirectory("inflight").toFile();
+		m_transport = new RecordingTransport().setDetectTime(50).setUploadGate(m_gate);
+		m_detector = new OpenAPIDetector(DetectorOptions.builder().setTransport(m_transport).build());
+		m_detector.init("test", "test");
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		m_gate.countDown();
+		m_detector.uninit();
+		TestFiles.delete(m_dir);
+	}
+
+	private String copy(String name) throws IOException {
+		File file = new File(m_dir, name);
+		Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+		m_done.put(file.getPath(), new CountDownLatch(1));
+		return file.getPath();
+	}
+
+	private DetectResult await(String path) throws InterruptedException {
+		assertTrue("no result for " + path, m_done.get(path).await(10, TimeUnit.SECONDS));
+		return m_results.get(path);
+	}
+
+	// 负责任务开始上传后再提交等待任务
+	private void awaitUploading() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (m_transport.getUploadAttempts() == 0) {
+			assertTrue("owner never started uploading", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testSameContentUploadedOnce() throws Exception {
+		m_gate.countDown();
+		String a = copy("a.php");
+		String b = copy("b.php");
+		String c = copy("c.php");
+		m_detector.detect(a, 10000, m_callback);
+		m_detector.detect(b, 10000, m_callback);
+		m_detector.detect(c, 10000, m_callback);
+		for (String path : new String[] { a, b, c }) {
+			assertEquals(ERR_CODE.ERR_SUCC, await(path).error_code);
+		}
+		assertEquals(1, m_transport.getUploadCount());
+		assertEquals(1, m_transport.getCreateCount());
+	}
+
+	@Test
+	public void testWaiterTimesOutWhileOwnerUploads() throws Exception {
+		String owner = copy("owner.php");
+		String waiter = copy("waiter.php");
+		m_detector.detect(owner, 10000, m_callback);
+		awaitUploading();
+		long start = System.currentTimeMillis();
+		m_detector.detect(waiter, 300, m_callback);
+		DetectResult res = await(waiter);
+		assertEquals(ERR_CODE.ERR_TIMEOUT, res.error_code);
+		assertTrue("timed out after " + (System.currentTimeMillis() - start), System.currentTimeMillis() - start < 2000);
+		assertEquals("owner still uploading", 1, m_done.get(owner).getCount());
+		m_gate.countDown();
+		assertEquals(ERR_CODE.ERR_SUCC, await(owner).error_code);
+		assertEquals(1, m_transport.getUploadAttempts());
+	}
+
+	@Test
+	public void testCancelledWaiterLeavesOwnerAlone() throws Exception {
+		String owner = copy("owner.php");
+		String waiter = copy("waiter.php");
+		m_detector.detect(owner, 10000, m_callback);
+		awaitUploading();
+		CompletableFuture<DetectResult> future = m_detector.detectAsync(waiter, 10000);
+		Thread.sleep(200); // 等待计算md5后加入负责任务的等待列表
+		assertEquals(2, m_detector.getQueueSize());
+		future.cancel(false);
+		// 取消的等待任务立即结束并释放队列位置
+		long deadline = System.currentTimeMillis() + 2000;
+		while (m_detector.getQueueSize() > 1) {
+			assertTrue("cancelled waiter still queued", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		m_gate.countDown();
+		assertEquals(ERR_CODE.ERR_SUCC, await(owner).error_code);
+		assertEquals(1, m_transport.getUploadCount());
+	}
+
+	@Test
+	public void testWaiterTakesOverWhenOwnerTimesOut() throws Exception {
+		String owner = copy("owner.php");
+		String waiter = copy("waiter.php");
+		m_detector.detect(owner, 500, m_callback);
+		awaitUploading();
+		m_detector.detect(waiter, 10000, m_callback);
+		assertEquals(ERR_CODE.ERR_TIMEOUT, await(owner).error_code);
+		// 负责任务超时后等待任务重新发起检测，而不是共享超时结果
+		long deadline = System.currentTimeMillis() + 5000;
+		while (m_transport.getUploadAttempts() < 2) {
+			assertTrue("waiter did not retry the upload", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		m_gate.countDown();
+		DetectResult res = await(waiter);
+		assertNotNull(res);
+		assertEquals(ERR_CODE.ERR_SUCC, res.error_code);
+		assertEquals(1, m_transport.getUploadCount());
+	}
+}
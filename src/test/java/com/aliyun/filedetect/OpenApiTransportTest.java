@@ -0,0 +1,138 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlList;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlListContext;
+import com.aliyun.teautil.models.RuntimeOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class OpenApiTransportTest {
+	private File m_file;
+	private byte[] m_content;
+
+	@Before
+	public void setUp() throws IOException {
+		m_content = new byte[100000];
+		new Random(7).nextBytes(m_content);
+		m_file = File.createTempFile("upload", ".bin");
+		Files.write(m_file.toPath(), m_content);
+	}
+
+	@After
+	public void tearDown() {
+		m_file.delete();
+	}
+
+	private byte[] write(long length, int buffer_size) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(m_file.toPath(), StandardOpenOption.READ)) {
+			OpenApiTransport.writeFileContent(out, channel, length, new byte[buffer_size]);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testWriteWholeFileThroughSmallBuffer() throws IOException {
+		assertArrayEquals(m_content, write(m_content.length, 4096));
+		// 缓冲区大于文件时一次读完
+		assertArrayEquals(m_content, write(m_content.length, 1 << 20));
+	}
+
+	@Test
+	public void testWriteOnlyRequestedLength() throws IOException {
+		// 上传开始后文件变长，只发送开始时的长度
+		assertArrayEquals(Arrays.copyOf(m_content, 12345), write(12345, 4096));
+		assertEquals(0, write(0, 4096).length);
+	}
+
+	@Test
+	public void testTruncatedFileFails() throws IOException {
+		try {
+			write(m_content.length + 1, 4096);
+			fail("short file accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+		}
+	}
+
+	@Test
+	public void testMultipartHeadSkipsNullFields() {
+		Map<String, String> fields = new LinkedHashMap<>();
+		fields.put("key", "fake/abc");
+		fields.put("policy", null);
+		String head = new String(OpenApiTransport.multipartHead(fields, m_file), StandardCharsets.UTF_8);
+		assertTrue(head.contains("name=\"key\"\r\n\r\nfake/abc\r\n"));
+		assertTrue(!head.contains("policy"));
+		assertTrue(head.contains("filename=\"" + m_file.getName() + "\""));
+		assertTrue(head.endsWith("\r\n\r\n"));
+	}
+
+	@Test
+	public void testUploadSendsFixedLengthBody() throws Exception {
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		final String[] length = new String[1];
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				length[0] = exchange.getRequestHeaders().getFirst("Content-Length");
+				byte[] buffer = new byte[8192];
+				int bytes;
+				try (InputStream in = exchange.getRequestBody()) {
+					while ((bytes = in.read(buffer)) != -1) {
+						received.write(buffer, 0, bytes);
+					}
+				}
+				exchange.sendResponseHeaders(204, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		OpenApiTransport transport = new OpenApiTransport(null);
+		try {
+			CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url = new CreateFileDetectUploadUrlResponseBodyUploadUrlList();
+			upload_url.publicUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+			upload_url.context = new CreateFileDetectUploadUrlResponseBodyUploadUrlListContext();
+			upload_url.context.ossKey = "fake/abc";
+			upload_url.context.accessId = "id";
+			upload_url.context.policy = "policy";
+			upload_url.context.signature = "signature";
+			RuntimeOptions runtime = new RuntimeOptions();
+			runtime.connectTimeout = 5000;
+			runtime.readTimeout = 5000;
+			transport.uploadFile(m_file.getPath(), upload_url, runtime, System.currentTimeMillis() + 10000);
+		} finally {
+			transport.close();
+			server.stop(0);
+		}
+		byte[] body = received.toByteArray();
+		assertEquals(String.valueOf(body.length), length[0]);
+		String text = new String(body, StandardCharsets.ISO_8859_1);
+		int start = text.indexOf("\r\n\r\n", text.indexOf("name=\"file\"")) + 4;
+		assertArrayEquals(m_content, Arrays.copyOfRange(body, start, start + m_content.length));
+		assertArrayEquals(OpenApiTransport.MULTIPART_END, Arrays.copyOfRange(body, start + m_content.length, body.length));
+	}
+}
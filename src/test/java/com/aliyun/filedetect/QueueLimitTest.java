@@ -0,0 +1,148 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlList;
+import com.aliyun.teautil.models.RuntimeOptions;
+
+/**
+ * 队列上限对所有未结束的任务生效，包括命中缓存的任务与重新初始化前遗留的任务
+ */
+public class QueueLimitTest {
+	private static final int QUEUE_SIZE_MAX = 3;
+
+	private File m_dir;
+	private OpenAPIDetector m_detector;
+
+	private static final IDetectResultCallback IGNORE = new IDetectResultCallback() {
+		public void onScanResult(int seq, String file_path, DetectResult res) {
+		}
+	};
+
+	@Before
+	public void setUp() throws IOException {
+		m_dir = Files.createTempDirectory("queue-limit").toFile();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (null != m_detector) {
+			m_detector.uninit();
+		}
+		TestFiles.delete(m_dir);
+	}
+
+	private void init(DetectTransport transport) throws Exception {
+		m_detector = new OpenAPIDetector(DetectorOptions.builder().setTransport(transport).setQueueSizeMax(QUEUE_SIZE_MAX).build());
+		assertEquals(ERR_CODE.ERR_SUCC, m_detector.init("test", "test"));
+	}
+
+	private String file(String name) throws IOException {
+		File file = new File(m_dir, name);
+		Files.write(file.toPath(), ("queue limit " + name).getBytes(StandardCharsets.UTF_8));
+		return file.getPath();
+	}
+
+	private void awaitQueueSize(int size) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (m_detector.getQueueSize() != size) {
+			assertTrue("queue size " + m_detector.getQueueSize(), System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private void fill(int from) throws IOException {
+		for (int i = from; i < from + QUEUE_SIZE_MAX; i++) {
+			assertTrue(m_detector.detect(file("busy" + i + ".php"), 30000, IGNORE) > 0);
+		}
+		assertEquals(QUEUE_SIZE_MAX, m_detector.getQueueSize());
+	}
+
+	@Test
+	public void testCacheHitCountsAgainstLimit() throws Exception {
+		RecordingTransport transport = new RecordingTransport();
+		init(transport);
+		String cached = file("cached.php");
+		assertEquals(ERR_CODE.ERR_SUCC, m_detector.detectSync(cached, 10000).error_code);
+		awaitQueueSize(0);
+
+		CountDownLatch gate = new CountDownLatch(1);
+		transport.setUploadGate(gate);
+		fill(0);
+		// 已有结果的文件同样需要队列位置
+		assertEquals(ERR_CODE.ERR_DETECT_QUEUE_FULL.value(), m_detector.detect(cached, 10000, IGNORE));
+		gate.countDown();
+		awaitQueueSize(0);
+
+		final AtomicReference<DetectResult> hit = new AtomicReference<>();
+		final CountDownLatch done = new CountDownLatch(1);
+		assertTrue(m_detector.detect(cached, 10000, new IDetectResultCallback() {
+			public void onScanResult(int seq, String file_path, DetectResult res) {
+				hit.set(res);
+				done.countDown();
+			}
+		}) > 0);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(hit.get().timing.cache_hit);
+		awaitQueueSize(0);
+	}
+
+	@Test
+	public void testStaleTaskEndingAfterReinitNotCounted() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch stuck = new CountDownLatch(1);
+		final String stale_path = file("stale.php");
+		// 上传不响应中断，超过uninit的等待时间，在重新初始化后才结束
+		RecordingTransport transport = new RecordingTransport() {
+			@Override
+			public void uploadFile(String path, CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url, RuntimeOptions runtime, long deadline)
+					throws Exception {
+				if (stale_path.equals(path)) {
+					entered.countDown();
+					boolean interrupted = false;
+					while (true) {
+						try {
+							stuck.await();
+							break;
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+					if (interrupted) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				super.uploadFile(path, upload_url, runtime, deadline);
+			}
+		}.setDetectTime(5000);
+		init(transport);
+		final CountDownLatch stale_done = new CountDownLatch(1);
+		assertTrue(m_detector.detect(stale_path, -1, new IDetectResultCallback() {
+			public void onScanResult(int seq, String file_path, DetectResult res) {
+				stale_done.countDown();
+			}
+		}) > 0);
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+		m_detector.uninit();
+		assertEquals(ERR_CODE.ERR_SUCC, m_detector.init("test", "test"));
+		// 新的任务检测用时较长，在遗留任务结束后仍在等待结果
+		fill(0);
+		stuck.countDown();
+		assertTrue(stale_done.await(5, TimeUnit.SECONDS));
+		assertEquals(QUEUE_SIZE_MAX, m_detector.getQueueSize());
+		assertEquals(ERR_CODE.ERR_DETECT_QUEUE_FULL.value(), m_detector.detect(file("extra.php"), 30000, IGNORE));
+	}
+}
@@ -0,0 +1,132 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+	private static final String ACTION = RateLimiter.GET_FILE_DETECT_RESULT;
+
+	// 不等待时可获得的许可数
+	private static int drain(RateLimiter limiter, String action) {
+		int count = 0;
+		while (count < 1000 && limiter.acquire(action, System.currentTimeMillis())) {
+			count++;
+		}
+		return count;
+	}
+
+	@Test
+	public void testBurstUpToOneSecond() {
+		RateLimiter limiter = new RateLimiter(10);
+		int count = drain(limiter, ACTION);
+		assertTrue("burst " + count, count >= 10 && count <= 12);
+	}
+
+	@Test
+	public void testFailFastBeforeDeadline() {
+		RateLimiter limiter = new RateLimiter(10);
+		drain(limiter, ACTION);
+		long start = System.currentTimeMillis();
+		assertFalse(limiter.acquire(ACTION, start + 30));
+		assertTrue("no sleep when the deadline cannot be met", System.currentTimeMillis() - start < 20);
+		// 许可间隔100毫秒，等待足够久时获得许可
+		assertTrue(limiter.acquire(ACTION, System.currentTimeMillis() + 500));
+	}
+
+	@Test
+	public void testUnlimitedUntilThrottled() {
+		RateLimiter limiter = new RateLimiter(0);
+		assertEquals(1000, drain(limiter, ACTION));
+		assertEquals(0, limiter.getRate(ACTION), 1e-9);
+		limiter.onThrottled(ACTION);
+		// 以被限流前一秒内的调用次数减半
+		assertEquals(500, limiter.getRate(ACTION), 1e-9);
+		for (int i = 0; i < 9; i++) {
+			limiter.onSuccess(ACTION);
+		}
+		assertEquals(500 + 9 * 1000 * Config.API_RATE_RECOVER_RATIO, limiter.getRate(ACTION), 1e-9);
+		for (int i = 0; i < 20; i++) {
+			limiter.onSuccess(ACTION);
+		}
+		assertEquals("unlimited again once recovered", 0, limiter.getRate(ACTION), 1e-9);
+	}
+
+	@Test
+	public void testActionsIndependent() {
+		RateLimiter limiter = new RateLimiter(10);
+		drain(limiter, ACTION);
+		assertTrue(limiter.acquire(RateLimiter.CREATE_FILE_DETECT, System.currentTimeMillis()));
+	}
+
+	@Test
+	public void testThrottleHalvesRateOncePerBatch() {
+		RateLimiter limiter = new RateLimiter(20);
+		limiter.onThrottled(ACTION);
+		assertEquals(10, limiter.getRate(ACTION), 1e-9);
+		// 同一批并发请求的限流应答只减速一次
+		limiter.onThrottled(ACTION);
+		assertEquals(10, limiter.getRate(ACTION), 1e-9);
+		assertEquals(2, limiter.getThrottleCount(ACTION));
+		assertEquals(20, limiter.getRate(RateLimiter.CREATE_FILE_DETECT), 1e-9);
+	}
+
+	@Test
+	public void testThrottleBlocksPermits() {
+		RateLimiter limiter = new RateLimiter(1000);
+		limiter.onThrottled(ACTION);
+		long now = System.currentTimeMillis();
+		assertFalse(limiter.acquire(ACTION, now + Config.REQUEST_TOO_FREQUENTLY_SLEEP_TIME / 2));
+		assertTrue(limiter.acquire(ACTION, now + Config.REQUEST_TOO_FREQUENTLY_SLEEP_TIME * 3));
+	}
+
+	@Test
+	public void testRateFloorAndRecovery() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(1.5);
+		limiter.onThrottled(ACTION);
+		assertEquals(Config.API_RATE_MIN, limiter.getRate(ACTION), 1e-9);
+		limiter.setRate(ACTION, 20);
+		Thread.sleep(Config.REQUEST_TOO_FREQUENTLY_SLEEP_TIME + 10);
+		limiter.onThrottled(ACTION);
+		assertEquals(10, limiter.getRate(ACTION), 1e-9);
+		for (int i = 0; i < 5; i++) {
+			limiter.onSuccess(ACTION);
+		}
+		assertEquals(10 + 5 * 20 * Config.API_RATE_RECOVER_RATIO, limiter.getRate(ACTION), 1e-9);
+		for (int i = 0; i < 100; i++) {
+			limiter.onSuccess(ACTION);
+		}
+		assertEquals("recovers up to the configured rate", 20, limiter.getRate(ACTION), 1e-9);
+	}
+
+	@Test
+	public void testSetRateForAllActions() {
+		RateLimiter limiter = new RateLimiter(10);
+		limiter.getRate(ACTION);
+		limiter.setRate(null, 50);
+		assertEquals(50, limiter.getRate(ACTION), 1e-9);
+		assertEquals(50, limiter.getRate(RateLimiter.CREATE_FILE_DETECT_UPLOAD_URL), 1e-9);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeRateRejected() {
+		new RateLimiter(10).setRate(ACTION, -1);
+	}
+
+	@Test
+	public void testInterruptedWhileWaiting() {
+		RateLimiter limiter = new RateLimiter(1);
+		drain(limiter, ACTION);
+		Thread.currentThread().interrupt();
+		try {
+			assertFalse(limiter.acquire(ACTION, System.currentTimeMillis() + 5000));
+			assertTrue("interrupt status kept", Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+		// 被中断时归还的许可可再次获得，否则下一许可在两秒后
+		assertTrue(limiter.acquire(ACTION, System.currentTimeMillis() + 1500));
+	}
+}
@@ -0,0 +1,170 @@
+package com.aliyun.filedetect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aliyun.sas20181203.models.CreateFileDetectRequest;
+import com.aliyun.sas20181203.models.CreateFileDetectResponse;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlRequest;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlRequest.CreateFileDetectUploadUrlRequestHashKeyContextList;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponse;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlList;
+import com.aliyun.sas20181203.models.CreateFileDetectUploadUrlResponseBody.CreateFileDetectUploadUrlResponseBodyUploadUrlListContext;
+import com.aliyun.sas20181203.models.GetFileDetectResultRequest;
+import com.aliyun.sas20181203.models.GetFileDetectResultResponse;
+import com.aliyun.sas20181203.models.GetFileDetectResultResponseBody;
+import com.aliyun.sas20181203.models.GetFileDetectResultResponseBody.GetFileDetectResultResponseBodyResultList;
+import com.aliyun.teautil.models.RuntimeOptions;
+
+/**
+ * 测试用的内存检测服务，记录每次调用的批量大小
+ *
+ * 上传后发起检测的样本经过detect_time后得到白结果，setBlack指定的md5为黑；
+ * setStored指定的md5在服务端已有文件，申请上传地址时返回fileExist
+ */
+class RecordingTransport implements DetectTransport {
+	private final Map<String, Long> m_ready_times = new ConcurrentHashMap<>(); // md5 -> 得到结果的时间
+	private final Set<String> m_black = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Set<String> m_stored = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final List<Integer> m_lookup_sizes = Collections.synchronizedList(new ArrayList<Integer>());
+	private final List<Integer> m_upload_url_sizes = Collections.synchronizedList(new ArrayList<Integer>());
+	private final AtomicInteger m_upload_attempts = new AtomicInteger();
+	private final AtomicInteger m_upload_count = new AtomicInteger();
+	private final AtomicInteger m_create_count = new AtomicInteger();
+	private volatile int m_detect_time = 0;
+	private volatile CountDownLatch m_upload_gate = null;
+
+	RecordingTransport setDetectTime(int detect_time) {
+		m_detect_time = detect_time;
+		return this;
+	}
+
+	RecordingTransport setBlack(String md5) {
+		m_black.add(md5);
+		return this;
+	}
+
+	RecordingTransport setStored(String md5) {
+		m_stored.add(md5);
+		return this;
+	}
+
+	/**
+	 * 上传等待gate打开，到达截止时间时按上传被中止失败
+	 */
+	RecordingTransport setUploadGate(CountDownLatch gate) {
+		m_upload_gate = gate;
+		return this;
+	}
+
+	List<Integer> getLookupSizes() {
+		synchronized (m_lookup_sizes) {
+			return new ArrayList<>(m_lookup_sizes);
+		}
+	}
+
+	List<Integer> getUploadUrlSizes() {
+		synchronized (m_upload_url_sizes) {
+			return new ArrayList<>(m_upload_url_sizes);
+		}
+	}
+
+	int getUploadAttempts() {
+		return m_upload_attempts.get();
+	}
+
+	int getUploadCount() {
+		return m_upload_count.get();
+	}
+
+	int getCreateCount() {
+		return m_create_count.get();
+	}
+
+	@Override
+	public GetFileDetectResultResponse getFileDetectResult(GetFileDetectResultRequest request, RuntimeOptions runtime) {
+		m_lookup_sizes.add(request.hashKeyList.size());
+		long now = System.currentTimeMillis();
+		List<GetFileDetectResultResponseBodyResultList> result_list = new ArrayList<>();
+		for (String md5 : request.hashKeyList) {
+			Long ready_time = m_ready_times.get(md5);
+			if (null == ready_time) {
+				continue; // 无检测记录
+			}
+			GetFileDetectResultResponseBodyResultList result = new GetFileDetectResultResponseBodyResultList();
+			result.hashKey = md5;
+			if (now < ready_time) {
+				result.result = ScanTask.IS_DETECTING;
+			} else if (m_black.contains(md5)) {
+				result.result = ScanTask.IS_BLACK;
+				result.score = 100;
+				result.virusType = "WebShell";
+			} else {
+				result.result = ScanTask.IS_OK;
+				result.score = 0;
+			}
+			result_list.add(result);
+		}
+		GetFileDetectResultResponse response = new GetFileDetectResultResponse();
+		response.body = new GetFileDetectResultResponseBody();
+		response.body.resultList = result_list;
+		return response;
+	}
+
+	@Override
+	public CreateFileDetectUploadUrlResponse createFileDetectUploadUrl(CreateFileDetectUploadUrlRequest request, RuntimeOptions runtime) {
+		m_upload_url_sizes.add(request.hashKeyContextList.size());
+		List<CreateFileDetectUploadUrlResponseBodyUploadUrlList> url_list = new ArrayList<>();
+		for (CreateFileDetectUploadUrlRequestHashKeyContextList hash_context : request.hashKeyContextList) {
+			CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url = new CreateFileDetectUploadUrlResponseBodyUploadUrlList();
+			upload_url.hashKey = hash_context.hashKey;
+			upload_url.fileExist = m_stored.contains(hash_context.hashKey);
+			if (!upload_url.fileExist) {
+				upload_url.publicUrl = "http://127.0.0.1/unused";
+				upload_url.context = new CreateFileDetectUploadUrlResponseBodyUploadUrlListContext();
+				upload_url.context.ossKey = "test/" + hash_context.hashKey;
+			}
+			url_list.add(upload_url);
+		}
+		CreateFileDetectUploadUrlResponse response = new CreateFileDetectUploadUrlResponse();
+		response.body = new CreateFileDetectUploadUrlResponseBody();
+		response.body.uploadUrlList = url_list;
+		return response;
+	}
+
+	@Override
+	public void uploadFile(String path, CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url, RuntimeOptions runtime) throws Exception {
+		uploadFile(path, upload_url, runtime, Long.MAX_VALUE);
+	}
+
+	@Override
+	public void uploadFile(String path, CreateFileDetectUploadUrlResponseBodyUploadUrlList upload_url, RuntimeOptions runtime, long deadline)
+			throws Exception {
+		m_upload_attempts.incrementAndGet();
+		CountDownLatch gate = m_upload_gate;
+		if (null != gate) {
+			long wait_time = Long.MAX_VALUE == deadline ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+			if (!gate.await(wait_time, TimeUnit.MILLISECONDS)) {
+				throw new IOException("upload aborted at deadline");
+			}
+		}
+		m_upload_count.incrementAndGet();
+		m_stored.add(upload_url.hashKey);
+	}
+
+	@Override
+	public CreateFileDetectResponse createFileDetect(CreateFileDetectRequest request, RuntimeOptions runtime) {
+		m_create_count.incrementAndGet();
+		m_ready_times.putIfAbsent(request.hashKey, System.currentTimeMillis() + m_detect_time);
+		return new CreateFileDetectResponse();
+	}
+}
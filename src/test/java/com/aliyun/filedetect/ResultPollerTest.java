@@ -0,0 +1,111 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.aliyun.sas20181203.models.CreateFileDetectRequest;
+import com.aliyun.teautil.models.RuntimeOptions;
+
+public class ResultPollerTest {
+	private static final int INTERVAL = 100;
+	private static final int MAX_INTERVAL = 2000;
+
+	private static ResultPoller poller(RecordingTransport transport) {
+		DetectorOptions options = DetectorOptions.builder().setQueryResultInterval(INTERVAL).setQueryResultMaxInterval(MAX_INTERVAL).build();
+		return new ResultPoller(transport, new RuntimeOptions(), new DispatchQueue(8, 60000), new VerdictCache(100, 1 << 20, 0, 0, 0, null),
+				new RateLimiter(0), new DetectorMetrics(), options);
+	}
+
+	private static void assertJittered(long expected, long delay) {
+		double jitter = Config.QUERY_RESULT_JITTER;
+		assertTrue(delay + " not around " + expected, delay >= expected * (1 - jitter) - 1 && delay <= expected * (1 + jitter) + 1);
+	}
+
+	@Test
+	public void testBackoffDoublesUpToMaxInterval() {
+		ResultPoller poller = poller(new RecordingTransport());
+		// 尚无检测用时样本时以最小间隔为基数
+		assertJittered(INTERVAL, poller.getFirstPollDelay());
+		assertJittered(INTERVAL, poller.getNextPollDelay(1));
+		assertJittered(INTERVAL * 2, poller.getNextPollDelay(2));
+		assertJittered(INTERVAL * 8, poller.getNextPollDelay(4));
+		assertJittered(MAX_INTERVAL, poller.getNextPollDelay(6));
+		assertJittered(MAX_INTERVAL, poller.getNextPollDelay(1000));
+	}
+
+	// 多次取首次查询等待时间的平均值，消除随机抖动
+	private static long averageFirstPollDelay(ResultPoller poller) {
+		long total = 0;
+		for (int i = 0; i < 1000; i++) {
+			total += poller.getFirstPollDelay();
+		}
+		return total / 1000;
+	}
+
+	/**
+	 * 轮询一个已有结果的样本，该样本在submit_ago毫秒前发起检测，last_poll_ago毫秒前最后一次查询到检测中
+	 */
+	private static void pollFinished(ResultPoller poller, String md5, long submit_ago, long last_poll_ago) {
+		long now = System.currentTimeMillis();
+		ScanTask task = new ScanTask(null, "/tmp/" + md5, 0, -1, PRIORITY.PRI_NORMAL, null);
+		task.markSubmitted(now - submit_ago);
+		if (last_poll_ago >= 0) {
+			task.incPollCount(now - last_poll_ago);
+		}
+		Map<String, List<ScanTask>> tasks = new HashMap<>();
+		tasks.put(md5, new ArrayList<>(Arrays.asList(task)));
+		poller.process(tasks);
+		assertTrue("result not dispatched", tasks.isEmpty());
+	}
+
+	@Test
+	public void testEstimateUsesMidpointOfLastTwoPolls() {
+		RecordingTransport transport = new RecordingTransport();
+		ResultPoller poller = poller(transport);
+		for (int i = 0; i < 40; i++) {
+			String md5 = String.format("%032x", i);
+			transport.createFileDetect(new CreateFileDetectRequest().setHashKey(md5), null);
+			// 检测完成于发起后800到1000毫秒之间，按900毫秒估算，而不是查询到结果的1000毫秒
+			pollFinished(poller, md5, 1000, 200);
+		}
+		long first_delay = averageFirstPollDelay(poller);
+		assertTrue("first poll after " + first_delay, first_delay >= 430 && first_delay <= 470);
+	}
+
+	@Test
+	public void testEstimateWithoutDetectingPoll() {
+		RecordingTransport transport = new RecordingTransport();
+		ResultPoller poller = poller(transport);
+		for (int i = 0; i < 40; i++) {
+			String md5 = String.format("%032x", i);
+			transport.createFileDetect(new CreateFileDetectRequest().setHashKey(md5), null);
+			// 首次查询即得到结果，检测完成于发起后0到1000毫秒之间
+			pollFinished(poller, md5, 1000, -1);
+		}
+		long first_delay = averageFirstPollDelay(poller);
+		assertTrue("first poll after " + first_delay, first_delay >= 230 && first_delay <= 270);
+	}
+
+	@Test
+	public void testLookupBeforeSubmitNotSampled() {
+		RecordingTransport transport = new RecordingTransport();
+		ResultPoller poller = poller(transport);
+		for (int i = 0; i < 40; i++) {
+			String md5 = String.format("%032x", i);
+			transport.createFileDetect(new CreateFileDetectRequest().setHashKey(md5), null);
+			// 未发起检测即查询到的结果（服务端已有结果）不代表检测用时
+			ScanTask task = new ScanTask(null, "/tmp/" + md5, 0, -1, PRIORITY.PRI_NORMAL, null);
+			Map<String, List<ScanTask>> tasks = new HashMap<>();
+			tasks.put(md5, new ArrayList<>(Arrays.asList(task)));
+			poller.process(tasks);
+		}
+		assertJittered(INTERVAL, poller.getFirstPollDelay());
+	}
+}
@@ -0,0 +1,163 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScanManifestTest {
+	private File m_dir;
+
+	private static DetectResult result(DetectResult.RESULT verdict, String md5, int score, String virus_type, String ext_info) {
+		DetectResult res = new DetectResult();
+		res.error_code = ERR_CODE.ERR_SUCC;
+		res.md5 = md5;
+		res.result = verdict;
+		res.score = score;
+		res.virus_type = virus_type;
+		res.ext_info = ext_info;
+		return res;
+	}
+
+	private static DetectResult white(String md5) {
+		return result(DetectResult.RESULT.RES_WHITE, md5, 0, null, null);
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		m_dir = Files.createTempDirectory("scan-manifest").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		TestFiles.delete(m_dir);
+	}
+
+	@Test
+	public void testSaveLoadRoundTrip() throws IOException {
+		long now = System.currentTimeMillis();
+		ScanManifest manifest = new ScanManifest();
+		manifest.record("/data/a/1.php", 100, now - 10000, now, white("0123456789abcdef0123456789abcdef"), 0);
+		manifest.record("/data/a/2.php", 0, now - 50000, now, result(DetectResult.RESULT.RES_BLACK,
+				"fedcba9876543210fedcba9876543210", 100, "WebShell", "{\"highlight\":[[1,2]]}"), 0);
+		// 路径排序后的前一条目更长、修改时间更晚，验证前缀与差值编码
+		manifest.record("/data/a/10.php", 1L << 40, now - 90000000, now, white("00000000000000000000000000000001"), 0);
+		manifest.record("/data/目录/文件😀.txt", 7, 0, now, white("00000000000000000000000000000002"), 0);
+		File file = new File(m_dir, "manifest.bin");
+		manifest.save(file);
+
+		ScanManifest loaded = ScanManifest.load(file);
+		assertEquals(4, loaded.size());
+		ScanManifest.Entry entry = loaded.get("/data/a/2.php");
+		assertNotNull(entry);
+		assertEquals(0, entry.size);
+		assertEquals(now - 50000, entry.mtime);
+		assertEquals("fedcba9876543210fedcba9876543210", entry.md5);
+		assertEquals(DetectResult.RESULT.RES_BLACK, entry.result);
+		assertEquals(100, entry.score);
+		assertEquals("WebShell", entry.virus_type);
+		assertEquals("{\"highlight\":[[1,2]]}", entry.ext_info);
+		assertEquals(manifest.get("/data/a/2.php").verdict_time, entry.verdict_time);
+
+		entry = loaded.get("/data/a/10.php");
+		assertEquals(1L << 40, entry.size);
+		assertEquals(now - 90000000, entry.mtime);
+		assertEquals(DetectResult.RESULT.RES_WHITE, entry.result);
+		assertNull(entry.virus_type);
+		assertNull(entry.ext_info);
+
+		entry = loaded.get("/data/目录/文件😀.txt");
+		assertNotNull(entry);
+		assertEquals(0, entry.mtime);
+		assertNotNull(loaded.get("/data/a/1.php"));
+	}
+
+	@Test
+	public void testLoadMissingFileIsEmpty() throws IOException {
+		assertEquals(0, ScanManifest.load(new File(m_dir, "none.bin")).size());
+	}
+
+	@Test
+	public void testLoadCorruptFileFails() throws IOException {
+		ScanManifest manifest = new ScanManifest();
+		long now = System.currentTimeMillis();
+		manifest.record("/data/1.php", 100, now - 10000, now, white("0123456789abcdef0123456789abcdef"), 0);
+		File file = new File(m_dir, "manifest.bin");
+		manifest.save(file);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(raf.length() - 6);
+			raf.write(raf.read() ^ 0xff);
+		}
+		try {
+			ScanManifest.load(file);
+			fail("corrupt manifest loaded");
+		} catch (IOException e) {
+			// 校验失败
+		}
+	}
+
+	@Test
+	public void testLookup() {
+		long now = System.currentTimeMillis();
+		ScanManifest manifest = new ScanManifest();
+		manifest.record("/data/1.php", 100, now - 10000, now, white("0123456789abcdef0123456789abcdef"), 0);
+		assertNotNull(manifest.lookup("/data/1.php", 100, now - 10000, 0, 1));
+		assertNull("size changed", manifest.lookup("/data/1.php", 101, now - 10000, 0, 1));
+		assertNull("mtime changed", manifest.lookup("/data/1.php", 100, now - 9000, 0, 1));
+		assertNull("unknown file", manifest.lookup("/data/2.php", 100, now - 10000, 0, 1));
+		assertNotNull(manifest.lookup("/data/1.php", 100, now - 10000, 60000, 1));
+	}
+
+	@Test
+	public void testLookupExpired() throws InterruptedException {
+		long now = System.currentTimeMillis();
+		ScanManifest manifest = new ScanManifest();
+		manifest.record("/data/1.php", 100, now - 10000, now, white("0123456789abcdef0123456789abcdef"), 0);
+		Thread.sleep(30);
+		assertNull(manifest.lookup("/data/1.php", 100, now - 10000, 10, 1));
+	}
+
+	@Test
+	public void testRecordSkipsFailedAndRacyFiles() {
+		long now = System.currentTimeMillis();
+		ScanManifest manifest = new ScanManifest();
+		manifest.record("/data/1.php", 100, now - 10000, now, white("0123456789abcdef0123456789abcdef"), 0);
+		DetectResult failed = new DetectResult();
+		failed.error_code = ERR_CODE.ERR_TIMEOUT;
+		manifest.record("/data/1.php", 100, now - 10000, now, failed, 0);
+		assertNull("failed detection removes entry", manifest.get("/data/1.php"));
+		// 修改时间距读取时间过近，同一时间粒度内的再次修改无法发现
+		manifest.record("/data/2.php", 100, now - 10, now, white("0123456789abcdef0123456789abcdef"), 0);
+		assertNull(manifest.get("/data/2.php"));
+	}
+
+	@Test
+	public void testPruneUnseenEntries() {
+		long now = System.currentTimeMillis();
+		ScanManifest manifest = new ScanManifest();
+		manifest.record("/data/1.php", 1, now - 10000, now, white("0123456789abcdef0123456789abcdef"), 0);
+		manifest.record("/data/2.php", 2, now - 10000, now, white("0123456789abcdef0123456789abcdef"), 0);
+		manifest.record("/data/3.php", 3, now - 10000, now, white("0123456789abcdef0123456789abcdef"), 0);
+		manifest.record("/data2/1.php", 1, now - 10000, now, white("0123456789abcdef0123456789abcdef"), 0);
+		int generation = manifest.beginScan();
+		ScanManifest.Entry seen = manifest.lookup("/data/1.php", 1, now - 10000, 0, generation);
+		manifest.touch("/data/2.php", generation);
+		manifest.prune("/data", generation);
+		assertSame(seen, manifest.get("/data/1.php"));
+		assertNotNull(manifest.get("/data/2.php"));
+		assertNull(manifest.get("/data/3.php"));
+		assertNotNull("outside the scanned root", manifest.get("/data2/1.php"));
+		manifest.remove("/data/2.php");
+		assertEquals(2, manifest.size());
+	}
+}
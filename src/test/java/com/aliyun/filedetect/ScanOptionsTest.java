@@ -0,0 +1,88 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+public class ScanOptionsTest {
+	private static Path path(String relative) {
+		return Paths.get(relative);
+	}
+
+	@Test
+	public void testNoIncludeMatchesAll() {
+		ScanOptions options = ScanOptions.builder().build();
+		assertTrue(options.isIncluded(path("a/b/c.bin")));
+		assertFalse(options.isExcluded(path("a/b/c.bin")));
+	}
+
+	@Test
+	public void testNameOnlyRuleMatchesAnyDepth() {
+		ScanOptions options = ScanOptions.builder().addInclude("*.php").addInclude("*.{jsp,asp}").build();
+		assertTrue(options.isIncluded(path("index.php")));
+		assertTrue(options.isIncluded(path("www/app/admin/login.php")));
+		assertTrue(options.isIncluded(path("www/shell.jsp")));
+		assertTrue(options.isIncluded(path("www/shell.asp")));
+		assertFalse(options.isIncluded(path("www/index.html")));
+		assertFalse("suffix must match the whole name", options.isIncluded(path("www/index.php.bak")));
+	}
+
+	@Test
+	public void testPathRuleMatchesRelativePath() {
+		ScanOptions options = ScanOptions.builder().addInclude("upload/*.php").addInclude("static/**/*.js").build();
+		assertTrue(options.isIncluded(path("upload/a.php")));
+		assertFalse("* does not cross directories", options.isIncluded(path("upload/2024/a.php")));
+		assertFalse("matched from the scan root", options.isIncluded(path("www/upload/a.php")));
+		assertTrue(options.isIncluded(path("static/js/lib/a.js")));
+		assertFalse(options.isIncluded(path("static/a.js")));
+	}
+
+	@Test
+	public void testExcludeDirectoryName() {
+		ScanOptions options = ScanOptions.builder().addExclude("node_modules").addExclude(".git").addExclude("*.log").build();
+		assertTrue(options.isExcluded(path("app/node_modules")));
+		assertTrue(options.isExcluded(path(".git")));
+		assertTrue(options.isExcluded(path("logs/access.log")));
+		assertFalse(options.isExcluded(path("app/src/node_modules.js")));
+	}
+
+	@Test
+	public void testSizeAndModifiedLimits() {
+		ScanOptions options = ScanOptions.builder().setMinSize(10).setMaxSize(100).setModifiedAfter(1000).build();
+		assertFalse(options.isSizeAllowed(9));
+		assertTrue(options.isSizeAllowed(10));
+		assertTrue(options.isSizeAllowed(100));
+		assertFalse(options.isSizeAllowed(101));
+		assertFalse(options.isModifiedAllowed(1000));
+		assertTrue(options.isModifiedAllowed(1001));
+		ScanOptions unlimited = ScanOptions.builder().build();
+		assertTrue(unlimited.isSizeAllowed(Long.MAX_VALUE));
+		assertTrue(unlimited.isModifiedAllowed(0));
+	}
+
+	@Test
+	public void testToBuilderCopiesRules() {
+		ScanOptions options = ScanOptions.builder().addInclude("*.php").addExclude("vendor").setPriority(PRIORITY.PRI_LOW).build();
+		ScanOptions copy = options.toBuilder().addInclude("*.jsp").build();
+		assertEquals(1, options.getIncludes().size());
+		assertEquals(2, copy.getIncludes().size());
+		assertTrue(copy.isExcluded(path("a/vendor")));
+		assertTrue(copy.isIncluded(path("a/b.jsp")));
+		assertEquals(PRIORITY.PRI_LOW, copy.getPriority());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadGlobRejected() {
+		ScanOptions.builder().addInclude("*.{php").build();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadSizeLimitRejected() {
+		ScanOptions.builder().setMinSize(100).setMaxSize(10).build();
+	}
+}
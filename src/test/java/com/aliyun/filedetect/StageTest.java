@@ -0,0 +1,155 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class StageTest {
+	private final CountDownLatch m_release = new CountDownLatch(1);
+	private final CountDownLatch m_started = new CountDownLatch(1);
+	private Stage m_stage;
+
+	// 占住线程直到m_release
+	private final Runnable m_blocker = new Runnable() {
+		public void run() {
+			m_started.countDown();
+			try {
+				m_release.await();
+			} catch (InterruptedException e) {
+			}
+		}
+	};
+
+	private static Runnable noop() {
+		return new Runnable() {
+			public void run() {
+			}
+		};
+	}
+
+	// 单线程、队列容量1的阶段，线程已被占住且队列已满
+	private void fill() throws InterruptedException {
+		m_stage = new Stage("test", 1, 1, false);
+		assertTrue(m_stage.offer(m_blocker));
+		assertTrue(m_started.await(5, TimeUnit.SECONDS));
+		assertTrue(m_stage.offer(noop()));
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		m_release.countDown();
+		if (null != m_stage) {
+			m_stage.shutdown();
+		}
+	}
+
+	@Test
+	public void testOfferFailsWhenFull() throws InterruptedException {
+		fill();
+		long start = System.currentTimeMillis();
+		assertFalse(m_stage.offer(noop()));
+		assertTrue("offer must not wait", System.currentTimeMillis() - start < 50);
+		assertEquals(1, m_stage.getStats().blocked_count);
+		assertEquals(1, m_stage.getQueueSize());
+	}
+
+	@Test
+	public void testSubmitGivesUpAtDeadline() throws InterruptedException {
+		fill();
+		long start = System.currentTimeMillis();
+		assertFalse(m_stage.submit(noop(), start + 150));
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("waited " + elapsed, elapsed >= 140 && elapsed < 1000);
+	}
+
+	@Test
+	public void testSubmitWaitsForSpace() throws InterruptedException {
+		fill();
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				m_release.countDown();
+			}
+		}).start();
+		final CountDownLatch done = new CountDownLatch(1);
+		assertTrue(m_stage.submit(new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		}, System.currentTimeMillis() + 5000));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testShutdownReleasesBlockedSubmitter() throws InterruptedException {
+		fill();
+		final AtomicBoolean submitted = new AtomicBoolean(true);
+		Thread submitter = new Thread(new Runnable() {
+			public void run() {
+				submitted.set(m_stage.submit(noop()));
+			}
+		});
+		submitter.start();
+		Thread.sleep(50);
+		long blocked = m_stage.getStats().blocked_count;
+		List<Runnable> left = m_stage.shutdown();
+		submitter.join(5000);
+		assertFalse(submitter.isAlive());
+		// 等待中的任务或被拒绝，或在关闭过程中放入队列并由shutdown交还调用方
+		assertEquals("queued jobs returned to the caller", submitted.get() ? 2 : 1, left.size());
+		assertFalse(m_stage.offer(noop()));
+		assertEquals("offers after shutdown are not counted as blocked", blocked, m_stage.getStats().blocked_count);
+		m_stage = null;
+	}
+
+	@Test
+	public void testIsCurrentThread() throws InterruptedException {
+		m_stage = new Stage("test", 2, 4, false);
+		final Stage other = new Stage("other", 1, 1, false);
+		final AtomicBoolean own = new AtomicBoolean();
+		final AtomicBoolean foreign = new AtomicBoolean(true);
+		final CountDownLatch done = new CountDownLatch(1);
+		try {
+			assertTrue(m_stage.submit(new Runnable() {
+				public void run() {
+					own.set(m_stage.isCurrentThread());
+					foreign.set(other.isCurrentThread());
+					done.countDown();
+				}
+			}));
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+		} finally {
+			other.shutdown();
+		}
+		assertTrue(own.get());
+		assertFalse(foreign.get());
+		assertFalse(m_stage.isCurrentThread());
+	}
+
+	@Test
+	public void testVirtualStageStartsThreadsOnDemand() throws InterruptedException {
+		m_stage = new Stage("test", 4, 4, true);
+		final CountDownLatch done = new CountDownLatch(1);
+		final Stage[] seen = new Stage[1];
+		assertTrue(m_stage.submit(new Runnable() {
+			public void run() {
+				seen[0] = m_stage.isCurrentThread() ? m_stage : null;
+				done.countDown();
+			}
+		}));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertSame(m_stage, seen[0]);
+	}
+}
@@ -0,0 +1,21 @@
+package com.aliyun.filedetect;
+
+import java.io.File;
+
+/**
+ * 测试用临时文件清理
+ */
+class TestFiles {
+	private TestFiles() {
+	}
+
+	static void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,152 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class VerdictCacheTest {
+	private static final long HOUR = 3600 * 1000L;
+
+	private static String md5(int i) {
+		return String.format("%032x", i);
+	}
+
+	// 与VerdictCache.segmentFor一致，取落在同一段中的md5，用于验证段内的淘汰顺序
+	private static List<String> sameSegment(int n) {
+		List<String> keys = new ArrayList<>();
+		int segment = -1;
+		for (int i = 0; keys.size() < n; i++) {
+			String md5 = md5(i);
+			int h = md5.hashCode();
+			h ^= (h >>> 16);
+			if (segment < 0) {
+				segment = h & 15;
+			}
+			if ((h & 15) == segment) {
+				keys.add(md5);
+			}
+		}
+		return keys;
+	}
+
+	@Test
+	public void testPutGet() {
+		VerdictCache cache = new VerdictCache(1000, 1 << 20, HOUR, HOUR, HOUR, null);
+		ScanTask.ResultInfo black = new ScanTask.ResultInfo(ScanTask.IS_BLACK, 100, "WebShell", null);
+		cache.put(md5(1), black);
+		assertSame(black, cache.get(md5(1)));
+		assertNull(cache.get(md5(2)));
+		CacheStats stats = cache.getStats();
+		assertEquals(1, stats.hit_count);
+		assertEquals(1, stats.miss_count);
+		assertEquals(1, stats.size);
+	}
+
+	@Test
+	public void testNonFinalResultNotCached() {
+		VerdictCache cache = new VerdictCache(1000, 1 << 20, HOUR, HOUR, HOUR, null);
+		cache.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_DETECTING));
+		cache.put(md5(2), new ScanTask.ResultInfo(ScanTask.REQUEST_TOO_FREQUENTLY));
+		cache.put(md5(3), new ScanTask.ResultInfo(ScanTask.GET_RESULT_FAIL));
+		assertEquals(0, cache.getStats().size);
+	}
+
+	@Test
+	public void testTtlPerResult() throws InterruptedException {
+		VerdictCache cache = new VerdictCache(1000, 1 << 20, 50, HOUR, 0, null);
+		cache.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_OK));
+		cache.put(md5(2), new ScanTask.ResultInfo(ScanTask.IS_BLACK));
+		cache.put(md5(3), ScanTask.ResultInfo.error("failed"));
+		assertNull("error ttl <= 0 is not cached", cache.get(md5(3)));
+		assertNotNull(cache.get(md5(1)));
+		Thread.sleep(100);
+		assertNull("white result expired", cache.get(md5(1)));
+		assertNotNull("black result still valid", cache.get(md5(2)));
+		assertEquals(1, cache.getStats().size);
+	}
+
+	@Test
+	public void testSetTtlAppliesToCachedEntries() {
+		VerdictCache cache = new VerdictCache(1000, 1 << 20, HOUR, HOUR, HOUR, null);
+		cache.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_OK));
+		cache.setTtl(-1, HOUR, HOUR);
+		assertNull(cache.get(md5(1)));
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		// 每段2个条目
+		VerdictCache cache = new VerdictCache(32, 1 << 20, HOUR, HOUR, HOUR, null);
+		List<String> keys = sameSegment(3);
+		cache.put(keys.get(0), new ScanTask.ResultInfo(ScanTask.IS_OK));
+		cache.put(keys.get(1), new ScanTask.ResultInfo(ScanTask.IS_OK));
+		assertNotNull(cache.get(keys.get(0)));
+		cache.put(keys.get(2), new ScanTask.ResultInfo(ScanTask.IS_OK));
+		assertNull(cache.get(keys.get(1)));
+		assertNotNull(cache.get(keys.get(0)));
+		assertNotNull(cache.get(keys.get(2)));
+		assertEquals(1, cache.getStats().eviction_count);
+	}
+
+	@Test
+	public void testEvictByBytes() {
+		// 每段约1KB，长扩展信息的条目超出上限
+		VerdictCache cache = new VerdictCache(1000, 16 * 1024, HOUR, HOUR, HOUR, null);
+		List<String> keys = sameSegment(2);
+		StringBuilder ext = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			ext.append('x');
+		}
+		cache.put(keys.get(0), new ScanTask.ResultInfo(ScanTask.IS_OK, 0, null, ext.toString()));
+		cache.put(keys.get(1), new ScanTask.ResultInfo(ScanTask.IS_OK, 0, null, ext.toString()));
+		assertNull(cache.get(keys.get(0)));
+		assertNotNull(cache.get(keys.get(1)));
+		assertEquals(1, cache.getStats().eviction_count);
+	}
+
+	@Test
+	public void testStoreHitPromotedAndCounted() throws Exception {
+		File dir = Files.createTempDirectory("verdict-cache").toFile();
+		VerdictStore store = new VerdictStore(dir, HOUR, HOUR);
+		try {
+			store.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_BLACK, 90, "Trojan", null), System.currentTimeMillis());
+			VerdictCache cache = new VerdictCache(1000, 1 << 20, HOUR, HOUR, HOUR, store);
+			ScanTask.ResultInfo info = cache.get(md5(1));
+			assertNotNull(info);
+			assertEquals(ScanTask.IS_BLACK, info.result);
+			assertEquals("Trojan", info.virus_type);
+			assertSame("promoted to memory", info, cache.get(md5(1)));
+			CacheStats stats = cache.getStats();
+			assertEquals(2, stats.hit_count);
+			assertEquals(1, stats.store_hit_count);
+			assertEquals(0, stats.miss_count);
+		} finally {
+			store.close();
+			TestFiles.delete(dir);
+		}
+	}
+
+	@Test
+	public void testExpiredStoreRecordIsMiss() throws Exception {
+		File dir = Files.createTempDirectory("verdict-cache").toFile();
+		VerdictStore store = new VerdictStore(dir, 1000, HOUR);
+		try {
+			store.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_OK), System.currentTimeMillis() - 2000);
+			VerdictCache cache = new VerdictCache(1000, 1 << 20, HOUR, HOUR, HOUR, store);
+			assertNull(cache.get(md5(1)));
+			assertEquals(1, cache.getStats().miss_count);
+			assertEquals(0, cache.getStats().store_hit_count);
+		} finally {
+			store.close();
+			TestFiles.delete(dir);
+		}
+	}
+}
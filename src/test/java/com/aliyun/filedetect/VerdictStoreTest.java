@@ -0,0 +1,178 @@
+package com.aliyun.filedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VerdictStoreTest {
+	private static final long HOUR = 3600 * 1000L;
+
+	private File m_dir;
+	private VerdictStore m_store;
+
+	private static String md5(int i) {
+		return String.format("%032x", i);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		m_dir = Files.createTempDirectory("verdict-store").toFile();
+		m_store = new VerdictStore(m_dir, 0, HOUR);
+	}
+
+	@After
+	public void tearDown() {
+		m_store.close();
+		TestFiles.delete(m_dir);
+	}
+
+	private VerdictStore reopen(long max_age) throws Exception {
+		m_store.close();
+		m_store = new VerdictStore(m_dir, max_age, HOUR);
+		return m_store;
+	}
+
+	@Test
+	public void testPutGet() {
+		m_store.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_BLACK, 95, "WebShell", "{\"a\":1}"), 1000);
+		VerdictStore.StoredVerdict verdict = m_store.get(md5(1));
+		assertNotNull(verdict);
+		assertEquals(ScanTask.IS_BLACK, verdict.info.result);
+		assertEquals(95, verdict.info.score);
+		assertEquals("WebShell", verdict.info.virus_type);
+		assertEquals("{\"a\":1}", verdict.info.ext);
+		assertEquals(1000, verdict.time);
+		assertNull(m_store.get(md5(2)));
+		assertNull("invalid md5", m_store.get("not-a-md5"));
+	}
+
+	@Test
+	public void testErrorResultNotStored() {
+		m_store.put(md5(1), ScanTask.ResultInfo.error("failed"), System.currentTimeMillis());
+		m_store.put(md5(2), new ScanTask.ResultInfo(ScanTask.IS_DETECTING), System.currentTimeMillis());
+		assertEquals(0, m_store.size());
+	}
+
+	@Test
+	public void testReloadAfterReopen() throws Exception {
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++) {
+			m_store.put(md5(i), new ScanTask.ResultInfo(ScanTask.IS_OK), now);
+		}
+		reopen(0);
+		assertEquals(100, m_store.size());
+		for (int i = 0; i < 100; i++) {
+			assertNotNull(m_store.get(md5(i)));
+		}
+	}
+
+	@Test
+	public void testTruncatedTailRecovered() throws Exception {
+		long now = System.currentTimeMillis();
+		m_store.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_OK), now);
+		m_store.put(md5(2), new ScanTask.ResultInfo(ScanTask.IS_BLACK), now);
+		m_store.close();
+		// 模拟写入中途退出：末尾追加不完整的记录
+		try (FileOutputStream out = new FileOutputStream(new File(m_dir, "verdict.dat"), true)) {
+			out.write(new byte[] { 0, 0, 0, 60, 1, 2, 3 });
+		}
+		reopen(0);
+		assertEquals(2, m_store.size());
+		assertNotNull(m_store.get(md5(1)));
+		assertNotNull(m_store.get(md5(2)));
+		m_store.put(md5(3), new ScanTask.ResultInfo(ScanTask.IS_OK), now);
+		reopen(0);
+		assertNotNull(m_store.get(md5(3)));
+		assertEquals(3, m_store.size());
+	}
+
+	@Test
+	public void testCorruptHeaderReinitialized() throws Exception {
+		m_store.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_OK), System.currentTimeMillis());
+		m_store.close();
+		try (FileOutputStream out = new FileOutputStream(new File(m_dir, "verdict.dat"))) {
+			out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17 });
+		}
+		reopen(0);
+		assertEquals(0, m_store.size());
+		m_store.put(md5(2), new ScanTask.ResultInfo(ScanTask.IS_OK), System.currentTimeMillis());
+		assertNotNull(m_store.get(md5(2)));
+	}
+
+	@Test
+	public void testCompactKeepsLatestRecord() throws Exception {
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 50; i++) {
+			m_store.put(md5(i), new ScanTask.ResultInfo(ScanTask.IS_OK), now);
+		}
+		m_store.put(md5(7), new ScanTask.ResultInfo(ScanTask.IS_BLACK, 80, "Miner", null), now + 1);
+		m_store.compact();
+		assertEquals(50, m_store.size());
+		assertEquals(ScanTask.IS_BLACK, m_store.get(md5(7)).info.result);
+		assertEquals(ScanTask.IS_OK, m_store.get(md5(8)).info.result);
+		long data_len = new File(m_dir, "verdict.dat").length();
+
+		// 压缩后追加的记录由尾部索引定位，重新打开后与索引合并查找
+		m_store.put(md5(8), new ScanTask.ResultInfo(ScanTask.IS_BLACK), now + 2);
+		m_store.put(md5(100), new ScanTask.ResultInfo(ScanTask.IS_OK), now + 2);
+		reopen(0);
+		assertEquals(52, m_store.size());
+		assertEquals(ScanTask.IS_BLACK, m_store.get(md5(8)).info.result);
+		assertNotNull(m_store.get(md5(100)));
+		assertNotNull(m_store.get(md5(0)));
+		assertTrue(new File(m_dir, "verdict.dat").length() > data_len);
+
+		m_store.compact();
+		assertEquals(51, m_store.size());
+		assertEquals(ScanTask.IS_BLACK, m_store.get(md5(8)).info.result);
+	}
+
+	@Test
+	public void testMaxAge() throws Exception {
+		long now = System.currentTimeMillis();
+		reopen(1000);
+		m_store.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_OK), now - 2000);
+		m_store.put(md5(2), new ScanTask.ResultInfo(ScanTask.IS_OK), now);
+		assertNull("expired", m_store.get(md5(1)));
+		assertNotNull(m_store.get(md5(2)));
+		m_store.compact();
+		assertEquals("expired record dropped by compaction", 1, m_store.size());
+	}
+
+	@Test
+	public void testReopenAfterChannelClosed() throws Exception {
+		m_store.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_OK), System.currentTimeMillis());
+		// 模拟其他线程读写时被中断，共用的数据文件通道被关闭
+		Field field = VerdictStore.class.getDeclaredField("m_data");
+		field.setAccessible(true);
+		((FileChannel) field.get(m_store)).close();
+		assertNotNull(m_store.get(md5(1)));
+		m_store.put(md5(2), new ScanTask.ResultInfo(ScanTask.IS_OK), System.currentTimeMillis());
+		assertNotNull(m_store.get(md5(2)));
+		assertEquals(0, m_store.getErrorCount());
+	}
+
+	@Test
+	public void testInterruptedThreadSkipped() throws Exception {
+		m_store.put(md5(1), new ScanTask.ResultInfo(ScanTask.IS_OK), System.currentTimeMillis());
+		Thread.currentThread().interrupt();
+		try {
+			assertNull(m_store.get(md5(1)));
+		} finally {
+			Thread.interrupted();
+		}
+		assertEquals(1, m_store.getErrorCount());
+		assertNotNull(m_store.get(md5(1)));
+	}
+}